@@ -0,0 +1,115 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.redhat.lightblue.util.JsonUtils;
+
+/**
+ * Reads and writes json documents passed as Strings in Smile or CBOR.
+ * Resources that take and return json text, such as the metadata
+ * resource, can be called with binary bodies: a binary request body is
+ * converted to json text before it is passed to the resource, and the
+ * json text returned by the resource is converted to the negotiated
+ * binary format. Returned text that is not json, such as an empty
+ * string, is written unchanged as text/plain. JSON bodies are handled by
+ * the default String provider.
+ */
+@Provider
+@Consumes({WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
+@Produces({WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
+public class BinaryJsonStringProvider implements MessageBodyReader<String>, MessageBodyWriter<String> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return String.class == type && WireFormat.of(mediaType).isBinary();
+    }
+
+    @Override
+    public String readFrom(Class<String> type,
+                           Type genericType,
+                           Annotation[] annotations,
+                           MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders,
+                           InputStream entityStream) throws IOException {
+        return WireFormat.of(mediaType).readTree(entityStream).toString();
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return String.class == type && WireFormat.of(mediaType).isBinary();
+    }
+
+    @Override
+    public long getSize(String s, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(String s,
+                        Class<?> type,
+                        Type genericType,
+                        Annotation[] annotations,
+                        MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        JsonNode node = parse(s);
+        if (node == null) {
+            // Not a json document, such as the empty response of a
+            // remove, so it is written unchanged as text
+            if (httpHeaders != null) {
+                httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_TYPE);
+            }
+            entityStream.write(s.getBytes(StandardCharsets.UTF_8));
+        } else {
+            WireFormat.of(mediaType).writeTree(node, entityStream);
+        }
+    }
+
+    /**
+     * Returns the json document in s, or null if s is not json
+     */
+    private static JsonNode parse(String s) {
+        if (s.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            JsonNode node = JsonUtils.json(s);
+            return node == null || node.isMissingNode() ? null : node;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Writes a {@link CallStatus} directly to the response stream. The json
+ * tree of the call status is serialized as it is written, so the
+ * response body is never materialized as a String. The call status is
+ * written as JSON, Smile or CBOR, depending on the negotiated media
+ * type.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
+public class CallStatusMessageBodyWriter implements MessageBodyWriter<CallStatus> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return CallStatus.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(CallStatus status, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(CallStatus status,
+                        Class<?> type,
+                        Type genericType,
+                        Annotation[] annotations,
+                        MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        WireFormat.of(mediaType).writeTree(status.toJson(), entityStream);
+    }
+}
@@ -21,6 +21,10 @@ package com.redhat.lightblue.rest;
 import javax.ws.rs.core.Response;
 
 import com.redhat.lightblue.crud.CrudConstants;
+import com.redhat.lightblue.rest.bulkhead.AdaptiveLimiter;
+import com.redhat.lightblue.rest.bulkhead.BulkheadFilter;
+import com.redhat.lightblue.rest.util.BodyLimit;
+import com.redhat.lightblue.rest.util.Deadline;
 
 import com.redhat.lightblue.util.Error;
 
@@ -29,6 +33,12 @@ import com.redhat.lightblue.util.Error;
  */
 public final class HttpErrorMapper {
 
+    /**
+     * RestCrudConstants.ERR_INVALID_CONTINUATION, the crud module is not
+     * visible from here
+     */
+    private static final String ERR_INVALID_CONTINUATION = "rest-crud:InvalidContinuation";
+
     /**
      * Maps the error code to an Http error code
      *
@@ -46,6 +56,15 @@ public final class HttpErrorMapper {
         } else if (CrudConstants.ERR_DISABLED_METADATA.equals(errorCode)
                 || CrudConstants.ERR_UNKNOWN_ENTITY.equals(errorCode)) {
             return Response.Status.NOT_FOUND;
+        } else if (AdaptiveLimiter.ERR_OVERLOADED.equals(errorCode)
+                || BulkheadFilter.ERR_BULKHEAD_FULL.equals(errorCode)
+                || Deadline.ERR_DEADLINE_EXCEEDED.equals(errorCode)) {
+            return Response.Status.SERVICE_UNAVAILABLE;
+        } else if (BodyLimit.ERR_REQUEST_TOO_LARGE.equals(errorCode)) {
+            // JAX-RS 1.1 has no status for 413
+            return Response.Status.BAD_REQUEST;
+        } else if (ERR_INVALID_CONTINUATION.equals(errorCode)) {
+            return Response.Status.BAD_REQUEST;
         } else if (errorCode != null) {
             return Response.Status.INTERNAL_SERVER_ERROR;
         } else {
@@ -0,0 +1,204 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.redhat.lightblue.util.JsonUtils;
+
+/**
+ * The formats request and response bodies can be exchanged in. JSON is
+ * the default. Smile and CBOR are binary encodings of the same json
+ * tree, and are used only if the client asks for them with the
+ * Content-Type and Accept headers.
+ */
+public enum WireFormat {
+
+    JSON(MediaType.APPLICATION_JSON_TYPE, new JsonFactory()),
+    SMILE(new MediaType("application", "x-jackson-smile"), new SmileFactory()),
+    CBOR(new MediaType("application", "cbor"), new CBORFactory());
+
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String APPLICATION_CBOR = "application/cbor";
+
+    private final MediaType mediaType;
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+
+    WireFormat(MediaType mediaType, JsonFactory factory) {
+        this.mediaType = mediaType;
+        // Numbers are read the same way JsonUtils reads json
+        this.mapper = new ObjectMapper(factory)
+                .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+                .setNodeFactory(JsonNodeFactory.withExactBigDecimals(true));
+        this.factory = mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Returns the factory to create generators for this format. The
+     * generators can write trees, and do not close the target stream.
+     */
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Returns the mapper that reads this format. Decimals are read as
+     * exact BigDecimals, the same way JsonUtils reads json.
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * Reads a json tree in this format from the stream
+     */
+    public JsonNode readTree(InputStream in) throws IOException {
+        if (this == JSON) {
+            return JsonUtils.json(in);
+        }
+        return mapper.readTree(in);
+    }
+
+    /**
+     * Writes the json tree in this format to the stream
+     */
+    public void writeTree(JsonNode node, OutputStream out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeTree(node);
+        }
+    }
+
+    /**
+     * Returns the format of the media type, or JSON if the media type is
+     * null or not one of the supported formats
+     */
+    public static WireFormat of(MediaType mediaType) {
+        if (mediaType != null) {
+            WireFormat format = forType((mediaType.getType() + "/" + mediaType.getSubtype()).toLowerCase());
+            if (format != null) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Returns the format of the Content-Type header value
+     */
+    public static WireFormat ofContentType(String contentType) {
+        if (contentType == null || contentType.isEmpty()) {
+            return JSON;
+        }
+        try {
+            return of(MediaType.valueOf(contentType));
+        } catch (IllegalArgumentException e) {
+            return JSON;
+        }
+    }
+
+    /**
+     * Returns the format of the request body
+     */
+    public static WireFormat ofRequest(HttpServletRequest request) {
+        return request == null ? JSON : ofContentType(request.getHeader(HttpHeaders.CONTENT_TYPE));
+    }
+
+    /**
+     * Returns the format the response should be written in, given the
+     * Accept header value. The acceptable format with the highest
+     * quality is selected, and a media type is preferred to a wildcard
+     * of the same quality. Between equally acceptable formats, the one
+     * listed first is selected. A wildcard selects JSON, and JSON is
+     * also selected if none of the formats are acceptable.
+     */
+    public static WireFormat negotiate(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return JSON;
+        }
+        WireFormat best = JSON;
+        float bestQ = 0;
+        boolean bestWildcard = true;
+        for (String element : accept.split(",")) {
+            String[] parts = element.split(";");
+            String type = parts[0].trim().toLowerCase();
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            boolean wildcard = type.endsWith("/*");
+            WireFormat format = wildcard ? forWildcard(type) : forType(type);
+            if (format != null && q > 0 && (q > bestQ || (q == bestQ && bestWildcard && !wildcard))) {
+                best = format;
+                bestQ = q;
+                bestWildcard = wildcard;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the format the response to the request should be written in
+     */
+    public static WireFormat acceptedBy(HttpServletRequest request) {
+        return request == null ? JSON : negotiate(request.getHeader(HttpHeaders.ACCEPT));
+    }
+
+    private static WireFormat forWildcard(String type) {
+        return type.equals("*/*") || type.equals("application/*") ? JSON : null;
+    }
+
+    private static WireFormat forType(String type) {
+        for (WireFormat format : values()) {
+            if (type.equals(format.mediaType.getType() + "/" + format.mediaType.getSubtype())) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,326 @@
+package com.redhat.lightblue.rest.audit;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Writes audit entries as compact json lines. The entries are logged by
+ * the LightblueAuditServletFilter logger.
+ *
+ * In async mode, publishing an entry copies it into a preallocated slot
+ * of a bounded ring buffer, and a background thread formats and logs
+ * it. Request threads do not format dates, build strings, or call the
+ * logger. Many threads can publish at the same time without locking:
+ * each slot has a sequence number that tells whether the slot is free
+ * for a given position, or holds the entry published for it. The writer
+ * parks while the buffer is empty, and the thread publishing the next
+ * entry wakes it up.
+ *
+ * When the buffer is full, the entry is dropped and counted in
+ * api.audit.dropped with the DROP policy. With the BLOCK policy, the
+ * request thread waits until the writer frees a slot. The number of
+ * entries waiting to be written is published as api.audit.backlog.
+ *
+ * If async mode is off, entries are formatted and logged in the calling
+ * thread.
+ */
+public class AuditLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LightblueAuditServletFilter.class);
+
+    public static final String PREFIX = "Audited lightblue rest request => ";
+
+    /**
+     * What to do with an entry when the ring buffer is full
+     */
+    public enum Overflow {
+        DROP, BLOCK
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern(LightblueAuditServletFilter.YYYY_MM_DD_T_HH_MM_SS_SSSZ)
+            .withZone(ZoneId.systemDefault());
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final boolean async;
+    private final Overflow overflow;
+    private final int mask;
+    private final AuditRecord[] records;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Number of threads publishing into the ring buffer
+    private final AtomicInteger publishing = new AtomicInteger();
+    private volatile long head;
+    private volatile boolean running;
+    private final Thread writer;
+    private final Meter dropped;
+
+    // Only used by the writer thread
+    private final StringBuilder line = new StringBuilder(512);
+
+    /**
+     * @param async Whether entries are written by a background thread
+     * @param bufferSize Number of slots of the ring buffer, rounded up to
+     * a power of two
+     * @param overflow What to do when the ring buffer is full
+     */
+    public AuditLog(boolean async, int bufferSize, Overflow overflow) {
+        this.async = async;
+        this.overflow = overflow == null ? Overflow.DROP : overflow;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize) * 2 - 1);
+        this.mask = capacity - 1;
+        this.records = new AuditRecord[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            records[i] = new AuditRecord();
+            sequences.set(i, i);
+        }
+
+        MetricRegistry registry = MetricRegistryFactory.getJmxMetricRegistry();
+        String backlog = MetricRegistry.name("api", "audit", "backlog");
+        registry.remove(backlog);
+        registry.register(backlog, (Gauge<Long>) this::getBacklog);
+        this.dropped = registry.meter(MetricRegistry.name("api", "audit", "dropped"));
+
+        if (async) {
+            running = true;
+            writer = new Thread(this::writeLoop, "lightblue-audit-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    public int getCapacity() {
+        return records.length;
+    }
+
+    /**
+     * Returns the number of entries waiting to be written
+     */
+    public long getBacklog() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Returns the number of entries dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.getCount();
+    }
+
+    /**
+     * Publishes an audit entry. The entry is copied, so the builder can be
+     * discarded when the call returns. Returns false if the entry was
+     * dropped.
+     */
+    public boolean publish(LogEntryBuilder entry) {
+        long now = System.currentTimeMillis();
+        if (async) {
+            publishing.incrementAndGet();
+            try {
+                // The writer drains the buffer again after the publishers
+                // that saw it running are done, so the entry is not lost
+                if (running) {
+                    return enqueue(entry, now);
+                }
+            } finally {
+                publishing.decrementAndGet();
+            }
+        }
+        AuditRecord record = new AuditRecord();
+        record.set(entry, now);
+        write(record, new StringBuilder(512));
+        return true;
+    }
+
+    private boolean enqueue(LogEntryBuilder entry, long now) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    records[index].set(entry, now);
+                    sequences.lazySet(index, pos + 1);
+                    if (head == pos) {
+                        // The writer may be parked on an empty buffer
+                        LockSupport.unpark(writer);
+                    }
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The slot still holds the entry of the previous lap
+                if (overflow == Overflow.DROP || !running) {
+                    dropped.mark();
+                    return false;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                pos = tail.get();
+            } else {
+                // Another thread claimed this position
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Waits until the entries published before the call are written, or
+     * the timeout passes. Returns false on timeout.
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (head < target && running) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        return head >= target || !running;
+    }
+
+    /**
+     * Stops the writer thread after it writes the pending entries
+     */
+    public void close() {
+        if (writer != null && running) {
+            running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // Threads that saw running before close may still be publishing
+        while (publishing.get() > 0) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Writes the published entries in order, and returns how many were
+     * written
+     */
+    private int drain() {
+        int n = 0;
+        long pos = head;
+        while (true) {
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                break;
+            }
+            AuditRecord record = records[index];
+            try {
+                write(record, line);
+            } catch (RuntimeException e) {
+                // Never let a bad entry stop the writer
+                LOGGER.error("Cannot write audit entry: {}", e.toString());
+            }
+            record.clear();
+            sequences.lazySet(index, pos + records.length);
+            pos++;
+            head = pos;
+            n++;
+        }
+        return n;
+    }
+
+    private static void write(AuditRecord record, StringBuilder b) {
+        if (!LOGGER.isInfoEnabled()) {
+            return;
+        }
+        b.setLength(0);
+        b.append(PREFIX).append('{');
+        b.append("\"initialTimestamp\":\"");
+        DATE_FORMAT.formatTo(Instant.ofEpochMilli(record.timestamp), b);
+        b.append("\",\"currentTimestamp\":\"");
+        DATE_FORMAT.formatTo(Instant.ofEpochMilli(record.currentTimestamp), b);
+        b.append('"');
+        appendField(b, "principal", record.principal);
+        appendField(b, "resource", record.resource);
+        appendField(b, "operation", record.operation);
+        appendField(b, "entityName", record.entityName);
+        appendField(b, "entityVersion", record.entityVersion);
+        appendField(b, "entityStatus", record.entityStatus);
+        b.append(",\"requestSize\":").append(record.requestSize);
+        b.append(",\"responseSize\":").append(record.responseSize);
+        b.append(",\"timeElapsedInNs\":").append(record.timeElapsedInNs);
+        b.append('}');
+        LOGGER.info(b.toString());
+    }
+
+    private static void appendField(StringBuilder b, String name, String value) {
+        b.append(",\"").append(name).append("\":");
+        if (value == null) {
+            b.append("null");
+            return;
+        }
+        b.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        b.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        b.append(c);
+                    }
+            }
+        }
+        b.append('"');
+    }
+}
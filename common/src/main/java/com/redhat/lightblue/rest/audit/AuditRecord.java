@@ -0,0 +1,46 @@
+package com.redhat.lightblue.rest.audit;
+
+/**
+ * A slot of the audit log ring buffer. Slots are allocated once, and
+ * reused for every entry that passes through them.
+ */
+final class AuditRecord {
+    long timestamp;
+    long currentTimestamp;
+    String principal;
+    String resource;
+    String operation;
+    String entityName;
+    String entityVersion;
+    String entityStatus;
+    int requestSize;
+    int responseSize;
+    long timeElapsedInNs;
+
+    void set(LogEntryBuilder entry, long currentTimestamp) {
+        this.timestamp = entry.getTimestamp();
+        this.currentTimestamp = currentTimestamp;
+        this.principal = entry.getPrincipal() == null ? null : entry.getPrincipal().getName();
+        this.resource = entry.getResource();
+        this.operation = entry.getOperation();
+        this.entityName = entry.getEntityName();
+        this.entityVersion = entry.getEntityVersion();
+        this.entityStatus = entry.getEntityStatus();
+        this.requestSize = entry.getRequestSize();
+        this.responseSize = entry.getResponseSize();
+        this.timeElapsedInNs = entry.getTimeElapsedInNs();
+    }
+
+    /**
+     * Drops the references of the slot, so it does not keep the strings
+     * of a written entry alive
+     */
+    void clear() {
+        principal = null;
+        resource = null;
+        operation = null;
+        entityName = null;
+        entityVersion = null;
+        entityStatus = null;
+    }
+}
@@ -1,6 +1,8 @@
 package com.redhat.lightblue.rest.audit;
 
-import com.google.common.base.Stopwatch;
+import com.redhat.lightblue.rest.util.CountingServletOutputStream;
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,17 +11,33 @@ import javax.servlet.annotation.WebFilter;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.security.Principal;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Filter all the request which must have data or metadata as their context path
+ * Filter all the request which have a context path ending with /data or /metadata
+ *
+ * The response is passed through to the client as it is written, and
+ * only its size is recorded. If the request continues asynchronously,
+ * the request is audited when the async processing completes. Declare
+ * the filter with async-supported, otherwise suspended requests keep
+ * their container thread.
+ *
+ * Audit entries are written by an {@link AuditLog}. It is configured by
+ * the filter init parameters, which can be overridden by system
+ * properties with the lightblue.rest.audit. prefix:
+ * <ul>
+ * <li>async: write entries from a background thread (default true)</li>
+ * <li>bufferSize: number of entries waiting to be written before the
+ * overflow policy applies (default 8192)</li>
+ * <li>overflow: DROP to drop entries when the buffer is full, or BLOCK
+ * to make the request wait (default DROP)</li>
+ * <li>readSampleRate: fraction of read requests to audit, between 0 and
+ * 1 (default 1, all requests)</li>
+ * </ul>
  *
  * Created by lcestari on 4/1/15.
  */
@@ -28,8 +46,13 @@ public class LightblueAuditServletFilter implements Filter {
 
     public static final String YYYY_MM_DD_T_HH_MM_SS_SSSZ = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
 
+    public static final String PROPERTY_PREFIX = "lightblue.rest.audit.";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(LightblueAuditServletFilter.class);
-    private static final ThreadLocal<SimpleDateFormat> THREAD_DATE_FORMAT = new ThreadLocal<>();
+
+    private FilterConfig config;
+    private volatile AuditLog auditLog;
+    private double readSampleRate = 1;
 
     @Override
     public void doFilter(ServletRequest req, ServletResponse res,
@@ -45,73 +68,42 @@ public class LightblueAuditServletFilter implements Filter {
 
         HttpServletRequest hReq = (HttpServletRequest) req;
         Principal p = hReq.getUserPrincipal();
-        Stopwatch stopwatch = null;
+        final AuditLog log = getAuditLog();
         LogEntryBuilder logEntryBuilder = null;
 
-        boolean isMetadata = LightblueResource.METADATA.getPattern().matcher(hReq.getContextPath()).matches();
-        boolean isCrud = LightblueResource.CRUD.getPattern().matcher(hReq.getContextPath()).matches();
+        RouteClassifier classifier = RouteClassifier.forContextPath(hReq.getContextPath());
 
         // audit authenticated requests
-        boolean auditReqFlag = p != null && (isMetadata || isCrud);
+        boolean auditReqFlag = p != null && classifier != null;
 
         if (auditReqFlag) {
-            if (THREAD_DATE_FORMAT.get() == null) {
-                THREAD_DATE_FORMAT.set(new SimpleDateFormat(YYYY_MM_DD_T_HH_MM_SS_SSSZ));
-            }
             logEntryBuilder = new LogEntryBuilder();
             logEntryBuilder.setPrincipal(p);
             logEntryBuilder.setRequestSize(hReq.getContentLength());
-            logEntryBuilder.setTimestampText(THREAD_DATE_FORMAT.get().format(new Date()));
+            logEntryBuilder.setTimestamp(System.currentTimeMillis());
             logEntryBuilder.setResource(hReq.getContextPath());
 
-            setOperationEnittyVersionStatus(hReq, isMetadata, logEntryBuilder);
+            setOperationEnittyVersionStatus(hReq, classifier, logEntryBuilder);
 
-            HttpServletResponse httpServletResponse = (HttpServletResponse) res;
-            HttpServletResponse httpServletResponseWrapperBuffered = new HttpServletResponseWrapperBuffered(httpServletResponse, new ByteArrayPrintWriter());
-            res = httpServletResponseWrapperBuffered;
-            stopwatch = Stopwatch.createStarted();
+            auditReqFlag = isSampled(hReq, logEntryBuilder);
+        }
+
+        long start = 0;
+        if (auditReqFlag) {
+            res = new HttpServletResponseWrapperCounting((HttpServletResponse) res);
+            start = System.nanoTime();
         }
 
         fChain.doFilter(hReq, res);
 
         if (auditReqFlag) {
-            stopwatch.stop();
-            long elapsedTime = stopwatch.elapsed(TimeUnit.NANOSECONDS); // elapsedTime in ns
-            logEntryBuilder.setTimeElapsedInNs(elapsedTime);
-            HttpServletResponseWrapperBuffered httpServletResponseWrapperBuffered = (HttpServletResponseWrapperBuffered) res;
-            httpServletResponseWrapperBuffered.byteArrayPrintWriter.printWriter.flush();
-            byte[] bytes = httpServletResponseWrapperBuffered.byteArrayPrintWriter.toByteArray();
-            res.getOutputStream().write(bytes);
-            logEntryBuilder.setResponseSize(bytes.length);
-            final LogEntry logEntry = logEntryBuilder.createLogEntry();
-            String logEntryString = String.format(
-                    "Audited lightblue rest request => "
-                    + "{ "
-                    + "\"initialTimestamp\":\"%s\", "
-                    + "\"currentTimestamp\":\"%s\" , "
-                    + "\"principal\":\"%s\" , "
-                    + "\"resource\":\"%s\" , "
-                    + "\"operation\":\"%s\" , "
-                    + "\"entityName\":\"%s\" , "
-                    + "\"entityVersion\":\"%s\" , "
-                    + "\"entityStatus\":\"%s\" , "
-                    + "\"requestSize\":\"%d\" , "
-                    + "\"responseSize\":\"%d\" , "
-                    + "\"timeElapsedInNs\":\"%d\"  "
-                    + " }",
-                    logEntry.getTimestampText(),
-                    THREAD_DATE_FORMAT.get().format(new Date()),
-                    logEntry.getPrincipal().getName(),
-                    logEntry.getResource(),
-                    logEntry.getOperation(),
-                    logEntry.getEntityName(),
-                    logEntry.getEntityVersion(),
-                    logEntry.getEntityStatus(),
-                    logEntry.getRequestSize(),
-                    logEntry.getResponseSize(),
-                    logEntry.getTimeElapsedInNs()
-            );
-            LOGGER.info(logEntryString);
+            final HttpServletResponseWrapperCounting counting = (HttpServletResponseWrapperCounting) res;
+            counting.flushWriter();
+            if (hReq.isAsyncStarted()) {
+                hReq.getAsyncContext().addListener(new AuditAsyncListener(log, logEntryBuilder, start, counting));
+            } else {
+                audit(log, logEntryBuilder, start, counting);
+            }
         }
 
         if (LOGGER.isDebugEnabled()) {
@@ -119,192 +111,186 @@ public class LightblueAuditServletFilter implements Filter {
         }
     }
 
-    protected void setOperationEnittyVersionStatus(HttpServletRequest hReq, boolean isMetadata, LogEntryBuilder logEntryBuilder) {
-        // List of methods in http://www.w3.org/Protocols/HTTP/Methods.html
-        String method = hReq.getMethod().toUpperCase();
-        boolean processed = false;
-        String servletPath = hReq.getServletPath();
-
-        LightblueOperationChecker.Info info = null;
-        Matcher m = null;
-        switch (method) {
-            case "GET":
-                if (!processed) {
-                    processed = true;
-                    if (!isMetadata) {
-                        if ((info = LightblueCrudOperationChecker.simpleFindVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.simpleFindRegex.matches(servletPath)).found) {
-                            break;
-                        }
-                    } else if ((info = LightblueMetadataOperationChecker.getDepGraphVersionRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getDepGraphEntityRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getDepGraphRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityRolesVersionRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityRolesEntityRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityRolesRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityNamesRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityNamesStatusRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getEntityVersionsRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.getMetadataRegex.matches(servletPath)).found) {
-                        break;
-                    }
-                }
-            case "POST":
-                if (!processed) {
-                    processed = true;
-                    if (!isMetadata) {
-                        if ((info = LightblueCrudOperationChecker.findRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.findVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.deleteRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.deleteVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.updateRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.updateVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.saveRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.saveVersionRegex.matches(servletPath)).found) {
-                            break;
-                        }
-
-                    } else if ((info = LightblueMetadataOperationChecker.setDefaultVersionRegex.matches(servletPath)).found) {
-                        break;
-                    }
-                }
-            case "PUT":
-                if (!processed) {
-                    processed = true;
-                    if (!isMetadata) {
-                        if ((info = LightblueCrudOperationChecker.insertRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.insertVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.insertAltRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueCrudOperationChecker.insertAltVersionRegex.matches(servletPath)).found) {
-                            break;
-                        }
-                    } else if ((info = LightblueMetadataOperationChecker.createSchemaRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.updateSchemaStatusRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.updateEntityInfoRegex.matches(servletPath)).found) {
-                        break;
-                    } else if ((info = LightblueMetadataOperationChecker.createMetadataRegex.matches(servletPath)).found) {
-                        break;
-                    }
-                }
-            case "DELETE":
-                if (!processed) {
-                    if (isMetadata) {
-                        processed = true;
-                        if ((info = LightblueMetadataOperationChecker.clearDefaultVersionRegex.matches(servletPath)).found) {
-                            break;
-                        } else if ((info = LightblueMetadataOperationChecker.removeEntityRegex.matches(servletPath)).found) {
-                            break;
-                        }
-                    }
-                }
-            case "HEAD":
-            case "CONNECT":
-            case "OPTIONS":
-            case "TRACE":
-            case "SEARCH":
-            case "SPACEJUMP":
-            case "CHECKIN":
-            case "UNLINK":
-            case "SHOWMETHOD":
-            case "CHECKOUT":
-            // Valid HTTP method but not used yet
-            default:
-                if (processed) {
-                    // The URL missed all the patterns. Maybe there is a not mapped rest service or the URL is invalid
-                    LOGGER.warn("The URL doesn't map to one of the rest services. Request URI: " + hReq.getRequestURI()); // TODO Unique case where the whole URI is logged, when it is an exception
-                } else {
-                    // Called on of the not mapped HTTP methods
-                    LOGGER.info("Invalid HTTP method: " + method);
+    private static void audit(AuditLog log, LogEntryBuilder logEntryBuilder, long start, HttpServletResponseWrapperCounting res) {
+        logEntryBuilder.setTimeElapsedInNs(System.nanoTime() - start); // elapsedTime in ns
+        logEntryBuilder.setResponseSize((int) Math.min(Integer.MAX_VALUE, res.getResponseSize()));
+        log.publish(logEntryBuilder);
+    }
+
+    /**
+     * Returns if the request is audited. Reads are audited at
+     * readSampleRate, other requests are always audited.
+     */
+    private boolean isSampled(HttpServletRequest hReq, LogEntryBuilder logEntryBuilder) {
+        if (readSampleRate >= 1) {
+            return true;
+        }
+        String operation = logEntryBuilder.getOperation();
+        boolean read = "GET".equalsIgnoreCase(hReq.getMethod())
+                || (operation != null && operation.startsWith("POST /find"));
+        return !read || ThreadLocalRandom.current().nextDouble() < readSampleRate;
+    }
+
+    /**
+     * Returns the audit log, creating it if the filter is used without
+     * init()
+     */
+    AuditLog getAuditLog() {
+        if (auditLog == null) {
+            synchronized (this) {
+                if (auditLog == null) {
+                    auditLog = createAuditLog();
                 }
+            }
+        }
+        return auditLog;
+    }
+
+    private AuditLog createAuditLog() {
+        readSampleRate = Math.max(0, Math.min(1, getDouble("readSampleRate", 1)));
+        boolean async = !"false".equalsIgnoreCase(getParameter("async"));
+        int bufferSize = (int) getDouble("bufferSize", 8192);
+        AuditLog.Overflow overflow = AuditLog.Overflow.DROP;
+        String value = getParameter("overflow");
+        if (value != null) {
+            try {
+                overflow = AuditLog.Overflow.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Invalid value for overflow: {}", value);
+            }
+        }
+        LOGGER.debug("Audit log: async={}, bufferSize={}, overflow={}, readSampleRate={}",
+                async, bufferSize, overflow, readSampleRate);
+        return new AuditLog(async, bufferSize, overflow);
+    }
+
+    private String getParameter(String name) {
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        if (value == null && config != null) {
+            value = config.getInitParameter(name);
+        }
+        return value;
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
         }
-        if (info != null) {
-            logEntryBuilder.setOperation(info.operation);
-            logEntryBuilder.setEntityName(info.entity);
-            logEntryBuilder.setEntityVersion(info.version);
-            logEntryBuilder.setEntityStatus(info.status);
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+
+    protected void setOperationEnittyVersionStatus(HttpServletRequest hReq, RouteClassifier classifier, LogEntryBuilder logEntryBuilder) {
+        Route route = classifier.classify(hReq);
+        if (route != null) {
+            logEntryBuilder.setOperation(route.getTemplate());
+            logEntryBuilder.setEntityName(route.getEntity());
+            logEntryBuilder.setEntityVersion(route.getVersion());
+            logEntryBuilder.setEntityStatus(route.getStatus());
+        } else if (classifier.isMethod(hReq.getMethod())) {
+            // The URL missed all the routes. Maybe there is a not mapped rest service or the URL is invalid
+            LOGGER.warn("The URL doesn't map to one of the rest services. Request URI: " + hReq.getRequestURI()); // TODO Unique case where the whole URI is logged, when it is an exception
+        } else {
+            // Called on of the not mapped HTTP methods
+            LOGGER.info("Invalid HTTP method: " + hReq.getMethod());
         }
     }
 
     @Override
     public void destroy() {
         LOGGER.debug("Destroying LightblueAuditServletFilter");
+        if (auditLog != null) {
+            auditLog.close();
+        }
     }
 
     @Override
     public void init(FilterConfig config) throws ServletException {
         LOGGER.debug("Initializing LightblueAuditServletFilter");
+        this.config = config;
+        getAuditLog();
     }
 
-    private static class HttpServletResponseWrapperBuffered extends HttpServletResponseWrapper {
-        private ByteArrayPrintWriter byteArrayPrintWriter;
+    /**
+     * Audits an async request when it completes
+     */
+    private static class AuditAsyncListener implements AsyncListener {
+        private final AuditLog log;
+        private final LogEntryBuilder logEntryBuilder;
+        private final long start;
+        private final HttpServletResponseWrapperCounting res;
+
+        AuditAsyncListener(AuditLog log, LogEntryBuilder logEntryBuilder, long start, HttpServletResponseWrapperCounting res) {
+            this.log = log;
+            this.logEntryBuilder = logEntryBuilder;
+            this.start = start;
+            this.res = res;
+        }
 
-        public HttpServletResponseWrapperBuffered(HttpServletResponse httpServletResponse, ByteArrayPrintWriter byteArrayPrintWriter) {
-            super(httpServletResponse);
-            this.byteArrayPrintWriter = byteArrayPrintWriter;
+        @Override
+        public void onComplete(AsyncEvent event) {
+            audit(log, logEntryBuilder, start, res);
         }
 
         @Override
-        public PrintWriter getWriter() {
-            return byteArrayPrintWriter.getWriter();
+        public void onTimeout(AsyncEvent event) {
         }
 
         @Override
-        public ServletOutputStream getOutputStream() {
-            return byteArrayPrintWriter.getStream();
+        public void onError(AsyncEvent event) {
         }
 
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Async was restarted, which removes the listeners
+            event.getAsyncContext().addListener(this);
+        }
     }
 
-    private static class ByteArrayPrintWriter {
-        private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        private PrintWriter printWriter = new PrintWriter(byteArrayOutputStream);
-        private final ServletOutputStream byteArrayServletStream = new ByteArrayServletStream(byteArrayOutputStream);
+    private static class HttpServletResponseWrapperCounting extends HttpServletResponseWrapper {
+        private CountingServletOutputStream outputStream;
+        private PrintWriter printWriter;
 
-        public PrintWriter getWriter() {
-            return printWriter;
+        public HttpServletResponseWrapperCounting(HttpServletResponse httpServletResponse) {
+            super(httpServletResponse);
         }
 
-        public ServletOutputStream getStream() {
-            return byteArrayServletStream;
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CountingServletOutputStream(super.getOutputStream());
+            }
+            return outputStream;
         }
 
-        byte[] toByteArray() {
-            return byteArrayOutputStream.toByteArray();
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (printWriter == null) {
+                String encoding = getCharacterEncoding();
+                printWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(), encoding == null ? "ISO-8859-1" : encoding));
+            }
+            return printWriter;
         }
-    }
 
-    private static class ByteArrayServletStream extends ServletOutputStream {
-        private final ByteArrayOutputStream byteArrayOutputStream;
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
 
-        ByteArrayServletStream(ByteArrayOutputStream byteArrayOutputStream) {
-            this.byteArrayOutputStream = byteArrayOutputStream;
+        void flushWriter() {
+            if (printWriter != null) {
+                printWriter.flush();
+            }
         }
 
-        @Override
-        public void write(int param) throws IOException {
-            byteArrayOutputStream.write(param);
+        long getResponseSize() {
+            return outputStream == null ? 0 : outputStream.getCount();
         }
     }
 }
@@ -3,7 +3,7 @@ package com.redhat.lightblue.rest.audit;
 import java.security.Principal;
 
 public class LogEntryBuilder {
-    private String timestampText;
+    private long timestamp;
     private Principal principal;
     private String resource;
     private String operation;
@@ -14,8 +14,12 @@ public class LogEntryBuilder {
     private int responseSize;
     private long timeElapsedInNs;
 
-    public LogEntryBuilder setTimestampText(String timestampText) {
-        this.timestampText = timestampText;
+    /**
+     * Sets the time the request started, in milliseconds since the epoch.
+     * The audit log formats it when the entry is written.
+     */
+    public LogEntryBuilder setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
         return this;
     }
 
@@ -64,7 +68,43 @@ public class LogEntryBuilder {
         return this;
     }
 
-    public LogEntry createLogEntry() {
-        return new LogEntry(timestampText, principal, resource, operation, entityName, entityVersion, entityStatus, requestSize, responseSize, timeElapsedInNs);
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    Principal getPrincipal() {
+        return principal;
+    }
+
+    String getResource() {
+        return resource;
+    }
+
+    String getOperation() {
+        return operation;
+    }
+
+    String getEntityName() {
+        return entityName;
+    }
+
+    String getEntityVersion() {
+        return entityVersion;
+    }
+
+    String getEntityStatus() {
+        return entityStatus;
+    }
+
+    int getRequestSize() {
+        return requestSize;
+    }
+
+    int getResponseSize() {
+        return responseSize;
+    }
+
+    long getTimeElapsedInNs() {
+        return timeElapsedInNs;
     }
 }
@@ -0,0 +1,147 @@
+package com.redhat.lightblue.rest.bulkhead;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A concurrency limit that adapts to the observed latency of the
+ * requests it admits.
+ *
+ * The limiter keeps two exponential moving averages of the latency: a
+ * short term average that follows the current latency, and a long term
+ * average that serves as the no-load baseline. When the short term
+ * average grows beyond tolerance times the baseline, the requests are
+ * queueing up somewhere downstream, and the limit is decreased
+ * multiplicatively. Otherwise, the limit is increased by 1/limit for
+ * each request that completes while the limiter is using at least half
+ * of it, so it grows by about one per round trip under load, and does
+ * not grow while the application is idle.
+ *
+ * A request calls tryAcquire() before it runs. If it returns true, the
+ * request must call onComplete() with its latency when it is done, or
+ * release() if its latency should not be sampled.
+ *
+ * The current limit, the number of in-flight requests, and the
+ * rejection rate are published as api.limiter.&lt;name&gt;.limit,
+ * inFlight and rejected.
+ */
+public class AdaptiveLimiter {
+
+    public static final String ERR_OVERLOADED = "rest:Overloaded";
+
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Meter rejected;
+
+    private volatile double limit;
+    private double shortRtt;
+    private double longRtt;
+
+    public AdaptiveLimiter(String name,
+                           int initialLimit,
+                           int minLimit,
+                           int maxLimit,
+                           double tolerance,
+                           double backoffRatio,
+                           MetricRegistry registry) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        String limitName = MetricRegistry.name("api", "limiter", name, "limit");
+        String inFlightName = MetricRegistry.name("api", "limiter", name, "inFlight");
+        registry.remove(limitName);
+        registry.remove(inFlightName);
+        registry.register(limitName, (Gauge<Integer>) this::getLimit);
+        registry.register(inFlightName, (Gauge<Integer>) this::getInFlight);
+        rejected = registry.meter(MetricRegistry.name("api", "limiter", name, "rejected"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The current concurrency limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Number of admitted requests that did not complete yet
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Admits the request if the number of in-flight requests is below the
+     * current limit. Returns false, without waiting, if the request is
+     * rejected.
+     */
+    public boolean tryAcquire() {
+        int n;
+        do {
+            n = inFlight.get();
+            if (n >= getLimit()) {
+                rejected.mark();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    /**
+     * Called when an admitted request completes, with the latency of the
+     * request in nanoseconds
+     */
+    public void onComplete(long rttNanos) {
+        int n = inFlight.getAndDecrement();
+        update(rttNanos, n);
+    }
+
+    /**
+     * Called instead of onComplete() when an admitted request completes,
+     * but its latency says nothing about the load downstream
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void update(double rtt, int concurrency) {
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        longRtt += (rtt - longRtt) / LONG_WINDOW;
+
+        double newLimit = limit;
+        if (shortRtt > longRtt * tolerance) {
+            newLimit = limit * backoffRatio;
+            // Let the baseline catch up with a persistent change in
+            // latency instead of shrinking to the minimum
+            longRtt += (shortRtt - longRtt) / SHORT_WINDOW;
+        } else if (concurrency * 2 >= limit) {
+            // About one more per limit completions, that is per round
+            // trip at full load
+            newLimit = limit + 1 / limit;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+}
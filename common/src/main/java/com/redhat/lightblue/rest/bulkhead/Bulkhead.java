@@ -0,0 +1,77 @@
+package com.redhat.lightblue.rest.bulkhead;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests running concurrently in a compartment.
+ * When all permits are in use, at most maxQueue requests wait for a
+ * permit, each for at most the given wait time. The other requests are
+ * rejected immediately.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public Bulkhead(String name, int maxConcurrent, int maxQueue) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    /**
+     * Acquires a permit, waiting at most maxWaitMillis if there is room
+     * in the wait queue. Returns false if the request is rejected. If a
+     * permit is acquired, it must be released using release().
+     */
+    public boolean acquire(long maxWaitMillis) throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Number of requests holding a permit
+     */
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * Number of requests waiting for a permit
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+}
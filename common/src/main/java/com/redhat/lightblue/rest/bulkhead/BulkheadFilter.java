@@ -0,0 +1,292 @@
+package com.redhat.lightblue.rest.bulkhead;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Limits the number of concurrent crud requests per entity and per
+ * operation, so that slow requests on one entity cannot take all the
+ * worker threads of the container.
+ *
+ * Each request runs in a compartment determined by its entity and
+ * operation. The limits are read from the filter init parameters, and
+ * can be overridden by system properties with the lightblue.rest.bulkhead.
+ * prefix. For a request to run operation op on entity e, the first
+ * defined parameter of the following determines its compartment:
+ * <ul>
+ * <li>maxConcurrent.e.op: compartment e.op, all op requests on e</li>
+ * <li>maxConcurrent.e: compartment e, all requests on e</li>
+ * <li>maxConcurrent.*.op: compartment e.op, using the same limit for op
+ * on every entity</li>
+ * <li>maxConcurrent: compartment e, using the same limit for every
+ * entity</li>
+ * </ul>
+ * Requests that are not on a single entity, like bulk requests, use the
+ * operation name as the compartment. A limit of 0 or less means no
+ * limit, and that is the default.
+ *
+ * The entity comes from the request path, so any caller can make up new
+ * entities. At most maxCompartments (default 100) compartments are
+ * created from the last two rules. The requests of the entities that
+ * come after that share the compartment OTHER (or OTHER.op), using the
+ * same limit. Entities with their own limit always get their own
+ * compartment.
+ *
+ * When a compartment is full, at most maxQueue.&lt;compartment&gt; (or
+ * maxQueue, default 0) requests wait for at most maxWaitMillis (default
+ * 100) milliseconds. Other requests are rejected with rejectStatus
+ * (503 by default, or 429) and a Retry-After header of
+ * retryAfterSeconds (default 1).
+ *
+ * A request holds its place in the compartment until it completes. If it
+ * continues asynchronously, that is when the async processing completes,
+ * times out or fails, and not when the filter chain returns.
+ *
+ * The number of in-flight and queued requests and the rejection rate of
+ * each compartment are published in the request metrics registry as
+ * api.bulkhead.&lt;compartment&gt;.inFlight, queueDepth and rejected.
+ */
+public class BulkheadFilter implements Filter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkheadFilter.class);
+
+    public static final String PROPERTY_PREFIX = "lightblue.rest.bulkhead.";
+
+    public static final String ERR_BULKHEAD_FULL = "rest:BulkheadFull";
+
+    /**
+     * The compartment of the entities that come after maxCompartments
+     */
+    public static final String OTHER = "_other";
+
+    private static final Bulkhead UNLIMITED = new Bulkhead("unlimited", 0, 0);
+
+    private final MetricRegistry registry;
+    private final ConcurrentMap<String, Bulkhead> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Bulkhead> compartments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Meter> rejections = new ConcurrentHashMap<>();
+
+    private FilterConfig config;
+    private long maxWaitMillis;
+    private int rejectStatus;
+    private String retryAfterSeconds;
+    private int maxCompartments = 100;
+
+    public BulkheadFilter() {
+        this(MetricRegistryFactory.getJmxMetricRegistry());
+    }
+
+    public BulkheadFilter(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        config = filterConfig;
+        maxWaitMillis = getLong("maxWaitMillis", 100);
+        rejectStatus = (int) getLong("rejectStatus", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        retryAfterSeconds = Long.toString(getLong("retryAfterSeconds", 1));
+        maxCompartments = (int) getLong("maxCompartments", 100);
+        LOGGER.info("Bulkhead initialized with maxWaitMillis={}, rejectStatus={}, maxCompartments={}",
+                maxWaitMillis, rejectStatus, maxCompartments);
+    }
+
+    @Override
+    public void destroy() {
+        for (String name : compartments.keySet()) {
+            registry.remove(MetricRegistry.name("api", "bulkhead", name, "inFlight"));
+            registry.remove(MetricRegistry.name("api", "bulkhead", name, "queueDepth"));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        Route route = req instanceof HttpServletRequest ? RouteClassifier.CRUD.classify((HttpServletRequest) req) : null;
+        Bulkhead bulkhead = route == null ? UNLIMITED : getBulkhead(route);
+        if (bulkhead == UNLIMITED) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = bulkhead.acquire(maxWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            reject(bulkhead, (HttpServletResponse) resp);
+            return;
+        }
+        try {
+            chain.doFilter(req, resp);
+        } finally {
+            if (req.isAsyncStarted()) {
+                // The command is still running, keep the permit until
+                // the request completes
+                req.getAsyncContext().addListener(new ReleasingListener(bulkhead));
+            } else {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Releases the permit of an async request when it completes, times
+     * out or fails, whichever comes first
+     */
+    private static class ReleasingListener implements AsyncListener {
+        private final Bulkhead bulkhead;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingListener(Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Async was restarted, which removes the listeners
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private void reject(Bulkhead bulkhead, HttpServletResponse resp) throws IOException {
+        LOGGER.debug("Bulkhead {} is full", bulkhead.getName());
+        rejections.get(bulkhead.getName()).mark();
+        resp.setStatus(rejectStatus);
+        resp.setHeader("Retry-After", retryAfterSeconds);
+        resp.setContentType("application/json");
+        resp.getWriter().write(new CallStatus(Error.get(ERR_BULKHEAD_FULL, bulkhead.getName())).toString());
+    }
+
+    /**
+     * Returns the bulkhead of the compartment the route runs in, or
+     * UNLIMITED if the route has no limit. Only routes with a limit are
+     * cached, at most as many as there can be compartments for each
+     * operation.
+     */
+    Bulkhead getBulkhead(Route route) {
+        String key = route.getEntity() + "/" + route.getOperation();
+        Bulkhead bulkhead = routes.get(key);
+        if (bulkhead == null) {
+            bulkhead = resolve(route);
+            if (bulkhead != UNLIMITED && routes.size() < maxCompartments * 8) {
+                routes.putIfAbsent(key, bulkhead);
+            }
+        }
+        return bulkhead;
+    }
+
+    private Bulkhead resolve(Route route) {
+        String entity = route.getEntity();
+        String op = route.getOperation();
+        String compartment;
+        long limit;
+        boolean shared = false;
+        if (entity != null && getParameter("maxConcurrent." + entity + "." + op) != null) {
+            compartment = entity + "." + op;
+            limit = getLong("maxConcurrent." + entity + "." + op, 0);
+        } else if (entity != null && getParameter("maxConcurrent." + entity) != null) {
+            compartment = entity;
+            limit = getLong("maxConcurrent." + entity, 0);
+        } else if (getParameter("maxConcurrent.*." + op) != null) {
+            compartment = entity == null ? op : entity + "." + op;
+            limit = getLong("maxConcurrent.*." + op, 0);
+            shared = entity != null;
+        } else {
+            compartment = entity == null ? op : entity;
+            limit = getLong("maxConcurrent", 0);
+            shared = entity != null;
+        }
+        if (limit <= 0) {
+            return UNLIMITED;
+        }
+        if (shared && !compartments.containsKey(compartment) && compartments.size() >= maxCompartments) {
+            compartment = compartment.equals(entity) ? OTHER : OTHER + "." + op;
+        }
+        final int maxConcurrent = (int) limit;
+        final int maxQueue = (int) getLong("maxQueue." + compartment, getLong("maxQueue", 0));
+        return compartments.computeIfAbsent(compartment, name -> createBulkhead(name, maxConcurrent, maxQueue));
+    }
+
+    private Bulkhead createBulkhead(String name, int maxConcurrent, int maxQueue) {
+        LOGGER.info("Bulkhead {}: maxConcurrent={}, maxQueue={}", name, maxConcurrent, maxQueue);
+        final Bulkhead bulkhead = new Bulkhead(name, maxConcurrent, maxQueue);
+        String inFlight = MetricRegistry.name("api", "bulkhead", name, "inFlight");
+        String queueDepth = MetricRegistry.name("api", "bulkhead", name, "queueDepth");
+        registry.remove(inFlight);
+        registry.remove(queueDepth);
+        registry.register(inFlight, (Gauge<Integer>) bulkhead::getInFlight);
+        registry.register(queueDepth, (Gauge<Integer>) bulkhead::getQueueDepth);
+        rejections.put(name, registry.meter(MetricRegistry.name("api", "bulkhead", name, "rejected")));
+        return bulkhead;
+    }
+
+    private String getParameter(String name) {
+        String value = System.getProperty(PROPERTY_PREFIX + name);
+        if (value == null && config != null) {
+            value = config.getInitParameter(name);
+        }
+        return value;
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value for {}: {}", name, value);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.redhat.lightblue.rest.util.NonBlockingOutput;
+
+/**
+ * Compresses the chunks of a non-blocking response body. Each chunk of
+ * the source is written through the compressor and flushed, so the
+ * client can decode the data it received so far, the same way as a
+ * flushed blocking stream. The last chunk ends the compressed data. The
+ * listener is called before the first chunk is returned, so the response
+ * headers can still be set.
+ *
+ * There is no minimum size: a streamed body is compressed as soon as it
+ * starts, like a blocking stream that is flushed before it reaches the
+ * minimum size.
+ */
+public class CompressingChunkSource implements NonBlockingOutput.ChunkSource {
+
+    private final NonBlockingOutput.ChunkSource source;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final OutputStream compressor;
+    private final String encoding;
+    private ThresholdCompressingOutputStream.Listener listener;
+    private boolean finished;
+
+    public CompressingChunkSource(NonBlockingOutput.ChunkSource source, String encoding, int level,
+                                  ThresholdCompressingOutputStream.Listener listener) throws IOException {
+        this.source = source;
+        this.encoding = encoding;
+        this.listener = listener;
+        this.compressor = ContentEncodings.compress(encoding, buffer, level);
+    }
+
+    @Override
+    public byte[] next() throws IOException {
+        while (!finished) {
+            byte[] chunk = source.next();
+            if (chunk == null) {
+                compressor.close();
+                finished = true;
+            } else {
+                compressor.write(chunk);
+                compressor.flush();
+            }
+            // A compressor may hold back a small chunk, so keep reading
+            // until there is compressed data to return
+            if (buffer.size() > 0) {
+                byte[] compressed = buffer.toByteArray();
+                buffer.reset();
+                if (listener != null) {
+                    listener.compressionStarted(encoding);
+                    listener = null;
+                }
+                return compressed;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close(Throwable error) {
+        try {
+            if (!finished) {
+                // Releases the deflater of an incomplete body
+                finished = true;
+                compressor.close();
+            }
+        } catch (IOException e) {
+            // The buffer does not throw
+        } finally {
+            source.close(error);
+        }
+    }
+}
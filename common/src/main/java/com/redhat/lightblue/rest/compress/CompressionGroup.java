@@ -0,0 +1,17 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the compression group of a resource method or class. The
+ * compression level and the minimum size of compressed responses are
+ * configured per group. See {@link CompressionSettings}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface CompressionGroup {
+    String value();
+}
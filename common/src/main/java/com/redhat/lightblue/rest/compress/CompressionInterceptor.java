@@ -0,0 +1,86 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+
+import org.jboss.resteasy.annotations.interception.EncoderPrecedence;
+import org.jboss.resteasy.annotations.interception.ServerInterceptor;
+import org.jboss.resteasy.spi.HttpRequest;
+import org.jboss.resteasy.spi.interception.AcceptedByMethod;
+import org.jboss.resteasy.spi.interception.MessageBodyWriterContext;
+import org.jboss.resteasy.spi.interception.MessageBodyWriterInterceptor;
+
+import com.restcompress.provider.LZF;
+
+/**
+ * Compresses the responses of the resource methods annotated with
+ * {@link LZF} or {@link CompressionGroup}. It replaces the
+ * LZFEncodingInterceptor of rest-compress.
+ *
+ * The encoding is negotiated from the Accept-Encoding header of the
+ * request, and can be lzf, gzip or deflate. Responses smaller than the
+ * minimum size of the compression group of the method are sent
+ * uncompressed. See {@link CompressionSettings}.
+ */
+@Provider
+@ServerInterceptor
+@EncoderPrecedence
+public class CompressionInterceptor implements MessageBodyWriterInterceptor, AcceptedByMethod {
+
+    @Context
+    protected HttpRequest request;
+
+    /**
+     * RESTEasy creates an instance of the interceptor for each resource
+     * method it accepts, so the group of the method is kept here
+     */
+    private CompressionSettings settings = CompressionSettings.forGroup(CompressionSettings.DEFAULT_GROUP);
+
+    @Override
+    public boolean accept(Class declaring, Method method) {
+        CompressionGroup group = method.getAnnotation(CompressionGroup.class);
+        if (group == null) {
+            group = (CompressionGroup) declaring.getAnnotation(CompressionGroup.class);
+        }
+        if (group == null && !method.isAnnotationPresent(LZF.class)) {
+            return false;
+        }
+        settings = CompressionSettings.forGroup(group == null ? CompressionSettings.DEFAULT_GROUP : group.value());
+        return true;
+    }
+
+    @Override
+    public void write(MessageBodyWriterContext context) throws IOException, WebApplicationException {
+        final MultivaluedMap<String, Object> headers = context.getHeaders();
+        // The @LZF annotation makes RESTEasy set Content-Encoding: lzf if
+        // the client accepts it. The encoding is negotiated here instead.
+        headers.remove(HttpHeaders.CONTENT_ENCODING);
+        String encoding = ContentEncodings.negotiate(request.getHttpHeaders().getRequestHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        OutputStream old = context.getOutputStream();
+        ThresholdCompressingOutputStream out = new ThresholdCompressingOutputStream(old, encoding, settings,
+                e -> {
+                    headers.putSingle(HttpHeaders.CONTENT_ENCODING, e);
+                    headers.remove(HttpHeaders.CONTENT_LENGTH);
+                });
+        context.setOutputStream(out);
+        try {
+            context.proceed();
+            out.finish();
+        } finally {
+            context.setOutputStream(old);
+        }
+    }
+}
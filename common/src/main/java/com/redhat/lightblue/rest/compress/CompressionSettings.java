@@ -0,0 +1,65 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+/**
+ * Compression settings of an endpoint group. The settings are read from
+ * system properties, falling back to the defaults for all groups:
+ * <ul>
+ * <li>lightblue.rest.compression.&lt;group&gt;.minSize, or
+ * lightblue.rest.compression.minSize: responses smaller than this many
+ * bytes are sent uncompressed. Default 1024.</li>
+ * <li>lightblue.rest.compression.&lt;group&gt;.level, or
+ * lightblue.rest.compression.level: the gzip and deflate compression
+ * level, from 1 (fastest) to 9 (smallest). Default 6. LZF has no
+ * levels.</li>
+ * </ul>
+ */
+public final class CompressionSettings {
+
+    public static final String DEFAULT_GROUP = "default";
+
+    private static final String PREFIX = "lightblue.rest.compression.";
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+
+    private static final ConcurrentMap<String, CompressionSettings> GROUPS = new ConcurrentHashMap<>();
+
+    private final int minSize;
+    private final int level;
+
+    public CompressionSettings(int minSize, int level) {
+        this.minSize = Math.max(0, minSize);
+        this.level = Math.min(Deflater.BEST_COMPRESSION, Math.max(Deflater.BEST_SPEED, level));
+    }
+
+    /**
+     * Returns the settings of the group
+     */
+    public static CompressionSettings forGroup(String group) {
+        return GROUPS.computeIfAbsent(group, CompressionSettings::read);
+    }
+
+    private static CompressionSettings read(String group) {
+        int minSize = Integer.getInteger(PREFIX + "minSize", DEFAULT_MIN_SIZE);
+        int level = Integer.getInteger(PREFIX + "level", DEFAULT_LEVEL);
+        return new CompressionSettings(Integer.getInteger(PREFIX + group + ".minSize", minSize),
+                Integer.getInteger(PREFIX + group + ".level", level));
+    }
+
+    /**
+     * Responses smaller than this are not compressed
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * The gzip and deflate compression level
+     */
+    public int getLevel() {
+        return level;
+    }
+}
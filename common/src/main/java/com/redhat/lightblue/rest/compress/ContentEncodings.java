@@ -0,0 +1,124 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * The content encodings responses can be compressed with, and the
+ * negotiation of the encoding from the Accept-Encoding header
+ */
+public final class ContentEncodings {
+
+    public static final String LZF = "lzf";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Supported encodings, in the order of preference when the client
+     * accepts several with the same quality. LZF comes first, so the
+     * existing LZF clients keep getting LZF.
+     */
+    private static final String[] SUPPORTED = {LZF, GZIP, DEFLATE};
+
+    private ContentEncodings() {
+    }
+
+    /**
+     * Returns the encoding to use for a request with the Accept-Encoding
+     * header, or null if the response should not be compressed. The
+     * encoding with the highest quality value is selected. Encodings with
+     * quality 0 are not acceptable, and * matches any encoding not
+     * listed.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        float[] quality = new float[SUPPORTED.length];
+        boolean[] listed = new boolean[SUPPORTED.length];
+        float any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if ("*".equals(coding)) {
+                any = q;
+            } else {
+                for (int i = 0; i < SUPPORTED.length; i++) {
+                    if (SUPPORTED[i].equals(coding)) {
+                        quality[i] = q;
+                        listed[i] = true;
+                    }
+                }
+            }
+        }
+        String selected = null;
+        float best = 0;
+        for (int i = 0; i < SUPPORTED.length; i++) {
+            float q = listed[i] ? quality[i] : any;
+            if (q > best) {
+                best = q;
+                selected = SUPPORTED[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns a stream that compresses to out with the encoding. Closing
+     * the returned stream finishes the compressed data, but does not close
+     * out.
+     */
+    public static OutputStream compress(String encoding, OutputStream out, int level) throws IOException {
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        switch (encoding) {
+            case GZIP:
+                return new GZIPOutputStream(target, 8192, true) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            case DEFLATE:
+                return new DeflaterOutputStream(target, new Deflater(level), 8192, true) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+            case LZF:
+                return new LZFOutputStream(target);
+            default:
+                throw new IllegalArgumentException(encoding);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.redhat.lightblue.rest.compress;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the output only if it is at least minSize bytes. The first
+ * minSize bytes are buffered. If the output ends before the buffer is
+ * full, the buffer is written uncompressed. Otherwise, or if the output
+ * is flushed before that, compression starts: the listener is called
+ * before anything is written to the underlying stream, so the response
+ * headers can still be set, and the buffered bytes are written through
+ * the compressor.
+ */
+public class ThresholdCompressingOutputStream extends OutputStream {
+
+    /**
+     * Called once, when compression starts
+     */
+    public interface Listener {
+        void compressionStarted(String encoding);
+    }
+
+    private final OutputStream out;
+    private final String encoding;
+    private final int level;
+    private final Listener listener;
+
+    private byte[] buffer;
+    private int count;
+    private OutputStream compressor;
+    private boolean closed;
+
+    public ThresholdCompressingOutputStream(OutputStream out, String encoding, CompressionSettings settings, Listener listener) {
+        this.out = out;
+        this.encoding = encoding;
+        this.level = settings.getLevel();
+        this.listener = listener;
+        this.buffer = new byte[Math.max(1, settings.getMinSize())];
+    }
+
+    /**
+     * Returns if the output is being compressed
+     */
+    public boolean isCompressing() {
+        return compressor != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (compressor != null) {
+            compressor.write(b, off, len);
+        } else if (count + len < buffer.length) {
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        } else {
+            startCompression();
+            compressor.write(b, off, len);
+        }
+    }
+
+    /**
+     * Flushing before the threshold is reached starts compression, because
+     * the buffered data must be sent, and it is no longer known whether the
+     * output will stay small
+     */
+    @Override
+    public void flush() throws IOException {
+        if (compressor == null && count > 0) {
+            startCompression();
+        }
+        if (compressor != null) {
+            compressor.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining output, and finishes the compressed data. Does
+     * not close the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (compressor != null) {
+            compressor.close();
+        } else if (count > 0) {
+            out.write(buffer, 0, count);
+        }
+        buffer = null;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private void startCompression() throws IOException {
+        listener.compressionStarted(encoding);
+        compressor = ContentEncodings.compress(encoding, out, level);
+        if (count > 0) {
+            compressor.write(buffer, 0, count);
+        }
+        buffer = null;
+    }
+}
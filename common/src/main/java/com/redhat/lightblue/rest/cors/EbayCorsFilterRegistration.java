@@ -11,6 +11,7 @@ public class EbayCorsFilterRegistration implements CorsFilterRegistration {
     @Override
     public void register(ServletContext context, CorsConfiguration config) {
         FilterRegistration.Dynamic filter = context.addFilter("cors", CORSFilter.class);
+        filter.setAsyncSupported(true);
 
         addUrlPatterns(filter, config);
         addInitParameters(filter, config);
@@ -1,7 +1,6 @@
 package com.redhat.lightblue.rest.logging;
 
 import java.io.IOException;
-import java.util.UUID;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -17,13 +16,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
+
+/**
+ * Assigns an ID to each request, and adds it to the MDC, to a request
+ * attribute and to the response headers. If the request has a valid
+ * RequestID or X-Request-ID header, as set by a caller or a proxy, the
+ * ID is reused so the request can be traced across services. Otherwise
+ * a new ID is generated by {@link RequestIdGenerator}.
+ */
 @WebFilter(urlPatterns = {"/*"})
 public class LoggingFilter implements Filter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggingFilter.class);
 
     public static final String HEADER_REQUEST_ID = "RequestID";
+    public static final String HEADER_X_REQUEST_ID = "X-Request-ID";
     public static final String HEADER_REQUEST_PRINCIPAL = "RequestPrincipal";
+    public static final String MDC_REQUEST_OPERATION = "RequestOperation";
+    public static final String MDC_REQUEST_ENTITY = "RequestEntity";
+
+    /**
+     * Inbound IDs longer than this are not reused
+     */
+    public static final int MAX_REQUEST_ID_LENGTH = 128;
 
     @Override
     public void destroy() {
@@ -33,7 +50,10 @@ public class LoggingFilter implements Filter {
     @Override
     public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
         try {
-            String requestID = String.valueOf(UUID.randomUUID().getMostSignificantBits());
+            String requestID = req instanceof HttpServletRequest ? getInboundRequestID((HttpServletRequest) req) : null;
+            if (requestID == null) {
+                requestID = RequestIdGenerator.next();
+            }
             LOGGER.debug(HEADER_REQUEST_ID + ": " + requestID);
 
             MDC.put(HEADER_REQUEST_ID, requestID);
@@ -49,6 +69,16 @@ public class LoggingFilter implements Filter {
                         MDC.put(HEADER_REQUEST_PRINCIPAL, principal);
                     }
                 }
+
+                //Add operation and entity to MDC. The route is kept in the request for the other filters
+                RouteClassifier classifier = RouteClassifier.forContextPath(httpReq.getContextPath());
+                Route route = classifier == null ? null : classifier.classify(httpReq);
+                if (route != null) {
+                    MDC.put(MDC_REQUEST_OPERATION, route.getOperation());
+                    if (route.getEntity() != null) {
+                        MDC.put(MDC_REQUEST_ENTITY, route.getEntity());
+                    }
+                }
             }
             else {
                 LOGGER.info("ServletRequest of type: " + req.getClass());
@@ -67,7 +97,47 @@ public class LoggingFilter implements Filter {
         } finally {
             MDC.remove(HEADER_REQUEST_ID);
             MDC.remove(HEADER_REQUEST_PRINCIPAL);
+            MDC.remove(MDC_REQUEST_OPERATION);
+            MDC.remove(MDC_REQUEST_ENTITY);
+        }
+    }
+
+    /**
+     * Returns the request ID sent in the request headers, or null if there
+     * is none, or it is not valid
+     */
+    static String getInboundRequestID(HttpServletRequest req) {
+        String id = req.getHeader(HEADER_REQUEST_ID);
+        if (id == null) {
+            id = req.getHeader(HEADER_X_REQUEST_ID);
+        }
+        if (id == null) {
+            return null;
+        }
+        id = id.trim();
+        if (!isValidRequestID(id)) {
+            LOGGER.debug("Ignoring invalid inbound request ID");
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * Returns if the ID can be reused. The ID is written to logs and
+     * response headers, so only letters, digits, and - _ . : are allowed.
+     */
+    static boolean isValidRequestID(String id) {
+        if (id.isEmpty() || id.length() > MAX_REQUEST_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == ':')) {
+                return false;
+            }
         }
+        return true;
     }
 
     @Override
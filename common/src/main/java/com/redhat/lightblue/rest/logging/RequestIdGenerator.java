@@ -0,0 +1,72 @@
+package com.redhat.lightblue.rest.logging;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates request IDs. An ID is 32 hex digits:
+ * <ul>
+ * <li>12 digits: the time in milliseconds, so IDs sort in time order</li>
+ * <li>6 digits: a random node number chosen once per JVM</li>
+ * <li>6 digits: a stream number, unique for each thread of the JVM</li>
+ * <li>8 digits: a counter of the thread</li>
+ * </ul>
+ *
+ * Each thread generates IDs from its own stream and counter, so
+ * generating an ID does not touch shared state, and does not use a
+ * secure random generator. A secure random generator is only used once,
+ * to choose the node number.
+ */
+public final class RequestIdGenerator {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int NODE = new SecureRandom().nextInt() & 0xffffff;
+
+    private static final AtomicInteger STREAMS = new AtomicInteger();
+
+    private static final ThreadLocal<Stream> STREAM = new ThreadLocal<Stream>() {
+        @Override
+        protected Stream initialValue() {
+            return new Stream(STREAMS.getAndIncrement() & 0xffffff, ThreadLocalRandom.current().nextInt());
+        }
+    };
+
+    private static final class Stream {
+        private final int stream;
+        private int counter;
+
+        Stream(int stream, int counter) {
+            this.stream = stream;
+            this.counter = counter;
+        }
+    }
+
+    private RequestIdGenerator() {
+    }
+
+    /**
+     * Returns a new request ID
+     */
+    public static String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    static String next(long millis) {
+        Stream s = STREAM.get();
+        char[] id = new char[32];
+        hex(id, 0, millis, 12);
+        hex(id, 12, NODE, 6);
+        hex(id, 18, s.stream, 6);
+        hex(id, 24, s.counter++ & 0xffffffffL, 8);
+        return new String(id);
+    }
+
+    private static void hex(char[] buf, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buf[i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
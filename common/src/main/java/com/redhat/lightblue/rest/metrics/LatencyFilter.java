@@ -0,0 +1,92 @@
+package com.redhat.lightblue.rest.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
+
+/**
+ * Records the latency of each request in
+ * {@link LatencyHistograms#REQUESTS}, by the operation and entity of its
+ * route. Requests that do not match a route are recorded under the
+ * operation LatencyHistograms.OTHER. If the request continues
+ * asynchronously, the latency is recorded when the async processing
+ * completes.
+ */
+public class LatencyFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        if (!(req instanceof HttpServletRequest)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) req;
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(req, resp);
+        } finally {
+            RouteClassifier classifier = RouteClassifier.forContextPath(request.getContextPath());
+            Route route = classifier == null ? null : classifier.classify(request);
+            String operation = route == null ? LatencyHistograms.OTHER : route.getOperation();
+            String entity = route == null ? null : route.getEntity();
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new RecordingListener(operation, entity, start));
+            } else {
+                LatencyHistograms.REQUESTS.record(operation, entity, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Records the latency of an async request when it completes
+     */
+    private static class RecordingListener implements AsyncListener {
+        private final String operation;
+        private final String entity;
+        private final long start;
+
+        RecordingListener(String operation, String entity, long start) {
+            this.operation = operation;
+            this.entity = entity;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            LatencyHistograms.REQUESTS.record(operation, entity, System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Async was restarted, which removes the listeners
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
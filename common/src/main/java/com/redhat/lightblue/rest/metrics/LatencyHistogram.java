@@ -0,0 +1,74 @@
+package com.redhat.lightblue.rest.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * The latency of one operation on one entity.
+ *
+ * Latencies are recorded in microseconds into an HdrHistogram
+ * {@link Recorder}. Recording is wait-free: it does not lock, and does
+ * not wait for a snapshot being taken. Snapshots move the recorded
+ * values into a window, so the percentiles and the max describe recent
+ * requests: they cover the last one to two windows. The count and sum
+ * cover all requests.
+ */
+final class LatencyHistogram {
+
+    static final int SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final long windowNanos;
+
+    // Guarded by this, used by snapshots only
+    private Histogram interval;
+    private Histogram current = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram previous = new Histogram(SIGNIFICANT_DIGITS);
+    private long rotatedAt;
+
+    LatencyHistogram(long windowNanos, long now) {
+        this.windowNanos = windowNanos;
+        this.rotatedAt = now;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns the latencies of the last one to two windows, in
+     * microseconds
+     */
+    synchronized Histogram snapshot(long now) {
+        interval = recorder.getIntervalHistogram(interval);
+        current.add(interval);
+        if (now - rotatedAt >= windowNanos) {
+            Histogram h = previous;
+            previous = current;
+            current = h;
+            current.reset();
+            rotatedAt = now;
+        }
+        Histogram snapshot = previous.copy();
+        snapshot.add(current);
+        return snapshot;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
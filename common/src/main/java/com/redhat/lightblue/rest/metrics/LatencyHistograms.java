@@ -0,0 +1,143 @@
+package com.redhat.lightblue.rest.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Request latency histograms by operation and entity.
+ *
+ * Recording a latency looks up the histogram of the operation and
+ * entity without allocating, and records into it without locking. The
+ * number of histograms is bounded: once MAX_SERIES histograms exist,
+ * new entities are recorded under the entity name OTHER.
+ *
+ * The window of the percentiles, in seconds, is read from the
+ * lightblue.rest.metrics.windowSeconds system property, and defaults to
+ * 60. The maximum number of histograms is read from
+ * lightblue.rest.metrics.maxSeries, and defaults to 2000.
+ */
+public final class LatencyHistograms {
+
+    public static final String WINDOW_SECONDS_PROPERTY = "lightblue.rest.metrics.windowSeconds";
+    public static final String MAX_SERIES_PROPERTY = "lightblue.rest.metrics.maxSeries";
+
+    public static final String OTHER = "_other";
+
+    /**
+     * The latencies of the requests of this application
+     */
+    public static final LatencyHistograms REQUESTS = new LatencyHistograms(
+            TimeUnit.SECONDS.toNanos(Long.getLong(WINDOW_SECONDS_PROPERTY, 60)),
+            Integer.getInteger(MAX_SERIES_PROPERTY, 2000));
+
+    /**
+     * The latency of an operation on an entity
+     */
+    public static final class Series {
+        private final String operation;
+        private final String entity;
+        private final LatencyHistogram histogram;
+
+        Series(String operation, String entity, LatencyHistogram histogram) {
+            this.operation = operation;
+            this.entity = entity;
+            this.histogram = histogram;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * The entity, or an empty string if the operation is not on an
+         * entity
+         */
+        public String getEntity() {
+            return entity;
+        }
+
+        /**
+         * Returns the recent latencies in microseconds
+         */
+        public Histogram snapshot() {
+            return histogram.snapshot(System.nanoTime());
+        }
+
+        /**
+         * Returns the number of requests recorded
+         */
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        /**
+         * Returns the total latency of the requests recorded, in
+         * nanoseconds
+         */
+        public long getSumNanos() {
+            return histogram.getSumNanos();
+        }
+    }
+
+    private final long windowNanos;
+    private final int maxSeries;
+    private final ConcurrentMap<String, ConcurrentMap<String, Series>> operations = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public LatencyHistograms(long windowNanos, int maxSeries) {
+        this.windowNanos = windowNanos;
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Records the latency of a request
+     *
+     * @param operation The operation
+     * @param entity The entity, or null if the operation is not on an entity
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(String operation, String entity, long nanos) {
+        getSeries(operation, entity == null ? "" : entity).histogram.record(nanos);
+    }
+
+    private Series getSeries(String operation, String entity) {
+        ConcurrentMap<String, Series> entities = operations.get(operation);
+        if (entities == null) {
+            entities = operations.computeIfAbsent(operation, k -> new ConcurrentHashMap<>());
+        }
+        Series series = entities.get(entity);
+        if (series == null) {
+            if (size.get() >= maxSeries && !OTHER.equals(entity)) {
+                return getSeries(operation, OTHER);
+            }
+            series = entities.computeIfAbsent(entity, k -> {
+                size.incrementAndGet();
+                return new Series(operation, k, new LatencyHistogram(windowNanos, System.nanoTime()));
+            });
+        }
+        return series;
+    }
+
+    /**
+     * Returns all series, sorted by operation and entity
+     */
+    public List<Series> getSeries() {
+        List<Series> list = new ArrayList<>(size.get());
+        for (Map<String, Series> entities : operations.values()) {
+            list.addAll(entities.values());
+        }
+        Collections.sort(list, (a, b) -> {
+            int c = a.operation.compareTo(b.operation);
+            return c != 0 ? c : a.entity.compareTo(b.entity);
+        });
+        return list;
+    }
+}
@@ -0,0 +1,175 @@
+package com.redhat.lightblue.rest.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.HdrHistogram.Histogram;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Writes the metrics of the application in the Prometheus text format.
+ *
+ * Request latencies from {@link LatencyHistograms#REQUESTS} are written
+ * as the lightblue_request_latency_seconds summary, with the operation
+ * and entity as labels, the 0.5, 0.99 and 0.999 quantiles, and the max
+ * as lightblue_request_latency_seconds_max. The quantiles and the max
+ * are computed from the recent requests, and the count and sum from all
+ * requests.
+ *
+ * The metrics of the JMX metric registry are written too, with names
+ * prefixed with lightblue_ and dots replaced with underscores. Timers
+ * are written in seconds.
+ */
+public class PrometheusMetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String LATENCY = "lightblue_request_latency_seconds";
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private static final double MICROS_PER_SECOND = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType(CONTENT_TYPE);
+        resp.setHeader("Cache-Control", "no-cache");
+        StringBuilder out = new StringBuilder(8192);
+        writeLatencies(out, LatencyHistograms.REQUESTS.getSeries());
+        writeRegistry(out, MetricRegistryFactory.getJmxMetricRegistry());
+        Writer writer = resp.getWriter();
+        writer.write(out.toString());
+        writer.flush();
+    }
+
+    static void writeLatencies(StringBuilder out, List<LatencyHistograms.Series> series) {
+        if (series.isEmpty()) {
+            return;
+        }
+        Histogram[] snapshots = new Histogram[series.size()];
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = series.get(i).snapshot();
+        }
+
+        out.append("# HELP ").append(LATENCY).append(" Request latency by operation and entity\n");
+        out.append("# TYPE ").append(LATENCY).append(" summary\n");
+        for (int i = 0; i < snapshots.length; i++) {
+            LatencyHistograms.Series s = series.get(i);
+            for (double q : QUANTILES) {
+                long value = snapshots[i].getTotalCount() == 0 ? 0 : snapshots[i].getValueAtPercentile(q * 100);
+                out.append(LATENCY);
+                latencyLabels(out, s).append(",quantile=\"").append(q).append("\"} ");
+                out.append(snapshots[i].highestEquivalentValue(value) / MICROS_PER_SECOND).append('\n');
+            }
+            out.append(LATENCY).append("_sum");
+            latencyLabels(out, s).append("} ").append(s.getSumNanos() / NANOS_PER_SECOND).append('\n');
+            out.append(LATENCY).append("_count");
+            latencyLabels(out, s).append("} ").append(s.getCount()).append('\n');
+        }
+
+        out.append("# HELP ").append(LATENCY).append("_max Maximum recent request latency by operation and entity\n");
+        out.append("# TYPE ").append(LATENCY).append("_max gauge\n");
+        for (int i = 0; i < snapshots.length; i++) {
+            long max = snapshots[i].getTotalCount() == 0 ? 0 : snapshots[i].highestEquivalentValue(snapshots[i].getMaxValue());
+            out.append(LATENCY).append("_max");
+            latencyLabels(out, series.get(i)).append("} ").append(max / MICROS_PER_SECOND).append('\n');
+        }
+    }
+
+    private static StringBuilder latencyLabels(StringBuilder out, LatencyHistograms.Series s) {
+        out.append("{operation=\"");
+        escape(out, s.getOperation());
+        out.append("\",entity=\"");
+        escape(out, s.getEntity());
+        return out.append('"');
+    }
+
+    @SuppressWarnings("rawtypes")
+    static void writeRegistry(StringBuilder out, MetricRegistry registry) {
+        for (Map.Entry<String, Gauge> e : registry.getGauges().entrySet()) {
+            Object value = e.getValue().getValue();
+            double d;
+            if (value instanceof Number) {
+                d = ((Number) value).doubleValue();
+            } else if (value instanceof Boolean) {
+                d = ((Boolean) value) ? 1 : 0;
+            } else {
+                continue;
+            }
+            String name = name(e.getKey());
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(d).append('\n');
+        }
+        for (Map.Entry<String, Counter> e : registry.getCounters().entrySet()) {
+            String name = name(e.getKey());
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(e.getValue().getCount()).append('\n');
+        }
+        for (Map.Entry<String, Meter> e : registry.getMeters().entrySet()) {
+            String name = name(e.getKey()) + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            out.append(name).append(' ').append(e.getValue().getCount()).append('\n');
+        }
+        for (Map.Entry<String, com.codahale.metrics.Histogram> e : registry.getHistograms().entrySet()) {
+            writeSnapshot(out, name(e.getKey()), e.getValue().getSnapshot(), e.getValue().getCount(), 1);
+        }
+        for (Map.Entry<String, Timer> e : registry.getTimers().entrySet()) {
+            writeSnapshot(out, name(e.getKey()) + "_seconds", e.getValue().getSnapshot(), e.getValue().getCount(), NANOS_PER_SECOND);
+        }
+    }
+
+    private static void writeSnapshot(StringBuilder out, String name, Snapshot snapshot, long count, double scale) {
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double q : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                    .append(snapshot.getValue(q) / scale).append('\n');
+        }
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+
+    /**
+     * Returns the Prometheus name of a metric registry name
+     */
+    static String name(String name) {
+        StringBuilder b = new StringBuilder(name.length() + 10).append("lightblue_");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == ':') {
+                b.append(c);
+            } else {
+                b.append('_');
+            }
+        }
+        return b.toString();
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
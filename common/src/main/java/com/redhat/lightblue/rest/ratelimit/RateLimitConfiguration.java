@@ -0,0 +1,264 @@
+package com.redhat.lightblue.rest.ratelimit;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.redhat.lightblue.util.JsonUtils;
+
+/**
+ * Contains the rate limits of a Lightblue service.
+ *
+ * <p>
+ * Requests are limited per caller. Each request is matched against the
+ * list of rules in order, and the first rule whose principal, entity and
+ * operation match the request determines the limit. If no rule matches,
+ * the default rule is used, and if there is no default rule, the request
+ * is not limited.
+ *
+ * <p>
+ * This class is fully immutable. Use the builder to create new
+ * configurations.
+ *
+ * @see com.redhat.lightblue.rest.ratelimit.RateLimitConfiguration.Builder
+ */
+public final class RateLimitConfiguration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Rule> rules;
+    private final Rule defaultRule;
+
+    /**
+     * A rate limit. Each caller matching the rule gets its own bucket of
+     * capacity requests, refilled at refillPerSecond requests per second.
+     * If perEntity or perOperation is set, the caller gets a separate
+     * bucket for each entity or operation.
+     */
+    public static final class Rule implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final String ANY = "*";
+
+        private final String principal;
+        private final String entity;
+        private final String operation;
+        private final int capacity;
+        private final double refillPerSecond;
+        private final boolean perEntity;
+        private final boolean perOperation;
+
+        /**
+         * @param principal The principal the rule applies to, or null or
+         * "*" for any principal
+         * @param entity The entity the rule applies to, or null or "*" for
+         * any entity
+         * @param operation The operation the rule applies to, or null or "*"
+         * for any operation
+         * @param capacity The maximum number of requests in a burst
+         * @param refillPerSecond The sustained number of requests per second
+         * @param perEntity Whether each entity has its own bucket
+         * @param perOperation Whether each operation has its own bucket
+         */
+        public Rule(String principal, String entity, String operation,
+                    int capacity, double refillPerSecond,
+                    boolean perEntity, boolean perOperation) {
+            if (capacity < 1 || refillPerSecond <= 0) {
+                throw new IllegalArgumentException("Rate limit requires a positive capacity and "
+                        + "refillPerSecond, but was " + capacity + " and " + refillPerSecond + ".");
+            }
+            this.principal = ANY.equals(principal) ? null : principal;
+            this.entity = ANY.equals(entity) ? null : entity;
+            this.operation = ANY.equals(operation) ? null : operation;
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+            this.perEntity = perEntity;
+            this.perOperation = perOperation;
+        }
+
+        public boolean matches(String principal, String entity, String operation) {
+            return (this.principal == null || this.principal.equals(principal))
+                    && (this.entity == null || this.entity.equals(entity))
+                    && (this.operation == null || this.operation.equals(operation));
+        }
+
+        public String getPrincipal() {
+            return principal;
+        }
+
+        public String getEntity() {
+            return entity;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public double getRefillPerSecond() {
+            return refillPerSecond;
+        }
+
+        public boolean isPerEntity() {
+            return perEntity;
+        }
+
+        public boolean isPerOperation() {
+            return perOperation;
+        }
+
+        @Override
+        public String toString() {
+            return "Rule{"
+                    + "principal=" + principal
+                    + ", entity=" + entity
+                    + ", operation=" + operation
+                    + ", capacity=" + capacity
+                    + ", refillPerSecond=" + refillPerSecond
+                    + ", perEntity=" + perEntity
+                    + ", perOperation=" + perOperation
+                    + '}';
+        }
+    }
+
+    public static class Builder {
+        private final List<Rule> rules = new ArrayList<>();
+        private Rule defaultRule;
+
+        /**
+         * Adds a rule after the rules already added
+         */
+        public Builder rule(Rule rule) {
+            rules.add(Objects.requireNonNull(rule, "rule"));
+            return this;
+        }
+
+        /**
+         * Sets the rule used when no other rule matches. The principal,
+         * entity and operation of the default rule are ignored. Defaults to
+         * none, meaning requests that match no rule are not limited.
+         */
+        public Builder defaultRule(Rule rule) {
+            this.defaultRule = rule;
+            return this;
+        }
+
+        /**
+         * Reads configuration from a JSON file on the classpath of the current
+         * thread's context class loader.
+         *
+         * @param resourcePath Follows the semantics of
+         * {@link java.lang.ClassLoader#getResourceAsStream(String)}.
+         */
+        public Builder fromJsonResource(String resourcePath) throws IOException {
+            Objects.requireNonNull(resourcePath, "resourcePath");
+
+            try (InputStream is = Thread.currentThread().getContextClassLoader()
+                    .getResourceAsStream(resourcePath)) {
+                if (is == null) {
+                    throw new IOException("Resource not found: " + resourcePath);
+                }
+                return fromJson(is);
+            }
+        }
+
+        /**
+         * Reads configuration from a JSON document provided as an
+         * {@link java.io.InputStream}.
+         *
+         * <dl>
+         * <dt>default</dt>
+         * <dd>Object. The default rule, optional</dd>
+         * <dt>rules</dt>
+         * <dd>Array of objects. The rules, in the order they are matched</dd>
+         * </dl>
+         *
+         * A rule object has the fields principal, entity, operation (all
+         * optional, match anything if missing), capacity (default 1),
+         * refillPerSecond (required), perEntity and perOperation (default
+         * false).
+         */
+        public Builder fromJson(InputStream json) throws IOException {
+            Objects.requireNonNull(json, "json");
+
+            JsonNode configJson = JsonUtils.json(json);
+
+            JsonNode defaultJson = configJson.get("default");
+            if (defaultJson != null && !defaultJson.isNull()) {
+                defaultRule = fromJsonRule(defaultJson);
+            }
+            JsonNode rulesJson = configJson.get("rules");
+            if (rulesJson != null) {
+                if (!rulesJson.isArray()) {
+                    throw new IllegalArgumentException("JSON node for field, rules, expected to be "
+                            + "an array, but was " + rulesJson.getNodeType() + ".");
+                }
+                for (Iterator<JsonNode> itr = rulesJson.elements(); itr.hasNext();) {
+                    rules.add(fromJsonRule(itr.next()));
+                }
+            }
+            return this;
+        }
+
+        public RateLimitConfiguration build() {
+            return new RateLimitConfiguration(unmodifiableList(new ArrayList<>(rules)), defaultRule);
+        }
+
+        private static Rule fromJsonRule(JsonNode node) {
+            return new Rule(textOrNull(node.get("principal")),
+                    textOrNull(node.get("entity")),
+                    textOrNull(node.get("operation")),
+                    node.path("capacity").asInt(1),
+                    node.path("refillPerSecond").asDouble(0),
+                    node.path("perEntity").asBoolean(false),
+                    node.path("perOperation").asBoolean(false));
+        }
+
+        private static String textOrNull(JsonNode node) {
+            return node == null || node.isNull() ? null : node.asText();
+        }
+    }
+
+    private RateLimitConfiguration(List<Rule> rules, Rule defaultRule) {
+        this.rules = rules;
+        this.defaultRule = defaultRule;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public Rule getDefaultRule() {
+        return defaultRule;
+    }
+
+    /**
+     * Returns the rule that applies to the request, or null if the
+     * request is not limited
+     */
+    public Rule getRule(String principal, String entity, String operation) {
+        for (Rule rule : rules) {
+            if (rule.matches(principal, entity, operation)) {
+                return rule;
+            }
+        }
+        return defaultRule;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitConfiguration{"
+                + "rules=" + rules
+                + ", defaultRule=" + defaultRule
+                + '}';
+    }
+}
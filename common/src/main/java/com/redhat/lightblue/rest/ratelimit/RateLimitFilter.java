@@ -0,0 +1,197 @@
+package com.redhat.lightblue.rest.ratelimit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Principal;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Limits the rate of crud requests of each caller using token buckets.
+ *
+ * <p>
+ * The caller is the authenticated principal, or the remote address for
+ * unauthenticated requests. The limits are read from the JSON resource
+ * given by the configuration.resource init parameter, or the
+ * ratelimit.configuration.resource context parameter. See
+ * {@link RateLimitConfiguration.Builder#fromJson(InputStream)} for its
+ * format. If there is no configuration, requests are not limited.
+ *
+ * <p>
+ * Limited requests get X-RateLimit-Limit, X-RateLimit-Remaining and
+ * X-RateLimit-Reset (seconds until the bucket is full) headers. Rejected
+ * requests get 429 with a Retry-After header.
+ */
+public class RateLimitFilter implements Filter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    public static final String CONFIGURATION_RESOURCE_PARAM = "configuration.resource";
+    public static final String CONFIGURATION_RESOURCE_CONTEXT_PARAM = "ratelimit.configuration.resource";
+
+    public static final String ERR_RATE_LIMITED = "rest:RateLimited";
+
+    public static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    public static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    public static final String HEADER_RESET = "X-RateLimit-Reset";
+
+    static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Buckets of callers that have not made a request in this long are
+     * discarded. A discarded bucket is full when it is created again.
+     */
+    private static final long IDLE_MINUTES = 10;
+
+    private final Meter rejected;
+
+    private RateLimitConfiguration configuration;
+    private final Map<RateLimitConfiguration.Rule, Cache<String, TokenBucket>> buckets = new IdentityHashMap<>();
+
+    public RateLimitFilter() {
+        this(MetricRegistryFactory.getJmxMetricRegistry());
+    }
+
+    public RateLimitFilter(MetricRegistry registry) {
+        this.rejected = registry.meter(MetricRegistry.name("api", "ratelimit", "rejected"));
+    }
+
+    /**
+     * Creates a filter with the given configuration, ignoring the
+     * configuration parameters of the filter
+     */
+    public RateLimitFilter(RateLimitConfiguration configuration, MetricRegistry registry) {
+        this(registry);
+        setConfiguration(configuration);
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        if (configuration != null) {
+            return;
+        }
+        String resource = filterConfig.getInitParameter(CONFIGURATION_RESOURCE_PARAM);
+        if (resource == null) {
+            resource = filterConfig.getServletContext().getInitParameter(CONFIGURATION_RESOURCE_CONTEXT_PARAM);
+        }
+        if (resource == null) {
+            LOGGER.info("No rate limit configuration resource provided. Rate limiting will not be enabled.");
+            return;
+        }
+        try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            if (is == null) {
+                LOGGER.info("Rate limit configuration not found at " + resource
+                        + ". Rate limiting will not be enabled.");
+                return;
+            }
+            setConfiguration(new RateLimitConfiguration.Builder().fromJson(is).build());
+            LOGGER.info("Enabled rate limiting with configuration found at '" + resource + "': " + configuration);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ServletException("Error reading rate limit configuration " + resource, e);
+        }
+    }
+
+    private void setConfiguration(RateLimitConfiguration configuration) {
+        this.configuration = configuration;
+        for (RateLimitConfiguration.Rule rule : configuration.getRules()) {
+            buckets.put(rule, newBucketCache());
+        }
+        if (configuration.getDefaultRule() != null) {
+            buckets.put(configuration.getDefaultRule(), newBucketCache());
+        }
+    }
+
+    private static Cache<String, TokenBucket> newBucketCache() {
+        return CacheBuilder.newBuilder().expireAfterAccess(IDLE_MINUTES, TimeUnit.MINUTES).build();
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        if (configuration == null || !(req instanceof HttpServletRequest)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) req;
+        Route route = RouteClassifier.CRUD.classify(request);
+        if (route == null) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        Principal principal = request.getUserPrincipal();
+        String caller = principal == null ? null : principal.getName();
+        RateLimitConfiguration.Rule rule = configuration.getRule(caller, route.getEntity(), route.getOperation());
+        if (rule == null) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        TokenBucket.Result result = consume(rule, caller == null ? request.getRemoteAddr() : caller, route);
+        HttpServletResponse response = (HttpServletResponse) resp;
+        response.setHeader(HEADER_LIMIT, Integer.toString(rule.getCapacity()));
+        response.setHeader(HEADER_REMAINING, Integer.toString(result.getRemaining()));
+        if (result.isAllowed()) {
+            response.setHeader(HEADER_RESET, Long.toString(toSeconds(result.getWaitNanos())));
+            chain.doFilter(req, resp);
+        } else {
+            LOGGER.debug("Rate limit exceeded for {} on {}", caller, route);
+            rejected.mark();
+            String retryAfter = Long.toString(toSeconds(result.getWaitNanos()));
+            response.setHeader(HEADER_RESET, retryAfter);
+            response.setHeader("Retry-After", retryAfter);
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setContentType("application/json");
+            response.getWriter().write(new CallStatus(Error.get(ERR_RATE_LIMITED, caller)).toString());
+        }
+    }
+
+    TokenBucket.Result consume(final RateLimitConfiguration.Rule rule, String caller, Route route) {
+        StringBuilder key = new StringBuilder(caller);
+        if (rule.isPerEntity()) {
+            key.append('|').append(route.getEntity());
+        }
+        if (rule.isPerOperation()) {
+            key.append('|').append(route.getOperation());
+        }
+        final long now = System.nanoTime();
+        TokenBucket bucket;
+        try {
+            bucket = buckets.get(rule).get(key.toString(),
+                    () -> new TokenBucket(rule.getCapacity(), rule.getRefillPerSecond(), now));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return bucket.tryConsume(now);
+    }
+
+    private static long toSeconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
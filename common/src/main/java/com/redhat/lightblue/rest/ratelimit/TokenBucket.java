@@ -0,0 +1,93 @@
+package com.redhat.lightblue.rest.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket holding at most capacity tokens, refilled at
+ * refillPerSecond tokens per second.
+ *
+ * <p>
+ * Instead of a token count and a refill timestamp, the bucket keeps the
+ * single time at which it will be full again (the generic cell rate
+ * algorithm). A request takes a token by moving that time forward by the
+ * interval of one token, so the state is updated with one compare and
+ * set, without a lock.
+ */
+public final class TokenBucket {
+
+    private final int capacity;
+    private final long interval;
+    private final long burst;
+    private final AtomicLong fullAt;
+
+    /**
+     * The result of a tryConsume call
+     */
+    public static final class Result {
+        private final boolean allowed;
+        private final int remaining;
+        private final long waitNanos;
+
+        Result(boolean allowed, int remaining, long waitNanos) {
+            this.allowed = allowed;
+            this.remaining = remaining;
+            this.waitNanos = waitNanos;
+        }
+
+        /**
+         * Whether a token was taken
+         */
+        public boolean isAllowed() {
+            return allowed;
+        }
+
+        /**
+         * The number of tokens left in the bucket
+         */
+        public int getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * If the request is not allowed, nanoseconds until a token is
+         * available. Otherwise, nanoseconds until the bucket is full again.
+         */
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+    }
+
+    public TokenBucket(int capacity, double refillPerSecond, long nowNanos) {
+        if (capacity < 1 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity=" + capacity + ", refillPerSecond=" + refillPerSecond);
+        }
+        this.capacity = capacity;
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond));
+        this.burst = interval * capacity;
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Tries to take a token from the bucket at the given time, as
+     * returned by System.nanoTime()
+     */
+    public Result tryConsume(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long base = current - nowNanos > 0 ? current : nowNanos;
+            long next = base + interval;
+            long wait = next - nowNanos;
+            if (wait > burst) {
+                return new Result(false, 0, wait - burst);
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return new Result(true, (int) ((burst - wait) / interval), wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.redhat.lightblue.rest.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.redhat.lightblue.util.Error;
+
+/**
+ * Limits the size of request bodies. A limit of 0 or less means the size
+ * is not limited.
+ */
+public final class BodyLimit {
+
+    public static final String ERR_REQUEST_TOO_LARGE = "rest:RequestTooLarge";
+
+    private BodyLimit() {
+    }
+
+    /**
+     * Returns the error for a body larger than maxBytes
+     */
+    public static Error tooLarge(long maxBytes) {
+        return Error.get(ERR_REQUEST_TOO_LARGE, "Request body is larger than " + maxBytes + " bytes");
+    }
+
+    /**
+     * Returns if the Content-Length of the request is larger than
+     * maxBytes. Returns false if the request has no Content-Length.
+     */
+    public static boolean exceeds(HttpServletRequest request, long maxBytes) {
+        return maxBytes > 0 && request != null && request.getContentLength() > maxBytes;
+    }
+
+    /**
+     * Returns a stream that reads at most maxBytes from the stream. Reading
+     * past the limit throws the error returned by {@link #tooLarge(long)}.
+     */
+    public static InputStream limit(InputStream in, long maxBytes) {
+        if (maxBytes <= 0 || in == null) {
+            return in;
+        }
+        return new LimitedInputStream(in, maxBytes);
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) {
+            count += n;
+            if (count > maxBytes) {
+                throw tooLarge(maxBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.redhat.lightblue.rest.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * Passes bytes through to the container output stream, and counts them.
+ * Nothing is buffered, so streamed responses are sent as they are
+ * written.
+ *
+ * Servlet 3.1 non-blocking output cannot be implemented by a stream
+ * built against the Servlet 3.0 API. {@link NonBlockingOutput} writes to
+ * the delegate directly, and adds what it writes to the count.
+ */
+public class CountingServletOutputStream extends ServletOutputStream {
+
+    private final ServletOutputStream delegate;
+    private final AtomicLong count = new AtomicLong();
+
+    public CountingServletOutputStream(ServletOutputStream delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the container output stream
+     */
+    public ServletOutputStream getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the number of bytes written
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Counts bytes written to the delegate directly
+     */
+    public void addCount(long n) {
+        count.addAndGet(n);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        delegate.write(b);
+        count.incrementAndGet();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        delegate.write(b, off, len);
+        count.addAndGet(len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
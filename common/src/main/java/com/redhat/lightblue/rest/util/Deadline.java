@@ -0,0 +1,103 @@
+package com.redhat.lightblue.rest.util;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The time by which the client of a request stops waiting for its
+ * response.
+ *
+ * The deadline is sent by the client either as an absolute time in the
+ * X-Lightblue-Deadline header, in milliseconds since the epoch, or as a
+ * timeout in the X-Lightblue-Timeout header, in milliseconds from the
+ * time the request is received. If both are given, the earlier one is
+ * used. A request without these headers has no deadline. Negative or
+ * invalid values are ignored.
+ */
+public final class Deadline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Deadline.class);
+
+    public static final String DEADLINE_HEADER = "X-Lightblue-Deadline";
+    public static final String TIMEOUT_HEADER = "X-Lightblue-Timeout";
+
+    public static final String ERR_DEADLINE_EXCEEDED = "rest:DeadlineExceeded";
+
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long time;
+
+    private Deadline(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Returns a deadline at the given time, in milliseconds since the epoch
+     */
+    public static Deadline at(long epochMillis) {
+        return new Deadline(epochMillis);
+    }
+
+    /**
+     * Returns the deadline of the request, or NONE if the request is null
+     * or has no deadline headers
+     */
+    public static Deadline of(HttpServletRequest request) {
+        if (request == null) {
+            return NONE;
+        }
+        long deadline = parse(request.getHeader(DEADLINE_HEADER), 0);
+        long timeout = parse(request.getHeader(TIMEOUT_HEADER), System.currentTimeMillis());
+        long time = Math.min(deadline, timeout);
+        return time == Long.MAX_VALUE ? NONE : new Deadline(time);
+    }
+
+    private static long parse(String value, long base) {
+        if (value != null) {
+            try {
+                long v = Long.parseLong(value.trim());
+                if (v >= 0) {
+                    // Saturates, so a huge timeout means no deadline
+                    return v > Long.MAX_VALUE - base ? Long.MAX_VALUE : base + v;
+                }
+            } catch (NumberFormatException e) {
+                // Logged below
+            }
+            LOGGER.warn("Ignoring invalid deadline header value: {}", value);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public boolean isNone() {
+        return time == Long.MAX_VALUE;
+    }
+
+    /**
+     * The deadline in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public boolean isExpired() {
+        return time != Long.MAX_VALUE && System.currentTimeMillis() >= time;
+    }
+
+    /**
+     * Milliseconds left until the deadline, 0 if it passed, or
+     * Long.MAX_VALUE if there is no deadline
+     */
+    public long remainingMillis() {
+        if (isNone()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, time - System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return isNone() ? "none" : Long.toString(time);
+    }
+}
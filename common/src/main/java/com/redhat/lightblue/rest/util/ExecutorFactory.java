@@ -0,0 +1,237 @@
+package com.redhat.lightblue.rest.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Creates the executors commands are run on.
+ *
+ * By default an executor is a fixed pool of platform threads with a
+ * bounded queue, and rejects tasks when the queue is full. If the
+ * lightblue.rest.executor.virtual system property is true and the JVM
+ * supports virtual threads (Java 21 or later), every task runs on a new
+ * virtual thread instead. A virtual thread blocked on the backend does
+ * not hold a platform thread, but the backend still has to serve the
+ * task, so the executor still accepts at most threads + queueSize tasks
+ * at a time, and rejects tasks beyond that like a full platform thread
+ * pool does. The build targets Java 8, so the virtual thread API is
+ * looked up by reflection.
+ *
+ * The number of active tasks and queued tasks of an executor are
+ * published as api.executor.&lt;name&gt;.active and queued.
+ */
+public final class ExecutorFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorFactory.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "lightblue.rest.executor.virtual";
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+    }
+
+    private ExecutorFactory() {
+    }
+
+    /**
+     * Returns if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns if executors are created with virtual threads. This is the
+     * case when virtual threads are requested with the
+     * lightblue.rest.executor.virtual system property, and are supported
+     * by the JVM.
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY) && isVirtualThreadsSupported();
+    }
+
+    /**
+     * Creates an executor, and registers its metrics
+     *
+     * @param name The name of the executor, used in thread and metric names
+     * @param threads Number of platform threads
+     * @param queueSize Number of tasks that can wait for a platform thread.
+     * With virtual threads, at most threads + queueSize tasks run at a time.
+     */
+    public static ExecutorService newExecutor(String name, int threads, int queueSize) {
+        ExecutorService executor;
+        Gauge<Integer> active;
+        Gauge<Integer> queued;
+        if (isVirtualThreadsEnabled()) {
+            LOGGER.info("{} executor runs on virtual threads", name);
+            final AtomicInteger running = new AtomicInteger();
+            executor = bounded(newVirtualThreadExecutor(name, running), threads + queueSize);
+            active = running::get;
+            queued = () -> 0;
+        } else {
+            if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+                LOGGER.warn("{} is set, but virtual threads are not supported by this JVM. {} executor runs on platform threads",
+                        VIRTUAL_THREADS_PROPERTY, name);
+            }
+            final ThreadPoolExecutor pool = newPlatformThreadExecutor(name, threads, queueSize);
+            executor = pool;
+            active = pool::getActiveCount;
+            queued = () -> pool.getQueue().size();
+        }
+
+        MetricRegistry registry = MetricRegistryFactory.getJmxMetricRegistry();
+        String activeName = MetricRegistry.name("api", "executor", name, "active");
+        String queuedName = MetricRegistry.name("api", "executor", name, "queued");
+        registry.remove(activeName);
+        registry.remove(queuedName);
+        registry.register(activeName, active);
+        registry.register(queuedName, queued);
+        return executor;
+    }
+
+    /**
+     * Creates a fixed pool of daemon platform threads, named
+     * lightblue-&lt;name&gt;-n, that rejects tasks when its queue is full
+     */
+    public static ThreadPoolExecutor newPlatformThreadExecutor(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("lightblue-" + name + "-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread,
+     * named lightblue-&lt;name&gt;-n. The running counter is incremented
+     * while a task runs.
+     *
+     * @throws UnsupportedOperationException if the JVM does not support
+     * virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name, final AtomicInteger running) {
+        if (!isVirtualThreadsSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported");
+        }
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), "lightblue-" + name + "-", 0L);
+            final ThreadFactory virtual = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            ThreadFactory counting = r -> virtual.newThread(() -> {
+                running.incrementAndGet();
+                try {
+                    r.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, counting);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Returns an executor that runs at most maxTasks tasks of the executor
+     * at a time, and rejects tasks beyond that
+     */
+    static ExecutorService bounded(ExecutorService executor, int maxTasks) {
+        return new BoundedExecutor(executor, maxTasks);
+    }
+
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService executor;
+        private final Semaphore permits;
+        private final int maxTasks;
+
+        BoundedExecutor(ExecutorService executor, int maxTasks) {
+            this.executor = executor;
+            this.permits = new Semaphore(maxTasks);
+            this.maxTasks = maxTasks;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("More than " + maxTasks + " tasks");
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+}
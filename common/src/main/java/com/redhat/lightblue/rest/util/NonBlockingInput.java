@@ -0,0 +1,244 @@
+package com.redhat.lightblue.rest.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a request body with Servlet 3.1 non-blocking input. The body is
+ * read as the container receives it, and a slow client does not hold a
+ * thread while it uploads the body: when no data is available, the
+ * reader returns, and the container calls it again when more data
+ * arrives. The handler is called once the whole body is read.
+ *
+ * The build uses the Servlet 3.0 API, so the non-blocking API is looked
+ * up by reflection, and the read listener is a dynamic proxy. It is only
+ * used if the container supports it, and the request is already in async
+ * mode. Otherwise {@link #isAvailable(HttpServletRequest)} returns false,
+ * and the body should be read with blocking I/O.
+ *
+ * The whole body is buffered in memory before the handler is called, so
+ * the size of the body should be limited with maxBytes. The buffer starts
+ * from the Content-Length of the request, up to MAX_INITIAL_SIZE, and
+ * grows as the body is received. The handler reads the buffer itself,
+ * it is not copied.
+ */
+public final class NonBlockingInput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingInput.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The largest buffer allocated up front. The Content-Length is sent by
+     * the client, so it is not trusted for more.
+     */
+    static final int MAX_INITIAL_SIZE = BUFFER_SIZE * 16;
+
+    /**
+     * Receives the request body
+     */
+    public interface BodyHandler {
+        /**
+         * Called with the body after it is read completely
+         */
+        void onBody(InputStream body);
+
+        /**
+         * Called if the body cannot be read, or it is larger than the
+         * limit. The error is the error returned by
+         * {@link BodyLimit#tooLarge(long)} in that case.
+         */
+        void onError(Throwable error);
+    }
+
+    private static final Class<?> READ_LISTENER;
+    private static final Method IS_READY;
+    private static final Method IS_FINISHED;
+    private static final Method SET_READ_LISTENER;
+
+    static {
+        Class<?> listener = null;
+        Method isReady = null;
+        Method isFinished = null;
+        Method setReadListener = null;
+        try {
+            listener = Class.forName("javax.servlet.ReadListener");
+            isReady = ServletInputStream.class.getMethod("isReady");
+            isFinished = ServletInputStream.class.getMethod("isFinished");
+            setReadListener = ServletInputStream.class.getMethod("setReadListener", listener);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            listener = null;
+        }
+        READ_LISTENER = listener;
+        IS_READY = isReady;
+        IS_FINISHED = isFinished;
+        SET_READ_LISTENER = setReadListener;
+    }
+
+    private NonBlockingInput() {
+    }
+
+    /**
+     * Returns if the servlet API supports non-blocking input
+     */
+    public static boolean isSupported() {
+        return READ_LISTENER != null;
+    }
+
+    /**
+     * Returns if the body of the request can be read with non-blocking
+     * input. The request must be in async mode.
+     */
+    public static boolean isAvailable(HttpServletRequest request) {
+        return isSupported() && request != null && request.isAsyncStarted();
+    }
+
+    /**
+     * Starts reading the request body. The call returns immediately, and
+     * the handler is called from a container thread when the body is read.
+     *
+     * @param request The request
+     * @param maxBytes The maximum size of the body, or 0 if the size is
+     * not limited
+     * @param handler The handler receiving the body
+     */
+    public static void read(HttpServletRequest request, long maxBytes, BodyHandler handler) throws IOException {
+        if (!isAvailable(request)) {
+            throw new IllegalStateException("Non-blocking input is not available");
+        }
+        final Reader reader = new Reader(request.getInputStream(), maxBytes, initialSize(request.getContentLength(), maxBytes), handler);
+        Object listener = Proxy.newProxyInstance(NonBlockingInput.class.getClassLoader(),
+                new Class<?>[]{READ_LISTENER},
+                reader);
+        invoke(SET_READ_LISTENER, reader.in, listener);
+    }
+
+    /**
+     * Returns the initial size of the body buffer
+     */
+    static int initialSize(long contentLength, long maxBytes) {
+        long size = contentLength > 0 ? Math.min(contentLength, MAX_INITIAL_SIZE) : BUFFER_SIZE;
+        if (maxBytes > 0) {
+            // One more byte than the limit is enough to detect a larger body
+            size = Math.min(size, maxBytes + 1);
+        }
+        return (int) size;
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Implements ReadListener.onDataAvailable, onAllDataRead and onError
+     */
+    private static final class Reader implements InvocationHandler {
+        private final ServletInputStream in;
+        private final long maxBytes;
+        private final Buffer body;
+        private final BodyHandler handler;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private boolean done;
+
+        Reader(ServletInputStream in, long maxBytes, int initialSize, BodyHandler handler) {
+            this.in = in;
+            this.maxBytes = maxBytes;
+            this.body = new Buffer(initialSize);
+            this.handler = handler;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "onDataAvailable":
+                    onDataAvailable();
+                    return null;
+                case "onAllDataRead":
+                    onAllDataRead();
+                    return null;
+                case "onError":
+                    fail((Throwable) args[0]);
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "NonBlockingInput.Reader";
+                default:
+                    return null;
+            }
+        }
+
+        private void onDataAvailable() {
+            try {
+                while (!done && (Boolean) NonBlockingInput.invoke(IS_READY, in)
+                        && !(Boolean) NonBlockingInput.invoke(IS_FINISHED, in)) {
+                    int n = in.read(buffer);
+                    if (n == -1) {
+                        break;
+                    }
+                    body.write(buffer, 0, n);
+                    if (maxBytes > 0 && body.size() > maxBytes) {
+                        fail(BodyLimit.tooLarge(maxBytes));
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Non-blocking read failed: {}", e.toString());
+                fail(e);
+            }
+        }
+
+        private void onAllDataRead() {
+            if (!done) {
+                done = true;
+                handler.onBody(body.toInputStream());
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (!done) {
+                done = true;
+                handler.onError(error);
+            }
+        }
+    }
+
+    /**
+     * A buffer that can be read without copying it
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.redhat.lightblue.rest.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a response body with Servlet 3.1 non-blocking output. The body
+ * is pulled from a {@link ChunkSource} one chunk at a time, and the next
+ * chunk is requested only when the container can accept more data. A
+ * slow client does not hold a thread while it reads the response: when
+ * the socket is full, the writer returns, and the container calls it
+ * again when the socket is writable.
+ *
+ * The build uses the Servlet 3.0 API, so the non-blocking API is looked
+ * up by reflection, and the write listener is a dynamic proxy. It is
+ * only used if the container supports it, and the request is already in
+ * async mode. Otherwise {@link #isAvailable(HttpServletRequest)} returns
+ * false, and the body should be written with blocking I/O.
+ */
+public final class NonBlockingOutput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingOutput.class);
+
+    /**
+     * The body of a response, produced in chunks
+     */
+    public interface ChunkSource {
+        /**
+         * Returns the next chunk of the body, or null if there is no
+         * more data
+         */
+        byte[] next() throws IOException;
+
+        /**
+         * Called once when writing ends. The error is null if the body
+         * was written completely.
+         */
+        void close(Throwable error);
+    }
+
+    private static final Class<?> WRITE_LISTENER;
+    private static final Method IS_READY;
+    private static final Method SET_WRITE_LISTENER;
+
+    static {
+        Class<?> listener = null;
+        Method isReady = null;
+        Method setWriteListener = null;
+        try {
+            listener = Class.forName("javax.servlet.WriteListener");
+            isReady = ServletOutputStream.class.getMethod("isReady");
+            setWriteListener = ServletOutputStream.class.getMethod("setWriteListener", listener);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            listener = null;
+        }
+        WRITE_LISTENER = listener;
+        IS_READY = isReady;
+        SET_WRITE_LISTENER = setWriteListener;
+    }
+
+    private NonBlockingOutput() {
+    }
+
+    /**
+     * Returns if the servlet API supports non-blocking output
+     */
+    public static boolean isSupported() {
+        return WRITE_LISTENER != null;
+    }
+
+    /**
+     * Returns if the response of the request can be written with
+     * non-blocking output. The request must be in async mode.
+     */
+    public static boolean isAvailable(HttpServletRequest request) {
+        return isSupported() && request != null && request.isAsyncStarted();
+    }
+
+    /**
+     * Starts writing the response body from the source. The call returns
+     * immediately. The async context of the request is completed, and the
+     * source is closed, after the body is written or writing fails.
+     */
+    public static void write(HttpServletRequest request, HttpServletResponse response, ChunkSource source)
+            throws IOException {
+        if (!isAvailable(request)) {
+            throw new IllegalStateException("Non-blocking output is not available");
+        }
+        ServletOutputStream out = response.getOutputStream();
+        CountingServletOutputStream counter = null;
+        if (out instanceof CountingServletOutputStream) {
+            // The listener must be set on the container stream
+            counter = (CountingServletOutputStream) out;
+            out = counter.getDelegate();
+        }
+        final Writer writer = new Writer(request.getAsyncContext(), out, counter, source);
+        Object listener = Proxy.newProxyInstance(NonBlockingOutput.class.getClassLoader(),
+                new Class<?>[]{WRITE_LISTENER},
+                writer);
+        invoke(SET_WRITE_LISTENER, writer.out, listener);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Implements WriteListener.onWritePossible and onError
+     */
+    private static final class Writer implements InvocationHandler {
+        private final AsyncContext context;
+        private final ServletOutputStream out;
+        private final CountingServletOutputStream counter;
+        private final ChunkSource source;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Writer(AsyncContext context, ServletOutputStream out, CountingServletOutputStream counter, ChunkSource source) {
+            this.context = context;
+            this.out = out;
+            this.counter = counter;
+            this.source = source;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "onWritePossible":
+                    onWritePossible();
+                    return null;
+                case "onError":
+                    close((Throwable) args[0]);
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "NonBlockingOutput.Writer";
+                default:
+                    return null;
+            }
+        }
+
+        private void onWritePossible() {
+            try {
+                while ((Boolean) NonBlockingOutput.invoke(IS_READY, out)) {
+                    byte[] chunk = source.next();
+                    if (chunk == null) {
+                        close(null);
+                        return;
+                    }
+                    out.write(chunk);
+                    if (counter != null) {
+                        counter.addCount(chunk.length);
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Non-blocking write failed: {}", e.toString());
+                close(e);
+            }
+        }
+
+        private void close(Throwable error) {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    source.close(error);
+                } finally {
+                    context.complete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.redhat.lightblue.rest.util;
+
+/**
+ * The operation of a request, with the entity, version and status taken
+ * from its path. Routes are determined by a {@link RouteClassifier}, once
+ * per request, and shared by the filters that need to know which
+ * operation a request runs before the request reaches the resource.
+ */
+public final class Route {
+
+    private final String operation;
+    private final String template;
+    private final String entity;
+    private final String version;
+    private final String status;
+
+    public Route(String operation, String entity, String version) {
+        this(operation, null, entity, version, null);
+    }
+
+    public Route(String operation, String template, String entity, String version, String status) {
+        this.operation = operation;
+        this.template = template;
+        this.entity = entity;
+        this.version = version;
+        this.status = status;
+    }
+
+    /**
+     * The short name of the operation, such as find, insert or
+     * getMetadata
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * The method and path template of the resource method, such as
+     * <code>POST /find/{entity}/{version}</code>
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * The entity, or null if the operation is not on a single entity
+     */
+    public String getEntity() {
+        return entity;
+    }
+
+    /**
+     * The entity version, or null if it is not in the path
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * The metadata status, or null if it is not in the path
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return operation + " " + entity + " " + version;
+    }
+}
@@ -0,0 +1,333 @@
+package com.redhat.lightblue.rest.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Determines the {@link Route} of a request from its method and path.
+ *
+ * The routes of a service are compiled into a trie of path segments. A
+ * path is classified in one pass over its segments: at each segment, a
+ * literal segment is tried before a path parameter, so /dependencies is
+ * not taken as an entity named dependencies, and the number of segments
+ * must match, so /find/{entity} and /find/{entity}/{version} never
+ * overlap. If a branch does not lead to a route for the request method,
+ * the next branch is tried. The path is not split, and no regular
+ * expression is evaluated: only the returned route and its values are
+ * allocated.
+ *
+ * The route of a request is stored in a request attribute, so the
+ * filters of a request classify it once.
+ */
+public final class RouteClassifier {
+
+    /**
+     * The routes of the crud service
+     */
+    public static final RouteClassifier CRUD = new RouteClassifier("crud",
+            "find", "GET /find/{entity}",
+            "find", "GET /find/{entity}/{version}",
+            "find", "POST /find/{entity}",
+            "find", "POST /find/{entity}/{version}",
+            "explain", "GET /explain/{entity}",
+            "explain", "GET /explain/{entity}/{version}",
+            "explain", "POST /explain/{entity}",
+            "explain", "POST /explain/{entity}/{version}",
+            "save", "POST /save/{entity}",
+            "save", "POST /save/{entity}/{version}",
+            "update", "POST /update/{entity}",
+            "update", "POST /update/{entity}/{version}",
+            "delete", "POST /delete/{entity}",
+            "delete", "POST /delete/{entity}/{version}",
+            "insert", "PUT /insert/{entity}",
+            "insert", "PUT /insert/{entity}/{version}",
+            "insert", "PUT /insert/{entity}/{version}/stream",
+            "insert", "PUT /{entity}",
+            "insert", "PUT /{entity}/{version}",
+            "search", "GET /search/{entity}",
+            "search", "GET /search/{entity}/{searchName}",
+            "search", "GET /search/{entity}/{version}/{searchName}",
+            "search", "POST /search/{entity}/{searchName}",
+            "search", "POST /search/{entity}/{version}/{searchName}",
+            "generate", "GET /generate/{entity}/{path}",
+            "generate", "GET /generate/{entity}/{version}/{path}",
+            "bulk", "POST /bulk",
+            "bulk", "POST /bulk/stream");
+
+    /**
+     * The routes of the metadata service
+     */
+    public static final RouteClassifier METADATA = new RouteClassifier("metadata",
+            "getDepGraph", "GET /dependencies",
+            "getDepGraph", "GET /{entity}/dependencies",
+            "getDepGraph", "GET /{entity}/{version}/dependencies",
+            "getDiff", "GET /{entity}/{version}/diff/{version2}",
+            "getEntityRoles", "GET /roles",
+            "getEntityRoles", "GET /{entity}/roles",
+            "getEntityRoles", "GET /{entity}/{version}/roles",
+            "getEntityNames", "GET /",
+            "getEntityNames", "GET /s={statuses}",
+            "getEntityVersions", "GET /{entity}",
+            "getMetadata", "GET /{entity}/{version}",
+            "createMetadata", "PUT /{entity}/{version}",
+            "createSchema", "PUT /{entity}/schema={version}",
+            "updateEntityInfo", "PUT /{entity}",
+            "updateSchemaStatus", "PUT /{entity}/{version}/{status}",
+            "setDefaultVersion", "POST /{entity}/{version}/default",
+            "reindex", "POST /{entity}/reindex",
+            "reindex", "POST /{entity}/{version}/reindex",
+            "removeEntity", "DELETE /{entity}",
+            "clearDefaultVersion", "DELETE /{entity}/default");
+
+    private static final int ENTITY = 0;
+    private static final int VERSION = 1;
+    private static final int STATUS = 2;
+    private static final int NONE = -1;
+
+    private static final Route NO_ROUTE = new Route(null, null, null);
+
+    private final String attribute;
+    private final Node root = new Node(null, NONE);
+    private final Set<String> methods = new HashSet<>();
+
+    /**
+     * @param name The name of the service
+     * @param routes Pairs of operation name and route template. A
+     * template is a method and a path. A path segment is a literal, a
+     * parameter in braces, or a literal prefix followed by a parameter,
+     * such as s={statuses}. The entity, version and status parameters are
+     * returned in the route.
+     */
+    public RouteClassifier(String name, String... routes) {
+        this.attribute = RouteClassifier.class.getName() + "." + name;
+        for (int i = 0; i + 1 < routes.length; i += 2) {
+            add(routes[i], routes[i + 1]);
+        }
+    }
+
+    /**
+     * Returns the classifier of the service deployed at the context path:
+     * METADATA for a context path ending with /metadata, CRUD for one
+     * ending with /data, and null otherwise.
+     */
+    public static RouteClassifier forContextPath(String contextPath) {
+        if (contextPath == null) {
+            return null;
+        }
+        int end = contextPath.length();
+        while (end > 0 && contextPath.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (endsWithSegment(contextPath, end, "metadata")) {
+            return METADATA;
+        } else if (endsWithSegment(contextPath, end, "data")) {
+            return CRUD;
+        }
+        return null;
+    }
+
+    private static boolean endsWithSegment(String path, int end, String segment) {
+        int start = end - segment.length();
+        return start > 0 && path.charAt(start - 1) == '/' && path.regionMatches(start, segment, 0, segment.length());
+    }
+
+    /**
+     * Returns if any route of the service uses the method
+     */
+    public boolean isMethod(String method) {
+        return methods.contains(method);
+    }
+
+    /**
+     * Returns the route of the request, or null if the request does not
+     * match a route. The route is stored in the request, and returned
+     * without classifying the request again on the next call.
+     */
+    public Route classify(HttpServletRequest req) {
+        Object cached = req.getAttribute(attribute);
+        Route route;
+        if (cached instanceof Route) {
+            route = (Route) cached;
+        } else {
+            route = classify(req.getMethod(), getPath(req));
+            req.setAttribute(attribute, route == null ? NO_ROUTE : route);
+        }
+        return route == NO_ROUTE ? null : route;
+    }
+
+    /**
+     * Returns the route of the request with the given method and path
+     * relative to the context path, or null if the request does not
+     * match a route
+     */
+    public Route classify(String method, String path) {
+        if (method == null || path == null) {
+            return null;
+        }
+        int[] values = new int[]{-1, -1, -1, -1, -1, -1};
+        Endpoint endpoint = match(root, method, path, 0, values);
+        if (endpoint == null) {
+            return null;
+        }
+        return new Route(endpoint.operation, endpoint.template,
+                value(path, values, ENTITY),
+                value(path, values, VERSION),
+                value(path, values, STATUS));
+    }
+
+    /**
+     * Returns the path of the request relative to the context path
+     */
+    private static String getPath(HttpServletRequest req) {
+        String uri = req.getRequestURI();
+        if (uri != null) {
+            String contextPath = req.getContextPath();
+            if (contextPath != null && uri.startsWith(contextPath)) {
+                uri = uri.substring(contextPath.length());
+            }
+            return uri;
+        }
+        String servletPath = req.getServletPath();
+        String pathInfo = req.getPathInfo();
+        if (pathInfo == null) {
+            return servletPath;
+        }
+        return servletPath == null ? pathInfo : servletPath + pathInfo;
+    }
+
+    private static String value(String path, int[] values, int kind) {
+        int start = values[kind * 2];
+        return start < 0 ? null : path.substring(start, values[kind * 2 + 1]);
+    }
+
+    private static Endpoint match(Node node, String method, String path, int pos, int[] values) {
+        int length = path.length();
+        int start = pos;
+        while (start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start == length) {
+            return node.endpoints.get(method);
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = length;
+        }
+        int segmentLength = end - start;
+        for (int i = 0; i < node.literals.size(); i++) {
+            Node child = node.literals.get(i);
+            if (child.text.length() == segmentLength && path.regionMatches(start, child.text, 0, segmentLength)) {
+                Endpoint endpoint = match(child, method, path, end, values);
+                if (endpoint != null) {
+                    return endpoint;
+                }
+            }
+        }
+        for (int i = 0; i < node.parameters.size(); i++) {
+            Node child = node.parameters.get(i);
+            int prefixLength = child.text.length();
+            if (segmentLength > prefixLength && path.startsWith(child.text, start)) {
+                int previousStart = 0;
+                int previousEnd = 0;
+                if (child.kind != NONE) {
+                    previousStart = values[child.kind * 2];
+                    previousEnd = values[child.kind * 2 + 1];
+                    values[child.kind * 2] = start + prefixLength;
+                    values[child.kind * 2 + 1] = end;
+                }
+                Endpoint endpoint = match(child, method, path, end, values);
+                if (endpoint != null) {
+                    return endpoint;
+                }
+                if (child.kind != NONE) {
+                    values[child.kind * 2] = previousStart;
+                    values[child.kind * 2 + 1] = previousEnd;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void add(String operation, String template) {
+        int space = template.indexOf(' ');
+        String method = template.substring(0, space);
+        Node node = root;
+        for (String segment : template.substring(space + 1).split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            int brace = segment.indexOf('{');
+            if (brace < 0) {
+                node = node.child(node.literals, segment, NONE);
+            } else {
+                String parameter = segment.substring(brace + 1, segment.length() - 1);
+                node = node.child(node.parameters, segment.substring(0, brace), kindOf(parameter));
+            }
+        }
+        if (node.endpoints.containsKey(method)) {
+            throw new IllegalArgumentException("Duplicate route: " + template);
+        }
+        node.endpoints.put(method, new Endpoint(operation, template));
+        methods.add(method);
+    }
+
+    private static int kindOf(String parameter) {
+        switch (parameter) {
+            case "entity":
+                return ENTITY;
+            case "version":
+                return VERSION;
+            case "status":
+            case "statuses":
+                return STATUS;
+            default:
+                return NONE;
+        }
+    }
+
+    private static final class Endpoint {
+        private final String operation;
+        private final String template;
+
+        Endpoint(String operation, String template) {
+            this.operation = operation;
+            this.template = template;
+        }
+    }
+
+    /**
+     * A path segment. For a parameter, the text is the literal prefix
+     * before the parameter, usually empty.
+     */
+    private static final class Node {
+        private final String text;
+        private final int kind;
+        private final List<Node> literals = new ArrayList<>();
+        private final List<Node> parameters = new ArrayList<>();
+        private final Map<String, Endpoint> endpoints = new HashMap<>();
+
+        Node(String text, int kind) {
+            this.text = text;
+            this.kind = kind;
+        }
+
+        Node child(List<Node> children, String text, int kind) {
+            for (Node child : children) {
+                if (child.text.equals(text) && child.kind == kind) {
+                    return child;
+                }
+            }
+            Node child = new Node(text, kind);
+            children.add(child);
+            // Longer prefixes are more specific, and are tried first
+            children.sort((a, b) -> b.text.length() - a.text.length());
+            return child;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.redhat.lightblue.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.Test;
+
+import com.redhat.lightblue.util.JsonUtils;
+
+public class BinaryJsonStringProviderTest {
+
+    private static final MediaType CBOR = MediaType.valueOf(WireFormat.APPLICATION_CBOR);
+
+    private final BinaryJsonStringProvider provider = new BinaryJsonStringProvider();
+
+    @Test
+    public void onlyBinaryMediaTypes() {
+        assertTrue(provider.isReadable(String.class, String.class, null, CBOR));
+        assertTrue(provider.isWriteable(String.class, String.class, null, MediaType.valueOf(WireFormat.APPLICATION_SMILE)));
+        assertFalse(provider.isReadable(String.class, String.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(provider.isWriteable(String.class, String.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(provider.isWriteable(CallStatus.class, CallStatus.class, null, CBOR));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        String json = "{\"entityInfo\":{\"name\":\"test\"},\"versions\":[1,2]}";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provider.writeTo(json, String.class, String.class, null, CBOR, null, out);
+        String read = provider.readFrom(String.class, String.class, null, CBOR, null, new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(JsonUtils.json(json), JsonUtils.json(read));
+    }
+
+    @Test
+    public void emptyStringIsWrittenAsText() throws Exception {
+        @SuppressWarnings("unchecked")
+        MultivaluedMap<String, Object> headers = mock(MultivaluedMap.class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        provider.writeTo("", String.class, String.class, null, CBOR, headers, out);
+
+        assertEquals(0, out.size());
+        verify(headers).putSingle(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_TYPE);
+    }
+
+    @Test
+    public void nonJsonIsWrittenUnchanged() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        provider.writeTo("not json", String.class, String.class, null, CBOR, null, out);
+
+        assertEquals("not json", out.toString("UTF-8"));
+    }
+}
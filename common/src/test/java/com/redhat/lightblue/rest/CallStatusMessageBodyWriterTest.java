@@ -0,0 +1,51 @@
+package com.redhat.lightblue.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.util.SimpleJsonObject;
+
+public class CallStatusMessageBodyWriterTest {
+
+    @Test
+    public void testWriteTo_SameAsToString() throws Exception {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("status", "COMPLETE");
+        node.putArray("processed").addObject().put("field", "value");
+        CallStatus status = new CallStatus(new SimpleJsonObject(node));
+
+        CallStatusMessageBodyWriter writer = new CallStatusMessageBodyWriter();
+        assertTrue(writer.isWriteable(CallStatus.class, CallStatus.class, null, MediaType.APPLICATION_JSON_TYPE));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(status, CallStatus.class, CallStatus.class, null, MediaType.APPLICATION_JSON_TYPE, null, out);
+
+        assertEquals(status.toString(), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWriteTo_Smile() throws Exception {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("status", "COMPLETE");
+        CallStatus status = new CallStatus(new SimpleJsonObject(node));
+        MediaType smile = MediaType.valueOf(WireFormat.APPLICATION_SMILE);
+
+        CallStatusMessageBodyWriter writer = new CallStatusMessageBodyWriter();
+        assertTrue(writer.isWriteable(CallStatus.class, CallStatus.class, null, smile));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(status, CallStatus.class, CallStatus.class, null, smile, null, out);
+
+        assertEquals(status.toJson(), WireFormat.SMILE.readTree(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+}
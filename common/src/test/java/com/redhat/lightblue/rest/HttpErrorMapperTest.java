@@ -0,0 +1,24 @@
+package com.redhat.lightblue.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import com.redhat.lightblue.rest.util.Deadline;
+
+public class HttpErrorMapperTest {
+
+    @Test
+    public void testInvalidContinuationIsBadRequest() {
+        assertEquals(Response.Status.BAD_REQUEST, HttpErrorMapper.getStatus("rest-crud:InvalidContinuation"));
+    }
+
+    @Test
+    public void testStatus() {
+        assertEquals(Response.Status.OK, HttpErrorMapper.getStatus((String) null));
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE, HttpErrorMapper.getStatus(Deadline.ERR_DEADLINE_EXCEEDED));
+        assertEquals(Response.Status.INTERNAL_SERVER_ERROR, HttpErrorMapper.getStatus("some:error"));
+    }
+}
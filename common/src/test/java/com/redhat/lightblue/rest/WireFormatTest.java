@@ -0,0 +1,82 @@
+package com.redhat.lightblue.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class WireFormatTest {
+
+    @Test
+    public void ofContentType() {
+        assertEquals(WireFormat.JSON, WireFormat.ofContentType(null));
+        assertEquals(WireFormat.JSON, WireFormat.ofContentType("application/json; charset=utf-8"));
+        assertEquals(WireFormat.SMILE, WireFormat.ofContentType("application/x-jackson-smile"));
+        assertEquals(WireFormat.CBOR, WireFormat.ofContentType("Application/CBOR"));
+        assertEquals(WireFormat.JSON, WireFormat.ofContentType("text/plain"));
+        assertEquals(WireFormat.JSON, WireFormat.ofContentType("not a media type"));
+        assertEquals(WireFormat.SMILE, WireFormat.of(MediaType.valueOf(WireFormat.APPLICATION_SMILE)));
+    }
+
+    @Test
+    public void negotiateDefaultsToJson() {
+        assertEquals(WireFormat.JSON, WireFormat.negotiate(null));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("*/*"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/json"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("text/html, application/xml;q=0.9, */*;q=0.8"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/json, application/cbor"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("text/plain"));
+    }
+
+    @Test
+    public void negotiateBinary() {
+        assertEquals(WireFormat.SMILE, WireFormat.negotiate("application/x-jackson-smile"));
+        assertEquals(WireFormat.CBOR, WireFormat.negotiate("application/cbor, application/json"));
+        assertEquals(WireFormat.CBOR, WireFormat.negotiate("application/json;q=0.5, application/cbor"));
+        assertEquals(WireFormat.SMILE, WireFormat.negotiate("*/*, application/x-jackson-smile"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/cbor;q=0"));
+    }
+
+    @Test
+    public void binaryRoundTrip() throws Exception {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("name", "value");
+        node.put("number", new BigDecimal("1.10"));
+        node.putArray("array").add(1).add("two");
+
+        for (WireFormat format : WireFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            format.writeTree(node, out);
+            JsonNode read = format.readTree(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(format.name(), node, read);
+        }
+    }
+
+    @Test
+    public void binaryIsNotJson() throws Exception {
+        ObjectNode node = JsonNodeFactory.instance.objectNode().put("name", "value");
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        ByteArrayOutputStream smile = new ByteArrayOutputStream();
+        WireFormat.JSON.writeTree(node, json);
+        WireFormat.SMILE.writeTree(node, smile);
+
+        assertArrayEquals(node.toString().getBytes(StandardCharsets.UTF_8), json.toByteArray());
+        assertFalse(WireFormat.JSON.isBinary());
+        assertTrue(WireFormat.SMILE.isBinary());
+        // Smile header
+        assertEquals(':', smile.toByteArray()[0]);
+    }
+}
@@ -0,0 +1,185 @@
+package com.redhat.lightblue.rest.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.impl.SimpleLogger;
+
+public class AuditLogTest {
+
+    private Field simpleLoggerOutField;
+    private PrintStream simpleLoggerPrintStream;
+    private ByteArrayOutputStream console;
+    private CountDownLatch release;
+    private AuditLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        console = new ByteArrayOutputStream();
+        release = new CountDownLatch(0);
+        // Lines are written to the console, after the release latch opens
+        PrintStream blocking = new PrintStream(console, true) {
+            @Override
+            public void println(String x) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.println(x);
+            }
+        };
+        simpleLoggerOutField = SimpleLogger.class.getDeclaredField("TARGET_STREAM");
+        simpleLoggerOutField.setAccessible(true);
+        simpleLoggerPrintStream = (PrintStream) simpleLoggerOutField.get(null);
+        simpleLoggerOutField.set(null, blocking);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (log != null) {
+            log.close();
+        }
+        simpleLoggerOutField.set(null, simpleLoggerPrintStream);
+    }
+
+    private static LogEntryBuilder entry(String operation) {
+        return new LogEntryBuilder()
+                .setTimestamp(System.currentTimeMillis())
+                .setPrincipal(new FakePrincipal("UserName"))
+                .setResource("/data")
+                .setOperation(operation)
+                .setRequestSize(10)
+                .setResponseSize(20)
+                .setTimeElapsedInNs(30);
+    }
+
+    private String console() {
+        return console.toString();
+    }
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        log = new AuditLog(false, 100, null);
+        assertEquals(128, log.getCapacity());
+        assertEquals(AuditLog.Overflow.DROP, log.getOverflow());
+    }
+
+    @Test
+    public void testSyncWritesInCallingThread() {
+        log = new AuditLog(false, 16, AuditLog.Overflow.DROP);
+        assertTrue(log.publish(entry("GET /find/{entity}")));
+        assertTrue(console().contains(AuditLog.PREFIX + "{\"initialTimestamp\":\""));
+        assertTrue(console().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"GET /find/{entity}\",\"entityName\":null"));
+        assertTrue(console().contains("\"requestSize\":10,\"responseSize\":20,\"timeElapsedInNs\":30}"));
+    }
+
+    @Test
+    public void testAsyncWritesInOrder() {
+        log = new AuditLog(true, 16, AuditLog.Overflow.DROP);
+        for (int i = 0; i < 100; i++) {
+            log.publish(entry("op" + i));
+        }
+        assertTrue(log.flush(10, TimeUnit.SECONDS));
+        assertEquals(0, log.getBacklog());
+        String output = console();
+        int last = -1;
+        for (int i = 0; i < 100 - log.getDropped(); i++) {
+            int index = output.indexOf("\"operation\":\"op", last + 1);
+            assertTrue(index > last);
+            last = index;
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        log = new AuditLog(true, 2, AuditLog.Overflow.DROP);
+        release = new CountDownLatch(1);
+        long dropped = log.getDropped();
+        // The writer blocks on the first entry, which keeps its slot
+        assertTrue(log.publish(entry("first")));
+        assertTrue(log.publish(entry("second")));
+        assertFalse(log.publish(entry("third")));
+        assertEquals(dropped + 1, log.getDropped());
+
+        release.countDown();
+        assertTrue(log.flush(10, TimeUnit.SECONDS));
+        assertTrue(console().contains("\"operation\":\"first\""));
+        assertTrue(console().contains("\"operation\":\"second\""));
+        assertFalse(console().contains("\"operation\":\"third\""));
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        log = new AuditLog(true, 2, AuditLog.Overflow.BLOCK);
+        release = new CountDownLatch(1);
+        long dropped = log.getDropped();
+        log.publish(entry("first"));
+        log.publish(entry("second"));
+        Thread publisher = new Thread(() -> log.publish(entry("third")));
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+
+        release.countDown();
+        publisher.join(10000);
+        assertFalse(publisher.isAlive());
+        assertTrue(log.flush(10, TimeUnit.SECONDS));
+        assertEquals(dropped, log.getDropped());
+        assertTrue(console().contains("\"operation\":\"third\""));
+    }
+
+    @Test
+    public void testCloseWritesPending() {
+        log = new AuditLog(true, 16, AuditLog.Overflow.DROP);
+        log.publish(entry("pending"));
+        log.close();
+        assertTrue(console().contains("\"operation\":\"pending\""));
+        // After close, entries are written in the calling thread
+        log.publish(entry("closed"));
+        assertTrue(console().contains("\"operation\":\"closed\""));
+    }
+
+    @Test
+    public void testCloseWhilePublishing() throws Exception {
+        log = new AuditLog(true, 4096, AuditLog.Overflow.DROP);
+        Thread[] publishers = new Thread[4];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    assertTrue(log.publish(entry("race")));
+                }
+            });
+            publishers[i].start();
+        }
+        log.close();
+        for (Thread publisher : publishers) {
+            publisher.join(10000);
+        }
+        // Every entry is written, before or after close
+        String output = console();
+        int count = 0;
+        for (int i = output.indexOf("\"operation\":\"race\""); i >= 0; i = output.indexOf("\"operation\":\"race\"", i + 1)) {
+            count++;
+        }
+        assertEquals(2000, count);
+    }
+
+    @Test
+    public void testEscape() {
+        log = new AuditLog(false, 16, AuditLog.Overflow.DROP);
+        log.publish(entry("a\"b\\c\nd\u0001"));
+        assertTrue(console().contains("\"operation\":\"a\\\"b\\\\c\\nd\\u0001\""));
+    }
+}
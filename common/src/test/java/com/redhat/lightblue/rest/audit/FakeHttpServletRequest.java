@@ -20,6 +20,7 @@ public class FakeHttpServletRequest implements HttpServletRequest {
     Principal principal;
     String method;
     String servletPath;
+    AsyncContext asyncContext;
 
     public Object getAttribute(String name) {
         return null;
@@ -147,7 +148,7 @@ public class FakeHttpServletRequest implements HttpServletRequest {
     }
 
     public boolean isAsyncStarted() {
-        return false;
+        return asyncContext != null;
     }
 
     public boolean isAsyncSupported() {
@@ -155,7 +156,7 @@ public class FakeHttpServletRequest implements HttpServletRequest {
     }
 
     public AsyncContext getAsyncContext() {
-        return null;
+        return asyncContext;
     }
 
     public DispatcherType getDispatcherType() {
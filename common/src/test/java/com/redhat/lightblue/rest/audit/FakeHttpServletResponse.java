@@ -3,6 +3,7 @@ package com.redhat.lightblue.rest.audit;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Collection;
@@ -13,6 +14,8 @@ import java.util.Locale;
  */
 public class FakeHttpServletResponse implements HttpServletResponse {
 
+    public ByteArrayOutputStream body = new ByteArrayOutputStream();
+
     public void addCookie(Cookie cookie) {
     }
 
@@ -94,7 +97,12 @@ public class FakeHttpServletResponse implements HttpServletResponse {
     }
 
     public ServletOutputStream getOutputStream() throws IOException {
-        return null;
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        };
     }
 
     public PrintWriter getWriter() throws IOException {
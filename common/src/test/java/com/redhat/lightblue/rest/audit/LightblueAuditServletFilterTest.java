@@ -5,10 +5,14 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.impl.SimpleLogger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -19,6 +23,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Field;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -59,6 +64,9 @@ public class LightblueAuditServletFilterTest {
         simpleLoggerPrintStream = (PrintStream) simpleLoggerOutField.get(null);
         simpleLoggerPrintStream.flush();
         simpleLoggerOutField.set(null, err); // Using the default configuration, SimpleLogger will use the err. Either way, we are going to reset to the original value after this set of tests
+
+        // Write the audit entries in the request thread, so they can be checked when doFilter returns
+        System.setProperty(LightblueAuditServletFilter.PROPERTY_PREFIX + "async", "false");
     }
 
     @AfterClass
@@ -70,6 +78,8 @@ public class LightblueAuditServletFilterTest {
         System.setErr(err.originalPrintStream);
 
         simpleLoggerOutField.set(null, simpleLoggerPrintStream);
+
+        System.clearProperty(LightblueAuditServletFilter.PROPERTY_PREFIX + "async");
     }
 
     @Before
@@ -141,93 +151,93 @@ public class LightblueAuditServletFilterTest {
 
         req.servletPath = "/entity/version1.0-1:2/dependencies"; //LightblueMetadataOperationChecker.getDepGraphVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}/{version}/dependencies\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}/{version}/dependencies\""));
         basicCheckAndReset();
 
         req.servletPath = "/entity/dependencies"; //LightblueMetadataOperationChecker.getDepGraphEntityRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}/dependencies\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}/dependencies\""));
         basicCheckAndReset();
 
         req.servletPath = "/dependencies"; //LightblueMetadataOperationChecker.getDepGraphRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /dependencies\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /dependencies\""));
         basicCheckAndReset();
 
         req.servletPath = "/entity/version1.0-1:2/roles"; //LightblueMetadataOperationChecker.getEntityRolesVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}/{version}/roles\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}/{version}/roles\""));
         basicCheckAndReset();
 
         req.servletPath = "/entity/roles"; //LightblueMetadataOperationChecker.getEntityRolesEntityRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}/roles\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}/roles\""));
         basicCheckAndReset();
 
         req.servletPath = "/roles"; //LightblueMetadataOperationChecker.getEntityRolesRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /roles\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /roles\""));
         basicCheckAndReset();
 
         req.servletPath = "/"; //LightblueMetadataOperationChecker.getEntityNamesRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /\""));
         basicCheckAndReset();
 
         req.servletPath = "/s=asdass"; //LightblueMetadataOperationChecker.getEntityNamesStatusRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /s={statuses}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /s={statuses}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity"; //LightblueMetadataOperationChecker.getEntityVersionsRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity/15.9q:b"; //LightblueMetadataOperationChecker.getMetadataRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"GET /{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"GET /{entity}/{version}\""));
         basicCheckAndReset();
 
         req.method = "POST";
 
         req.servletPath = "/newEntity/15.9q:b/default"; //LightblueMetadataOperationChecker.createSchemaRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"POST /{entity}/{version}/default\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"POST /{entity}/{version}/default\""));
         basicCheckAndReset();
 
         req.method = "PUT";
 
         req.servletPath = "/newEntity/15.9q:b"; //LightblueMetadataOperationChecker.createMetadataRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"PUT /{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"PUT /{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity/schema=15.9q:b"; //LightblueMetadataOperationChecker.createSchemaRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"PUT /{entity}/schema={version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"PUT /{entity}/schema={version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity"; //LightblueMetadataOperationChecker.updateEntityInfoRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"PUT /{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"PUT /{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity/15.9q:b/test"; //LightblueMetadataOperationChecker.updateSchemaStatusRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"PUT /{entity}/{version}/{status}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"PUT /{entity}/{version}/{status}\""));
         basicCheckAndReset();
 
         req.method = "DELETE";
 
         req.servletPath = "/newEntity"; //LightblueMetadataOperationChecker.updateEntityInfoRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"DELETE /{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"DELETE /{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity/default"; //LightblueMetadataOperationChecker.updateEntityInfoRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/metadata\" , \"operation\":\"DELETE /{entity}/default\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/metadata\",\"operation\":\"DELETE /{entity}/default\""));
         basicCheckAndReset();
     }
 
@@ -241,86 +251,86 @@ public class LightblueAuditServletFilterTest {
 
         req.servletPath = "/find/nEntity"; //LightblueCrudOperationChecker.simpleFindVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"GET /find/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"GET /find/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/find/nEntity/15.9q:b"; //LightblueCrudOperationChecker.simpleFindRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"GET /find/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"GET /find/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.method = "POST";
 
         req.servletPath = "/save/newEntity"; //LightblueCrudOperationChecker.saveRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /save/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /save/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/save/newEntity/15.9q:b"; //LightblueCrudOperationChecker.saveVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /save/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /save/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/save/newEntity"; //LightblueCrudOperationChecker.saveRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /save/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /save/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/save/newEntity/15.9q:b"; //LightblueCrudOperationChecker.saveVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /save/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /save/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/update/newEntity"; //LightblueCrudOperationChecker.updateRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /update/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /update/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/update/newEntity/15.9q:b"; //LightblueCrudOperationChecker.updateVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /update/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /update/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/delete/newEntity"; //LightblueCrudOperationChecker.deleteRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /delete/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /delete/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/delete/newEntity/15.9q:b"; //LightblueCrudOperationChecker.deleteVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /delete/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /delete/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/find/newEntity"; //LightblueCrudOperationChecker.findRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /find/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /find/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/find/newEntity/15.9q:b"; //LightblueCrudOperationChecker.findVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"POST /find/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"POST /find/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.method = "PUT";
 
         req.servletPath = "/insert/newEntity"; //LightblueCrudOperationChecker.insertRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"PUT /insert/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"PUT /insert/{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/insert/newEntity/15.9q:b"; //LightblueCrudOperationChecker.insertVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"PUT /insert/{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"PUT /insert/{entity}/{version}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity"; //LightblueCrudOperationChecker.insertAltRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"PUT /{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"PUT /{entity}\""));
         basicCheckAndReset();
 
         req.servletPath = "/newEntity/15.9q:b"; //LightblueCrudOperationChecker.insertAltVersionRegex
         cut.doFilter(req, res, fChain);
-        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\" , \"resource\":\"/data\" , \"operation\":\"PUT /{entity}/{version}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"principal\":\"UserName\",\"resource\":\"/data\",\"operation\":\"PUT /{entity}/{version}\""));
         basicCheckAndReset();
 
     }
@@ -330,6 +340,83 @@ public class LightblueAuditServletFilterTest {
         return generex.random().replace(" ", "");// it seems there is a bug on the dependency of the dependency with \\S as it generate whitespace some times
     }
 
+    // The response is written through as the chain writes it, and only its size is recorded
+    @Test
+    public void testDoFilterPassesResponseThrough() throws Exception {
+        req.contextPath = "/data";
+        req.principal = new FakePrincipal("UserName");
+        req.method = "POST";
+        req.servletPath = "/find/entity";
+
+        final int[] writtenBeforeReturn = new int[1];
+        cut.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                response.getOutputStream().write(new byte[10]);
+                response.getOutputStream().write(1);
+                writtenBeforeReturn[0] = res.body.size();
+            }
+        });
+
+        assertEquals(11, writtenBeforeReturn[0]);
+        assertEquals(11, res.body.size());
+        assertTrue(err.inMemoryConsole.toString().contains("\"responseSize\":11"));
+        basicCheckAndReset();
+    }
+
+    // Async requests are audited when they complete, with the bytes written after the chain returns
+    @Test
+    public void testDoFilterAsync() throws Exception {
+        req.contextPath = "/data";
+        req.principal = new FakePrincipal("UserName");
+        req.method = "POST";
+        req.servletPath = "/find/entity";
+        req.asyncContext = Mockito.mock(AsyncContext.class);
+
+        final ServletResponse[] wrapped = new ServletResponse[1];
+        cut.doFilter(req, res, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                wrapped[0] = response;
+            }
+        });
+        assertFalse(err.inMemoryConsole.toString().contains("Audited lightblue rest request"));
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        Mockito.verify(req.asyncContext).addListener(listener.capture());
+        wrapped[0].getOutputStream().write(new byte[5]);
+        listener.getValue().onComplete(null);
+
+        assertEquals(5, res.body.size());
+        assertTrue(err.inMemoryConsole.toString().contains("\"operation\":\"POST /find/{entity}\""));
+        assertTrue(err.inMemoryConsole.toString().contains("\"responseSize\":5"));
+        basicCheckAndReset();
+    }
+
+    // Reads are audited at the sample rate, writes are always audited
+    @Test
+    public void testDoFilterReadSampling() throws Exception {
+        System.setProperty(LightblueAuditServletFilter.PROPERTY_PREFIX + "readSampleRate", "0");
+        try {
+            cut = new LightblueAuditServletFilter();
+            req.contextPath = "/data";
+            req.principal = new FakePrincipal("UserName");
+
+            req.method = "GET";
+            req.servletPath = "/find/entity";
+            cut.doFilter(req, res, fChain);
+            req.method = "POST";
+            cut.doFilter(req, res, fChain);
+            assertFalse(err.inMemoryConsole.toString().contains("Audited lightblue rest request"));
+
+            req.servletPath = "/update/entity";
+            cut.doFilter(req, res, fChain);
+            assertTrue(err.inMemoryConsole.toString().contains("\"operation\":\"POST /update/{entity}\""));
+        } finally {
+            System.clearProperty(LightblueAuditServletFilter.PROPERTY_PREFIX + "readSampleRate");
+        }
+    }
+
     private void basicCheckAndReset() {
         assertTrue(err.inMemoryConsole.toString().contains("LightblueAuditServletFilter.doFilter invoked - begin"));
         assertTrue(err.inMemoryConsole.toString().contains("LightblueAuditServletFilter.doFilter invoked - end"));
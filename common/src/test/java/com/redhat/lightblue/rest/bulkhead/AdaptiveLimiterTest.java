@@ -0,0 +1,105 @@
+package com.redhat.lightblue.rest.bulkhead;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class AdaptiveLimiterTest {
+
+    private static final long MS = 1000000L;
+
+    private MetricRegistry registry;
+    private AdaptiveLimiter limiter;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        limiter = new AdaptiveLimiter("find", 4, 1, 10, 2.0, 0.5, registry);
+    }
+
+    private void runConcurrent(int n, long rtt) {
+        for (int i = 0; i < n; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < n; i++) {
+            limiter.onComplete(rtt);
+        }
+    }
+
+    @Test
+    public void testRejectAtLimit() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(4, limiter.getInFlight());
+        assertEquals(1, registry.meter("api.limiter.find.rejected").getCount());
+
+        limiter.onComplete(10 * MS);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testReleaseDoesNotSample() {
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 4; j++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int j = 0; j < 4; j++) {
+                limiter.release();
+            }
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testIncreaseUnderLoad() {
+        for (int i = 0; i < 20; i++) {
+            runConcurrent(limiter.getLimit(), 10 * MS);
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(Integer.valueOf(10), registry.getGauges().get("api.limiter.find.limit").getValue());
+    }
+
+    @Test
+    public void testIncreaseByAboutOnePerRound() {
+        limiter = new AdaptiveLimiter("find", 4, 1, 100, 2.0, 0.5, registry);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onComplete(10 * MS);
+            assertTrue(limiter.tryAcquire());
+            assertTrue(limiter.tryAcquire());
+            limiter.onComplete(10 * MS);
+            limiter.onComplete(10 * MS);
+        }
+        // 300 completions, not 300 more
+        assertTrue(Integer.toString(limiter.getLimit()), limiter.getLimit() < 40);
+    }
+
+    @Test
+    public void testNoIncreaseWhenIdle() {
+        for (int i = 0; i < 20; i++) {
+            runConcurrent(1, 10 * MS);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testDecreaseWhenLatencyInflates() {
+        runConcurrent(4, 10 * MS);
+        for (int i = 0; i < 10; i++) {
+            runConcurrent(1, 200 * MS);
+        }
+        assertEquals(1, limiter.getLimit());
+        @SuppressWarnings("unchecked")
+        Gauge<Integer> inFlight = (Gauge<Integer>) registry.getGauges().get("api.limiter.find.inFlight");
+        assertEquals(Integer.valueOf(0), inFlight.getValue());
+    }
+}
@@ -0,0 +1,171 @@
+package com.redhat.lightblue.rest.bulkhead;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.redhat.lightblue.rest.util.Route;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BulkheadFilterTest {
+
+    @Mock
+    private FilterConfig config;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+    @Mock
+    private FilterChain chain;
+
+    private MetricRegistry registry;
+    private BulkheadFilter filter;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new MetricRegistry();
+        filter = new BulkheadFilter(registry);
+        when(config.getInitParameter("maxConcurrent.country.find")).thenReturn("1");
+        when(config.getInitParameter("maxConcurrent")).thenReturn("5");
+        when(config.getInitParameter("maxWaitMillis")).thenReturn("1");
+        filter.init(config);
+
+        when(request.getContextPath()).thenReturn("/rest/data");
+        when(request.getRequestURI()).thenReturn("/rest/data/find/country/1.0.0");
+        when(request.getMethod()).thenReturn("POST");
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    }
+
+    @Test
+    public void testCompartments() {
+        Bulkhead find = filter.getBulkhead(new Route("find", "country", null));
+        assertEquals("country.find", find.getName());
+        assertEquals(1, find.getMaxConcurrent());
+
+        Bulkhead insert = filter.getBulkhead(new Route("insert", "country", null));
+        assertEquals("country", insert.getName());
+        assertEquals(5, insert.getMaxConcurrent());
+        assertSame(insert, filter.getBulkhead(new Route("update", "country", "1.0.0")));
+
+        assertEquals("bulk", filter.getBulkhead(new Route("bulk", null, null)).getName());
+    }
+
+    @Test
+    public void testMaxCompartments() throws Exception {
+        when(config.getInitParameter("maxCompartments")).thenReturn("2");
+        filter = new BulkheadFilter(registry);
+        filter.init(config);
+
+        assertEquals("a", filter.getBulkhead(new Route("find", "a", null)).getName());
+        assertEquals("b", filter.getBulkhead(new Route("find", "b", null)).getName());
+        // Made up entities share one compartment
+        Bulkhead other = filter.getBulkhead(new Route("find", "c", null));
+        assertEquals(BulkheadFilter.OTHER, other.getName());
+        assertSame(other, filter.getBulkhead(new Route("find", "d", null)));
+        assertEquals(5, other.getMaxConcurrent());
+        // Configured entities still get their own
+        assertEquals("country.find", filter.getBulkhead(new Route("find", "country", null)).getName());
+        for (int i = 0; i < 1000; i++) {
+            filter.getBulkhead(new Route("find", "e" + i, null));
+        }
+        assertEquals(4, registry.getMeters().size());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        final boolean[] rejected = new boolean[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                Gauge<Integer> inFlight = (Gauge<Integer>) registry.getGauges().get("api.bulkhead.country.find.inFlight");
+                assertEquals(Integer.valueOf(1), inFlight.getValue());
+
+                // A second request while the first one is running
+                HttpServletResponse second = org.mockito.Mockito.mock(HttpServletResponse.class);
+                when(second.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+                FilterChain secondChain = org.mockito.Mockito.mock(FilterChain.class);
+                filter.doFilter(request, second, secondChain);
+                verify(secondChain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+                verify(second).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                verify(second).setHeader("Retry-After", "1");
+                rejected[0] = true;
+                return null;
+            }
+        }).when(chain).doFilter(request, response);
+
+        filter.doFilter(request, response, chain);
+
+        assertTrue(rejected[0]);
+        assertEquals(1, registry.meter("api.bulkhead.country.find.rejected").getCount());
+        assertEquals(0, filter.getBulkhead(new Route("find", "country", null)).getInFlight());
+    }
+
+    @Test
+    public void testAsyncReleasesOnComplete() throws Exception {
+        AsyncContext asyncContext = org.mockito.Mockito.mock(AsyncContext.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(asyncContext);
+
+        filter.doFilter(request, response, chain);
+
+        // The command is still running after the chain returns
+        Bulkhead find = filter.getBulkhead(new Route("find", "country", null));
+        assertEquals(1, find.getInFlight());
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+
+        listener.getValue().onTimeout(null);
+        listener.getValue().onComplete(null);
+        assertEquals(0, find.getInFlight());
+
+        // The permit is available again, and released only once
+        when(request.isAsyncStarted()).thenReturn(false);
+        filter.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(request, response);
+        assertEquals(0, find.getInFlight());
+    }
+
+    @Test
+    public void testUnlimited() throws Exception {
+        when(config.getInitParameter("maxConcurrent")).thenReturn(null);
+        filter = new BulkheadFilter(registry);
+        filter.init(config);
+        when(request.getRequestURI()).thenReturn("/rest/data/save/country/1.0.0");
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        assertFalse(registry.getGauges().containsKey("api.bulkhead.country.inFlight"));
+    }
+}
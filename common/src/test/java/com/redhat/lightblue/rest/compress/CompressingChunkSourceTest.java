@@ -0,0 +1,101 @@
+package com.redhat.lightblue.rest.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.redhat.lightblue.rest.util.NonBlockingOutput;
+
+public class CompressingChunkSourceTest {
+
+    private String started;
+    private boolean closed;
+
+    private NonBlockingOutput.ChunkSource source(String... chunks) {
+        final Deque<byte[]> queue = new ArrayDeque<>();
+        for (String chunk : chunks) {
+            queue.add(chunk.getBytes(StandardCharsets.UTF_8));
+        }
+        return new NonBlockingOutput.ChunkSource() {
+            @Override
+            public byte[] next() {
+                return queue.poll();
+            }
+
+            @Override
+            public void close(Throwable error) {
+                closed = true;
+            }
+        };
+    }
+
+    private byte[] drain(NonBlockingOutput.ChunkSource source) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk;
+        while ((chunk = source.next()) != null) {
+            out.write(chunk);
+        }
+        source.close(null);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void chunksAreGzipped() throws Exception {
+        CompressingChunkSource s = new CompressingChunkSource(source("{\"a\":1}", "{\"a\":2}"), "gzip", 6, e -> started = e);
+
+        byte[] compressed = drain(s);
+
+        assertEquals("gzip", started);
+        assertTrue(closed);
+        assertEquals("{\"a\":1}{\"a\":2}",
+                new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void firstChunkCanBeDecodedBeforeTheEnd() throws Exception {
+        CompressingChunkSource s = new CompressingChunkSource(source("first", "second"), "deflate", 6, e -> started = e);
+
+        byte[] first = s.next();
+
+        assertEquals("deflate", started);
+        byte[] decoded = new byte[5];
+        ByteStreams.readFully(new InflaterInputStream(new ByteArrayInputStream(first)), decoded);
+        assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), decoded);
+    }
+
+    @Test
+    public void emptySourceEndsTheCompressedData() throws Exception {
+        CompressingChunkSource s = new CompressingChunkSource(source(), "gzip", 6, null);
+
+        byte[] compressed = drain(s);
+
+        assertEquals(0, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))).length);
+        assertNull(s.next());
+    }
+
+    @Test
+    public void closeBeforeTheEndClosesTheSource() throws Exception {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 'x');
+        CompressingChunkSource s = new CompressingChunkSource(source(new String(data, StandardCharsets.UTF_8), "more"), "deflate", 6, null);
+        s.next();
+
+        s.close(new RuntimeException("client gone"));
+
+        assertTrue(closed);
+        assertNull(s.next());
+    }
+}
@@ -0,0 +1,39 @@
+package com.redhat.lightblue.rest.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ContentEncodingsTest {
+
+    @Test
+    public void negotiate() {
+        assertNull(ContentEncodings.negotiate(null));
+        assertNull(ContentEncodings.negotiate(""));
+        assertNull(ContentEncodings.negotiate("identity"));
+        assertNull(ContentEncodings.negotiate("br"));
+        assertEquals("lzf", ContentEncodings.negotiate("lzf"));
+        assertEquals("gzip", ContentEncodings.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", ContentEncodings.negotiate("deflate"));
+    }
+
+    @Test
+    public void lzfPreferredForLzfClients() {
+        assertEquals("lzf", ContentEncodings.negotiate("gzip, deflate, lzf"));
+    }
+
+    @Test
+    public void quality() {
+        assertEquals("gzip", ContentEncodings.negotiate("lzf;q=0.5, gzip"));
+        assertEquals("deflate", ContentEncodings.negotiate("gzip;q=0, deflate;q=0.1"));
+        assertNull(ContentEncodings.negotiate("gzip;q=0"));
+    }
+
+    @Test
+    public void any() {
+        assertEquals("lzf", ContentEncodings.negotiate("*"));
+        assertEquals("gzip", ContentEncodings.negotiate("lzf;q=0, *"));
+        assertNull(ContentEncodings.negotiate("*;q=0"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.redhat.lightblue.rest.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class ThresholdCompressingOutputStreamTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private String started;
+
+    private ThresholdCompressingOutputStream stream(String encoding, int minSize) {
+        return new ThresholdCompressingOutputStream(out, encoding, new CompressionSettings(minSize, 9), e -> started = e);
+    }
+
+    @Test
+    public void smallOutputIsNotCompressed() throws Exception {
+        ThresholdCompressingOutputStream s = stream("gzip", 100);
+        s.write("small".getBytes(StandardCharsets.UTF_8));
+        s.finish();
+
+        assertFalse(s.isCompressing());
+        assertNull(started);
+        assertEquals("small", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void largeOutputIsGzipped() throws Exception {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 'a');
+        ThresholdCompressingOutputStream s = stream("gzip", 100);
+        for (int i = 0; i < data.length; i += 10) {
+            s.write(data, i, 10);
+        }
+        s.finish();
+
+        assertTrue(s.isCompressing());
+        assertEquals("gzip", started);
+        assertTrue(out.size() < data.length);
+        assertArrayEquals(data, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    public void largeOutputIsDeflated() throws Exception {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) 'b');
+        ThresholdCompressingOutputStream s = stream("deflate", 100);
+        s.write(data);
+        s.finish();
+
+        assertEquals("deflate", started);
+        assertArrayEquals(data, ByteStreams.toByteArray(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    public void flushStartsCompression() throws Exception {
+        ThresholdCompressingOutputStream s = stream("gzip", 100);
+        s.write("header".getBytes(StandardCharsets.UTF_8));
+        s.flush();
+        assertEquals("gzip", started);
+        s.write("body".getBytes(StandardCharsets.UTF_8));
+        s.finish();
+
+        assertEquals("headerbody",
+                new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void finishDoesNotCloseUnderlyingStream() throws Exception {
+        final boolean[] closed = new boolean[1];
+        ByteArrayOutputStream target = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ThresholdCompressingOutputStream s = new ThresholdCompressingOutputStream(target, "gzip", new CompressionSettings(1, 6), e -> {
+        });
+        s.write(new byte[10]);
+        s.finish();
+        assertFalse(closed[0]);
+    }
+}
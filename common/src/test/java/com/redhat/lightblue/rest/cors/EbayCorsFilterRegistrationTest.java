@@ -37,6 +37,15 @@ public class EbayCorsFilterRegistrationTest {
         verify(mockContext).addFilter("cors", CORSFilter.class);
     }
 
+    @Test
+    public void shouldSupportAsyncRequests() {
+        CorsConfiguration config = new CorsConfiguration.Builder().build();
+
+        registration.register(mockContext, config);
+
+        verify(mockFilterReg).setAsyncSupported(true);
+    }
+
     @Test
     public void shouldSetCorrectInitParametersForConfiguration() {
         CorsConfiguration config = new CorsConfiguration.Builder()
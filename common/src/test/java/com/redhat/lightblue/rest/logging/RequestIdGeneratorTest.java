@@ -0,0 +1,62 @@
+package com.redhat.lightblue.rest.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class RequestIdGeneratorTest {
+
+    @Test
+    public void testFormat() {
+        String id = RequestIdGenerator.next();
+        assertEquals(32, id.length());
+        assertTrue(id, id.matches("[0-9a-f]{32}"));
+        assertTrue(LoggingFilter.isValidRequestID(id));
+    }
+
+    @Test
+    public void testTimeOrdered() {
+        String earlier = RequestIdGenerator.next(1000L);
+        String later = RequestIdGenerator.next(1001L);
+        assertTrue(earlier.compareTo(later) < 0);
+        assertEquals("0000000003e8", earlier.substring(0, 12));
+    }
+
+    @Test
+    public void testUniqueInSameMillisecond() {
+        assertNotEquals(RequestIdGenerator.next(1000L), RequestIdGenerator.next(1000L));
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final int threads = 8;
+        final int perThread = 10000;
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    ids.add(RequestIdGenerator.next(1000L));
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, ids.size());
+    }
+}
@@ -1,11 +1,14 @@
 package com.redhat.lightblue.rest.logging;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.List;
 
@@ -19,6 +22,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.redhat.lightblue.rest.util.Route;
+import com.redhat.lightblue.rest.util.RouteClassifier;
+
 @RunWith(MockitoJUnitRunner.class)
 public class TestLoggingFilter {
 
@@ -67,4 +73,53 @@ public class TestLoggingFilter {
         assertNotEquals(values.get(0), values.get(1));
     }
 
+    @Test
+    public void testRequest_SetAttribute_Route() throws Exception {
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getContextPath()).thenReturn("/rest/data");
+        when(request.getRequestURI()).thenReturn("/rest/data/find/country/1.0.0");
+        ArgumentCaptor<Object> captureRoute = ArgumentCaptor.forClass(Object.class);
+
+        new LoggingFilter().doFilter(request, response, chain);
+
+        //The route is kept in the request for the other filters
+        verify(request).setAttribute(startsWith(RouteClassifier.class.getName()), captureRoute.capture());
+        Route route = (Route) captureRoute.getValue();
+        assertEquals("find", route.getOperation());
+        assertEquals("country", route.getEntity());
+        assertEquals("1.0.0", route.getVersion());
+    }
+
+    @Test
+    public void testRequest_ReuseInboundRequestID() throws Exception {
+        when(request.getHeader(LoggingFilter.HEADER_REQUEST_ID)).thenReturn("caller-42");
+
+        new LoggingFilter().doFilter(request, response, chain);
+
+        verify(request).setAttribute(LoggingFilter.HEADER_REQUEST_ID, "caller-42");
+        verify(response).setHeader(LoggingFilter.HEADER_REQUEST_ID, "caller-42");
+    }
+
+    @Test
+    public void testRequest_ReuseInboundXRequestID() throws Exception {
+        when(request.getHeader(LoggingFilter.HEADER_X_REQUEST_ID)).thenReturn(" 7f3c9a1e-proxy ");
+
+        new LoggingFilter().doFilter(request, response, chain);
+
+        verify(request).setAttribute(LoggingFilter.HEADER_REQUEST_ID, "7f3c9a1e-proxy");
+    }
+
+    @Test
+    public void testRequest_IgnoreInvalidInboundRequestID() throws Exception {
+        ArgumentCaptor<String> captureID = ArgumentCaptor.forClass(String.class);
+        when(request.getHeader(LoggingFilter.HEADER_REQUEST_ID)).thenReturn("bad\nid");
+
+        new LoggingFilter().doFilter(request, response, chain);
+
+        verify(request).setAttribute(eq(LoggingFilter.HEADER_REQUEST_ID), captureID.capture());
+        assertEquals(32, captureID.getValue().length());
+        assertFalse(LoggingFilter.isValidRequestID(new String(new char[LoggingFilter.MAX_REQUEST_ID_LENGTH + 1]).replace('\0', 'a')));
+        assertFalse(LoggingFilter.isValidRequestID(""));
+    }
+
 }
@@ -0,0 +1,97 @@
+package com.redhat.lightblue.rest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+
+public class LatencyHistogramsTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(60);
+
+    @Test
+    public void testRecordByOperationAndEntity() {
+        LatencyHistograms histograms = new LatencyHistograms(WINDOW, 100);
+        for (int i = 1; i <= 1000; i++) {
+            histograms.record("find", "country", TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        histograms.record("find", null, TimeUnit.MILLISECONDS.toNanos(5));
+        histograms.record("bulk", null, TimeUnit.MILLISECONDS.toNanos(5));
+
+        List<LatencyHistograms.Series> series = histograms.getSeries();
+        assertEquals(3, series.size());
+        assertEquals("bulk", series.get(0).getOperation());
+        assertEquals("", series.get(1).getEntity());
+        LatencyHistograms.Series country = series.get(2);
+        assertEquals("country", country.getEntity());
+        assertEquals(1000, country.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(500500), country.getSumNanos());
+
+        Histogram snapshot = country.snapshot();
+        assertEquals(1000, snapshot.getTotalCount());
+        assertEquals(500, snapshot.getValueAtPercentile(50), 5);
+        assertEquals(990, snapshot.getValueAtPercentile(99), 10);
+        assertEquals(1000, snapshot.getMaxValue(), 10);
+    }
+
+    @Test
+    public void testMaxSeries() {
+        LatencyHistograms histograms = new LatencyHistograms(WINDOW, 2);
+        histograms.record("find", "a", 1000);
+        histograms.record("find", "b", 1000);
+        histograms.record("find", "c", 1000);
+        histograms.record("find", "d", 1000);
+
+        List<LatencyHistograms.Series> series = histograms.getSeries();
+        assertEquals(3, series.size());
+        assertEquals(LatencyHistograms.OTHER, series.get(0).getEntity());
+        assertEquals(2, series.get(0).getCount());
+    }
+
+    @Test
+    public void testWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(100, 0);
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(1, histogram.snapshot(50).getTotalCount());
+        // Rotated: the values are in the previous window
+        assertEquals(1, histogram.snapshot(100).getTotalCount());
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(2, histogram.snapshot(150).getTotalCount());
+        // Rotated again: the first value is dropped
+        Histogram snapshot = histogram.snapshot(200);
+        assertEquals(1, snapshot.getTotalCount());
+        assertTrue(snapshot.getMinValue() >= 19000);
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistograms histograms = new LatencyHistograms(WINDOW, 100);
+        histograms.record("find", "country", 1000);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    histograms.record("find", "country", 1000);
+                }
+            });
+            threads[i].start();
+        }
+        long snapshots = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                histograms.getSeries().get(0).snapshot();
+                snapshots++;
+                thread.join(1);
+            }
+        }
+        LatencyHistograms.Series series = histograms.getSeries().get(0);
+        assertEquals(40001, series.getCount());
+        assertEquals(40001, series.snapshot().getTotalCount());
+        assertTrue(snapshots > 0);
+    }
+}
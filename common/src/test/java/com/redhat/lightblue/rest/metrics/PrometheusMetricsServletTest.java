@@ -0,0 +1,73 @@
+package com.redhat.lightblue.rest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class PrometheusMetricsServletTest {
+
+    @Test
+    public void testWriteLatencies() {
+        LatencyHistograms histograms = new LatencyHistograms(TimeUnit.SECONDS.toNanos(60), 100);
+        histograms.record("find", "country", TimeUnit.MILLISECONDS.toNanos(10));
+        histograms.record("find", "country", TimeUnit.MILLISECONDS.toNanos(30));
+        histograms.record("bulk", null, TimeUnit.MILLISECONDS.toNanos(5));
+
+        StringBuilder out = new StringBuilder();
+        PrometheusMetricsServlet.writeLatencies(out, histograms.getSeries());
+        String text = out.toString();
+
+        assertTrue(text, text.startsWith("# HELP lightblue_request_latency_seconds "));
+        assertTrue(text, text.contains("# TYPE lightblue_request_latency_seconds summary\n"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds{operation=\"find\",entity=\"country\",quantile=\"0.5\"} 0.01"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds{operation=\"find\",entity=\"country\",quantile=\"0.999\"} 0.03"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds_sum{operation=\"find\",entity=\"country\"} 0.04\n"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds_count{operation=\"find\",entity=\"country\"} 2\n"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds_count{operation=\"bulk\",entity=\"\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE lightblue_request_latency_seconds_max gauge\n"));
+        assertTrue(text, text.contains("lightblue_request_latency_seconds_max{operation=\"find\",entity=\"country\"} 0.03"));
+        // The lines of a metric are grouped
+        assertTrue(text.indexOf("_max{operation=\"bulk\"") > text.lastIndexOf("_count{"));
+    }
+
+    @Test
+    public void testWriteLatenciesEscapesLabels() {
+        LatencyHistograms histograms = new LatencyHistograms(TimeUnit.SECONDS.toNanos(60), 100);
+        histograms.record("find", "a\"b\\c", 1000);
+        StringBuilder out = new StringBuilder();
+        PrometheusMetricsServlet.writeLatencies(out, histograms.getSeries());
+        assertTrue(out.toString(), out.toString().contains("entity=\"a\\\"b\\\\c\""));
+    }
+
+    @Test
+    public void testWriteRegistry() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("api.find.active").inc(3);
+        registry.meter("api.deadline.expired").mark(2);
+        registry.register("api.executor.read.queued", (Gauge<Integer>) () -> 7);
+        registry.register("api.name", (Gauge<String>) () -> "skip");
+        registry.timer("api.find.latency").update(20, TimeUnit.MILLISECONDS);
+
+        StringBuilder out = new StringBuilder();
+        PrometheusMetricsServlet.writeRegistry(out, registry);
+        String text = out.toString();
+
+        assertTrue(text, text.contains("# TYPE lightblue_api_find_active gauge\nlightblue_api_find_active 3\n"));
+        assertTrue(text, text.contains("# TYPE lightblue_api_deadline_expired_total counter\nlightblue_api_deadline_expired_total 2\n"));
+        assertTrue(text, text.contains("lightblue_api_executor_read_queued 7.0\n"));
+        assertTrue(text, !text.contains("lightblue_api_name"));
+        assertTrue(text, text.contains("lightblue_api_find_latency_seconds{quantile=\"0.5\"} 0.02\n"));
+        assertTrue(text, text.contains("lightblue_api_find_latency_seconds_count 1\n"));
+    }
+
+    @Test
+    public void testName() {
+        assertEquals("lightblue_api_bulkhead_country_find_inFlight", PrometheusMetricsServlet.name("api.bulkhead.country-find.inFlight"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.redhat.lightblue.rest.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.Principal;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.codahale.metrics.MetricRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RateLimitFilterTest {
+
+    @Mock
+    private FilterConfig config;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+    @Mock
+    private FilterChain chain;
+
+    private MetricRegistry registry;
+    private RateLimitFilter filter;
+    private StringWriter body;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new MetricRegistry();
+        filter = new RateLimitFilter(registry);
+        when(config.getInitParameter(RateLimitFilter.CONFIGURATION_RESOURCE_PARAM)).thenReturn("rateLimitConfig.json");
+        filter.init(config);
+
+        when(request.getContextPath()).thenReturn("/rest/data");
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+        body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+    }
+
+    private void as(final String principal, String uri) {
+        when(request.getUserPrincipal()).thenReturn(principal == null ? null : new Principal() {
+            @Override
+            public String getName() {
+                return principal;
+            }
+        });
+        when(request.getRequestURI()).thenReturn("/rest/data" + uri);
+    }
+
+    @Test
+    public void testPerOperationRule() throws Exception {
+        as("batch", "/find/country/1.0.0");
+        filter.doFilter(request, response, chain);
+        verify(response).setHeader(RateLimitFilter.HEADER_LIMIT, "1");
+        verify(response).setHeader(RateLimitFilter.HEADER_REMAINING, "0");
+
+        // The bucket of find is empty, the bucket of update is not
+        as("batch", "/update/country/1.0.0");
+        filter.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(request, response);
+
+        as("batch", "/find/country");
+        filter.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(request, response);
+        verify(response).setStatus(RateLimitFilter.SC_TOO_MANY_REQUESTS);
+        verify(response).setHeader("Retry-After", "1000");
+        assertEquals(1, registry.meter("api.ratelimit.rejected").getCount());
+    }
+
+    @Test
+    public void testDefaultRuleByRemoteAddress() throws Exception {
+        as(null, "/find/user/1.0.0");
+        filter.doFilter(request, response, chain);
+        filter.doFilter(request, response, chain);
+        verify(chain, times(2)).doFilter(request, response);
+        verify(response).setHeader(RateLimitFilter.HEADER_REMAINING, "1");
+        verify(response, never()).setStatus(RateLimitFilter.SC_TOO_MANY_REQUESTS);
+
+        filter.doFilter(request, response, chain);
+        verify(response).setStatus(RateLimitFilter.SC_TOO_MANY_REQUESTS);
+    }
+
+    @Test
+    public void testRuleOrder() {
+        RateLimitConfiguration cfg = new RateLimitConfiguration.Builder()
+                .rule(new RateLimitConfiguration.Rule("batch", "country", "*", 1, 1, false, false))
+                .rule(new RateLimitConfiguration.Rule("batch", null, null, 5, 1, false, false))
+                .build();
+        assertEquals(1, cfg.getRule("batch", "country", "find").getCapacity());
+        assertEquals(5, cfg.getRule("batch", "user", "find").getCapacity());
+        assertNull(cfg.getRule("other", "country", "find"));
+    }
+
+    @Test
+    public void testNotCrudRequest() throws Exception {
+        as(null, "/health");
+        for (int i = 0; i < 5; i++) {
+            filter.doFilter(request, response, chain);
+        }
+        verify(chain, times(5)).doFilter(request, response);
+        verify(response, never()).setHeader(RateLimitFilter.HEADER_LIMIT, "2");
+    }
+}
@@ -0,0 +1,50 @@
+package com.redhat.lightblue.rest.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenReject() {
+        TokenBucket bucket = new TokenBucket(3, 1, 0);
+        for (int i = 2; i >= 0; i--) {
+            TokenBucket.Result r = bucket.tryConsume(0);
+            assertTrue(r.isAllowed());
+            assertEquals(i, r.getRemaining());
+        }
+        TokenBucket.Result r = bucket.tryConsume(0);
+        assertFalse(r.isAllowed());
+        assertEquals(0, r.getRemaining());
+        assertEquals(SECOND, r.getWaitNanos());
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(2, 2, 0);
+        assertTrue(bucket.tryConsume(0).isAllowed());
+        assertTrue(bucket.tryConsume(0).isAllowed());
+        assertFalse(bucket.tryConsume(0).isAllowed());
+
+        // One token every half second
+        assertTrue(bucket.tryConsume(SECOND / 2).isAllowed());
+        assertFalse(bucket.tryConsume(SECOND / 2).isAllowed());
+
+        // Never more than capacity tokens
+        assertEquals(1, bucket.tryConsume(100 * SECOND).getRemaining());
+        assertEquals(0, bucket.tryConsume(100 * SECOND).getRemaining());
+        assertFalse(bucket.tryConsume(100 * SECOND).isAllowed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new TokenBucket(1, 0, 0);
+    }
+}
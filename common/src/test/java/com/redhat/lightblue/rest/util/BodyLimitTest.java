@@ -0,0 +1,65 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.io.ByteStreams;
+import com.redhat.lightblue.rest.HttpErrorMapper;
+import com.redhat.lightblue.util.Error;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BodyLimitTest {
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Test
+    public void readsBodyWithinLimit() throws Exception {
+        InputStream in = BodyLimit.limit(new ByteArrayInputStream(new byte[10]), 10);
+        assertEquals(10, ByteStreams.toByteArray(in).length);
+    }
+
+    @Test
+    public void failsBodyOverLimit() throws Exception {
+        InputStream in = BodyLimit.limit(new ByteArrayInputStream(new byte[11]), 10);
+        try {
+            ByteStreams.toByteArray(in);
+            fail();
+        } catch (Error e) {
+            assertEquals(BodyLimit.ERR_REQUEST_TOO_LARGE, e.getErrorCode());
+            assertEquals(Response.Status.BAD_REQUEST, HttpErrorMapper.getStatus(e));
+        }
+    }
+
+    @Test
+    public void noLimit() {
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        assertSame(in, BodyLimit.limit(in, 0));
+    }
+
+    @Test
+    public void exceedsContentLength() {
+        when(request.getContentLength()).thenReturn(11);
+        assertTrue(BodyLimit.exceeds(request, 10));
+        assertFalse(BodyLimit.exceeds(request, 11));
+        assertFalse(BodyLimit.exceeds(request, 0));
+
+        when(request.getContentLength()).thenReturn(-1);
+        assertFalse(BodyLimit.exceeds(request, 10));
+    }
+}
@@ -0,0 +1,75 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeadlineTest {
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Test
+    public void testNoHeaders() {
+        assertSame(Deadline.NONE, Deadline.of(request));
+        assertSame(Deadline.NONE, Deadline.of(null));
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remainingMillis());
+    }
+
+    @Test
+    public void testDeadlineHeader() {
+        when(request.getHeader(Deadline.DEADLINE_HEADER)).thenReturn("1000");
+        Deadline deadline = Deadline.of(request);
+        assertEquals(1000, deadline.getTime());
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMillis());
+    }
+
+    @Test
+    public void testTimeoutHeader() {
+        when(request.getHeader(Deadline.TIMEOUT_HEADER)).thenReturn("60000");
+        Deadline deadline = Deadline.of(request);
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remainingMillis() > 50000);
+    }
+
+    @Test
+    public void testEarlierWins() {
+        when(request.getHeader(Deadline.DEADLINE_HEADER)).thenReturn("1000");
+        when(request.getHeader(Deadline.TIMEOUT_HEADER)).thenReturn("60000");
+        assertEquals(1000, Deadline.of(request).getTime());
+    }
+
+    @Test
+    public void testInvalidHeader() {
+        when(request.getHeader(Deadline.DEADLINE_HEADER)).thenReturn("tomorrow");
+        assertSame(Deadline.NONE, Deadline.of(request));
+    }
+
+    @Test
+    public void testNegativeHeaderIgnored() {
+        when(request.getHeader(Deadline.TIMEOUT_HEADER)).thenReturn("-1000");
+        assertSame(Deadline.NONE, Deadline.of(request));
+        when(request.getHeader(Deadline.DEADLINE_HEADER)).thenReturn("-1");
+        assertSame(Deadline.NONE, Deadline.of(request));
+    }
+
+    @Test
+    public void testHugeTimeoutDoesNotOverflow() {
+        when(request.getHeader(Deadline.TIMEOUT_HEADER)).thenReturn(Long.toString(Long.MAX_VALUE - 1));
+        Deadline deadline = Deadline.of(request);
+        assertSame(Deadline.NONE, deadline);
+        assertFalse(deadline.isExpired());
+    }
+}
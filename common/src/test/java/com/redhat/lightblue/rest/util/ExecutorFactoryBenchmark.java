@@ -0,0 +1,78 @@
+package com.redhat.lightblue.rest.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the platform thread and virtual thread executors running
+ * commands that block on a slow backend. Each request sleeps for the
+ * backend latency, and the benchmark reports the time to complete all
+ * requests, the throughput, and the number of rejected requests.
+ *
+ * Not run as part of the build. Run it with:
+ *
+ * <pre>
+ * java -cp ... com.redhat.lightblue.rest.util.ExecutorFactoryBenchmark [requests] [backendMillis] [threads] [queueSize]
+ * </pre>
+ *
+ * The defaults are 20000 requests, 50ms backend latency, 32 threads and
+ * a queue of 20000, so no request is rejected. The virtual thread mode
+ * is skipped when the JVM does not support virtual threads.
+ */
+public class ExecutorFactoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long backendMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int queueSize = args.length > 3 ? Integer.parseInt(args[3]) : requests;
+
+        System.out.printf("requests=%d backend=%dms threads=%d queueSize=%d%n", requests, backendMillis, threads, queueSize);
+
+        // Warm up both modes before measuring
+        run("platform", ExecutorFactory.newPlatformThreadExecutor("bench", threads, queueSize), Math.min(requests, 1000), 1, false);
+        if (ExecutorFactory.isVirtualThreadsSupported()) {
+            run("virtual", ExecutorFactory.newVirtualThreadExecutor("bench", new AtomicInteger()), Math.min(requests, 1000), 1, false);
+        }
+
+        run("platform", ExecutorFactory.newPlatformThreadExecutor("bench", threads, queueSize), requests, backendMillis, true);
+        if (ExecutorFactory.isVirtualThreadsSupported()) {
+            run("virtual", ExecutorFactory.newVirtualThreadExecutor("bench", new AtomicInteger()), requests, backendMillis, true);
+        } else {
+            System.out.println("virtual: not supported by this JVM");
+        }
+    }
+
+    private static void run(String mode, ExecutorService executor, int requests, long backendMillis, boolean print)
+            throws Exception {
+        int rejected = 0;
+        List<Future<?>> futures = new ArrayList<>(requests);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            try {
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(backendMillis);
+                    return null;
+                }));
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        if (print) {
+            double seconds = elapsed / 1e9;
+            System.out.printf("%s: completed=%d rejected=%d time=%.2fs throughput=%.0f req/s%n",
+                    mode, futures.size(), rejected, seconds, futures.size() / seconds);
+        }
+    }
+}
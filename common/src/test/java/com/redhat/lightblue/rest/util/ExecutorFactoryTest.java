@@ -0,0 +1,147 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ExecutorFactoryTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty(ExecutorFactory.VIRTUAL_THREADS_PROPERTY);
+    }
+
+    @Test
+    public void platformThreadsByDefault() throws Exception {
+        ExecutorService executor = ExecutorFactory.newExecutor("test", 2, 4);
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor);
+            String name = executor.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+            assertTrue(name, name.startsWith("lightblue-test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void platformThreadsRejectWhenQueueIsFull() throws Exception {
+        ThreadPoolExecutor executor = ExecutorFactory.newPlatformThreadExecutor("test", 1, 1);
+        Object lock = new Object();
+        try {
+            synchronized (lock) {
+                for (int i = 0; i < 3; i++) {
+                    executor.execute(() -> {
+                        synchronized (lock) {
+                        }
+                    });
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualThreadsWhenEnabled() throws Exception {
+        assumeTrue(ExecutorFactory.isVirtualThreadsSupported());
+        System.setProperty(ExecutorFactory.VIRTUAL_THREADS_PROPERTY, "true");
+        assertTrue(ExecutorFactory.isVirtualThreadsEnabled());
+
+        ExecutorService executor = ExecutorFactory.newExecutor("test", 1, 1);
+        try {
+            assertFalse(executor instanceof ThreadPoolExecutor);
+            String name = executor.submit(() -> Thread.currentThread().getName()).get(10, TimeUnit.SECONDS);
+            assertTrue(name, name.startsWith("lightblue-test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualThreadsCountRunningTasks() throws Exception {
+        assumeTrue(ExecutorFactory.isVirtualThreadsSupported());
+        AtomicInteger running = new AtomicInteger();
+        ExecutorService executor = ExecutorFactory.newVirtualThreadExecutor("test", running);
+        try {
+            Callable<Integer> task = running::get;
+            assertEquals(Integer.valueOf(1), executor.submit(task).get(10, TimeUnit.SECONDS));
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void boundedRejectsBeyondMaxTasks() throws Exception {
+        ExecutorService executor = ExecutorFactory.bounded(Executors.newCachedThreadPool(), 2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> await(release));
+            executor.execute(() -> await(release));
+            try {
+                executor.execute(() -> { });
+                fail("expected rejection");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            release.countDown();
+            // The permits are released when the tasks complete
+            long end = System.currentTimeMillis() + 10000;
+            while (true) {
+                try {
+                    executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    assertTrue(System.currentTimeMillis() < end);
+                    Thread.sleep(1);
+                }
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualThreadsAreBounded() throws Exception {
+        assumeTrue(ExecutorFactory.isVirtualThreadsSupported());
+        System.setProperty(ExecutorFactory.VIRTUAL_THREADS_PROPERTY, "true");
+        ExecutorService executor = ExecutorFactory.newExecutor("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> await(release));
+            executor.execute(() -> await(release));
+            executor.execute(() -> { });
+            fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class NonBlockingInputTest {
+
+    @Test
+    public void testInitialSize() {
+        assertEquals(8192, NonBlockingInput.initialSize(-1, 0));
+        assertEquals(100, NonBlockingInput.initialSize(100, 0));
+        // The Content-Length is not trusted for a large buffer
+        assertEquals(NonBlockingInput.MAX_INITIAL_SIZE, NonBlockingInput.initialSize(Integer.MAX_VALUE, 0));
+        assertEquals(NonBlockingInput.MAX_INITIAL_SIZE, NonBlockingInput.initialSize(Integer.MAX_VALUE, 1L << 30));
+        assertEquals(101, NonBlockingInput.initialSize(1000, 100));
+    }
+
+    @Test
+    public void testBufferReadsWrittenBytes() throws Exception {
+        NonBlockingInput.Buffer buffer = new NonBlockingInput.Buffer(16);
+        buffer.write("body".getBytes(StandardCharsets.UTF_8));
+        InputStream in = buffer.toInputStream();
+        assertEquals("body", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,48 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NonBlockingOutputTest {
+
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+
+    @Test
+    public void supportedWithServletApi() {
+        boolean hasWriteListener;
+        try {
+            ServletOutputStream.class.getMethod("isReady");
+            hasWriteListener = true;
+        } catch (NoSuchMethodException e) {
+            hasWriteListener = false;
+        }
+        assertEquals(hasWriteListener, NonBlockingOutput.isSupported());
+    }
+
+    @Test
+    public void notAvailableForSyncRequest() {
+        when(request.isAsyncStarted()).thenReturn(false);
+        assertFalse(NonBlockingOutput.isAvailable(request));
+        assertFalse(NonBlockingOutput.isAvailable(null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeFailsWhenNotAvailable() throws Exception {
+        when(request.isAsyncStarted()).thenReturn(false);
+        NonBlockingOutput.write(request, response, null);
+    }
+}
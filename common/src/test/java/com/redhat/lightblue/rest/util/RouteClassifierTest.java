@@ -0,0 +1,116 @@
+package com.redhat.lightblue.rest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+public class RouteClassifierTest {
+
+    private static void assertRoute(String operation, String template, String entity, String version, Route route) {
+        assertEquals(operation, route.getOperation());
+        assertEquals(template, route.getTemplate());
+        assertEquals(entity, route.getEntity());
+        assertEquals(version, route.getVersion());
+    }
+
+    @Test
+    public void testEntityOperations() {
+        RouteClassifier crud = RouteClassifier.CRUD;
+        assertRoute("find", "POST /find/{entity}/{version}", "country", "1.0.0", crud.classify("POST", "/find/country/1.0.0"));
+        assertRoute("find", "GET /find/{entity}", "country", null, crud.classify("GET", "/find/country"));
+        assertRoute("find", "GET /find/{entity}", "country", null, crud.classify("GET", "/find/country/"));
+        assertRoute("insert", "PUT /insert/{entity}/{version}/stream", "country", "1.0.0", crud.classify("PUT", "//insert/country/1.0.0/stream"));
+        assertRoute("search", "GET /search/{entity}/{version}/{searchName}", "country", "1.0.0", crud.classify("GET", "/search/country/1.0.0/test"));
+        assertRoute("search", "GET /search/{entity}/{searchName}", "country", null, crud.classify("GET", "/search/country/test"));
+        assertRoute("bulk", "POST /bulk/stream", null, null, crud.classify("POST", "/bulk/stream"));
+    }
+
+    @Test
+    public void testVersionIsOneSegment() {
+        // The versioned route does not take the rest of the path as the version
+        assertNull(RouteClassifier.CRUD.classify("GET", "/find/country/1.0.0/extra"));
+        assertNull(RouteClassifier.CRUD.classify("POST", "/save/country/1.0.0/extra"));
+    }
+
+    @Test
+    public void testInsertAlt() {
+        assertRoute("insert", "PUT /{entity}/{version}", "country", "1.0.0", RouteClassifier.CRUD.classify("PUT", "/country/1.0.0"));
+        assertRoute("insert", "PUT /{entity}", "country", null, RouteClassifier.CRUD.classify("PUT", "/country"));
+        assertRoute("insert", "PUT /insert/{entity}", "country", null, RouteClassifier.CRUD.classify("PUT", "/insert/country"));
+    }
+
+    @Test
+    public void testNotCrud() {
+        assertNull(RouteClassifier.CRUD.classify("GET", "/health"));
+        assertNull(RouteClassifier.CRUD.classify("PUT", "/lock/domain/caller/resource"));
+        assertNull(RouteClassifier.CRUD.classify("GET", "/"));
+        assertNull(RouteClassifier.CRUD.classify("GET", "/find"));
+        assertNull(RouteClassifier.CRUD.classify("DELETE", "/find/country"));
+    }
+
+    @Test
+    public void testMetadata() {
+        RouteClassifier metadata = RouteClassifier.METADATA;
+        assertRoute("getDepGraph", "GET /dependencies", null, null, metadata.classify("GET", "/dependencies"));
+        assertRoute("getDepGraph", "GET /{entity}/{version}/dependencies", "country", "1.0.0", metadata.classify("GET", "/country/1.0.0/dependencies"));
+        assertRoute("getEntityNames", "GET /", null, null, metadata.classify("GET", "/"));
+        assertRoute("getEntityNames", "GET /", null, null, metadata.classify("GET", ""));
+        assertEquals("active", metadata.classify("GET", "/s=active").getStatus());
+        assertRoute("getEntityVersions", "GET /{entity}", "country", null, metadata.classify("GET", "/country"));
+        assertRoute("createSchema", "PUT /{entity}/schema={version}", "country", "1.0.0", metadata.classify("PUT", "/country/schema=1.0.0"));
+        assertRoute("createMetadata", "PUT /{entity}/{version}", "country", "1.0.0", metadata.classify("PUT", "/country/1.0.0"));
+        assertRoute("setDefaultVersion", "POST /{entity}/{version}/default", "country", "1.0.0", metadata.classify("POST", "/country/1.0.0/default"));
+        assertRoute("clearDefaultVersion", "DELETE /{entity}/default", "country", null, metadata.classify("DELETE", "/country/default"));
+    }
+
+    @Test
+    public void testMethodSelectsBranch() {
+        // default is a literal for POST, and a status for PUT
+        Route route = RouteClassifier.METADATA.classify("PUT", "/country/1.0.0/default");
+        assertRoute("updateSchemaStatus", "PUT /{entity}/{version}/{status}", "country", "1.0.0", route);
+        assertEquals("default", route.getStatus());
+        // roles is an entity for PUT
+        assertRoute("updateEntityInfo", "PUT /{entity}", "roles", null, RouteClassifier.METADATA.classify("PUT", "/roles"));
+    }
+
+    @Test
+    public void testForContextPath() {
+        assertSame(RouteClassifier.CRUD, RouteClassifier.forContextPath("/rest/data"));
+        assertSame(RouteClassifier.CRUD, RouteClassifier.forContextPath("/data/"));
+        assertSame(RouteClassifier.METADATA, RouteClassifier.forContextPath("/rest/metadata"));
+        assertNull(RouteClassifier.forContextPath("/dataX"));
+        assertNull(RouteClassifier.forContextPath("/rest/mydata"));
+        assertNull(RouteClassifier.forContextPath(""));
+        assertNull(RouteClassifier.forContextPath(null));
+    }
+
+    @Test
+    public void testRequestIsClassifiedOnce() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getContextPath()).thenReturn("/rest/data");
+        when(request.getRequestURI()).thenReturn("/rest/data/find/country");
+
+        Route route = RouteClassifier.CRUD.classify(request);
+        assertRoute("find", "POST /find/{entity}", "country", null, route);
+
+        ArgumentCaptor<Object> stored = ArgumentCaptor.forClass(Object.class);
+        verify(request).setAttribute(Matchers.anyString(), stored.capture());
+        assertSame(route, stored.getValue());
+
+        HttpServletRequest classified = mock(HttpServletRequest.class);
+        when(classified.getAttribute(Matchers.anyString())).thenReturn(route);
+        assertSame(route, RouteClassifier.CRUD.classify(classified));
+        verify(classified, never()).getRequestURI();
+    }
+}
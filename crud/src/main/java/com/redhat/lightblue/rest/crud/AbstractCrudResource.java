@@ -18,6 +18,7 @@
  */
 package com.redhat.lightblue.rest.crud;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.NullNode;
@@ -31,10 +32,17 @@ import com.redhat.lightblue.query.Sort;
 import com.redhat.lightblue.query.SortKey;
 import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.RestConfiguration;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.compress.CompressingChunkSource;
+import com.redhat.lightblue.rest.compress.CompressionGroup;
+import com.redhat.lightblue.rest.compress.CompressionSettings;
+import com.redhat.lightblue.rest.compress.ContentEncodings;
+import com.redhat.lightblue.rest.crud.cmd.AbstractRestCommand;
 import com.redhat.lightblue.rest.crud.cmd.AcquireCommand;
 import com.redhat.lightblue.rest.crud.cmd.BulkRequestCommand;
 import com.redhat.lightblue.rest.crud.cmd.CheckDiagnosticsCommand;
 import com.redhat.lightblue.rest.crud.cmd.CheckHealthCommand;
+import com.redhat.lightblue.rest.crud.cmd.CommandLimiter;
 import com.redhat.lightblue.rest.crud.cmd.DeleteCommand;
 import com.redhat.lightblue.rest.crud.cmd.ExplainCommand;
 import com.redhat.lightblue.rest.crud.cmd.FindCommand;
@@ -45,8 +53,13 @@ import com.redhat.lightblue.rest.crud.cmd.LockPingCommand;
 import com.redhat.lightblue.rest.crud.cmd.ReleaseCommand;
 import com.redhat.lightblue.rest.crud.cmd.RunSavedSearchCommand;
 import com.redhat.lightblue.rest.crud.cmd.SaveCommand;
+import com.redhat.lightblue.rest.crud.cmd.StreamingBulkRequestCommand;
+import com.redhat.lightblue.rest.crud.cmd.StreamingInsertCommand;
 import com.redhat.lightblue.rest.crud.cmd.UpdateCommand;
 import com.redhat.lightblue.rest.crud.health.CrudCheckRegistry;
+import com.redhat.lightblue.rest.util.BodyLimit;
+import com.redhat.lightblue.rest.util.NonBlockingInput;
+import com.redhat.lightblue.rest.util.NonBlockingOutput;
 import com.redhat.lightblue.rest.util.QueryTemplateUtils;
 import com.redhat.lightblue.util.Error;
 import com.redhat.lightblue.util.JsonUtils;
@@ -54,9 +67,14 @@ import com.redhat.lightblue.util.metrics.DropwizardRequestMetrics;
 import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
 import com.redhat.lightblue.util.metrics.RequestMetrics;
 import com.restcompress.provider.LZF;
+import org.jboss.resteasy.annotations.Suspend;
+import org.jboss.resteasy.spi.AsynchronousResponse;
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -67,14 +85,19 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.redhat.lightblue.rest.crud.cmd.AbstractLockCommand.getLockCommand;
 
@@ -84,8 +107,8 @@ import static com.redhat.lightblue.rest.crud.cmd.AbstractLockCommand.getLockComm
  * @author bserdar
  */
 //metadata/ prefix is the application context
-@Produces(MediaType.APPLICATION_JSON)
-@Consumes(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
+@Consumes({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
 public abstract class AbstractCrudResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCrudResource.class);
@@ -104,36 +127,90 @@ public abstract class AbstractCrudResource {
     private static final RequestMetrics METRICS =
             DropwizardRequestMetrics.withDefaultMBeans(MetricRegistryFactory.getJmxMetricRegistry());
 
+    /**
+     * If true, commands run on the executors of CommandExecutors instead
+     * of the container threads. This releases the container threads only
+     * if the container supports asynchronous requests.
+     */
+    private static final boolean ASYNC = Boolean.getBoolean("lightblue.rest.async");
+
+    /**
+     * Milliseconds after which RESTEasy times out a suspended request. An
+     * annotation value must be a constant, so this is the upper bound, and
+     * the timeout is configured with lightblue.rest.async.timeout. See
+     * {@link CommandResponses}.
+     */
+    private static final long ASYNC_TIMEOUT = 30 * 60 * 1000L;
+
+    /**
+     * If true, streaming finds are written with non-blocking output when
+     * the container supports it and the request is asynchronous. A slow
+     * client then does not hold a thread while it reads the results.
+     */
+    private static final boolean NON_BLOCKING_STREAM =
+            Boolean.parseBoolean(System.getProperty("lightblue.rest.find.stream.nonBlocking", "true"));
+
+    private static final Meter STREAM_FALLBACK = MetricRegistryFactory.getJmxMetricRegistry()
+            .meter("api.find.stream.blockingFallback");
+
+    /**
+     * If true, insert, save, update, delete and bulk request bodies are
+     * read with non-blocking input when the container supports it, the
+     * request is asynchronous, and MAX_BODY_BYTES is set. The command runs
+     * after the whole body is received, so a slow client does not hold a
+     * thread while it uploads the body.
+     */
+    private static final boolean NON_BLOCKING_BODY =
+            Boolean.parseBoolean(System.getProperty("lightblue.rest.request.nonBlocking", "true"));
+
+    /**
+     * Maximum size of insert, save, update, delete and bulk request
+     * bodies in bytes. 0 means the size is not limited. Bodies read with
+     * non-blocking input are buffered in memory, so they are only read
+     * that way when this is set.
+     */
+    private static final long MAX_BODY_BYTES = Long.getLong("lightblue.rest.request.maxBytes", 0);
+
     private static final HealthCheckRegistry healthCheckRegistry =
             CrudCheckRegistry.getHealthCheckRegistry(METRICS);
 
     private static final HealthCheckRegistry diagnosticsCheckRegistry =
             CrudCheckRegistry.getDiagnosticCheckRegistry();
 
+    /**
+     * Health and diagnostics run on the request thread, and not on the
+     * command executors, so that they still answer when the executors are
+     * saturated.
+     */
     @GET
     @LZF
+    @CompressionGroup("health")
     @Path("/health")
     public Response health() {
         Error.reset();
         CallStatus st = new CheckHealthCommand(healthCheckRegistry, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        return Response.status(st.getHttpStatus()).entity(st).build();
     }
 
     @GET
     @LZF
+    @CompressionGroup("health")
     @Path("/diagnostics")
     public Response diagnostics() {
         Error.reset();
         CallStatus st = new CheckDiagnosticsCommand(diagnosticsCheckRegistry, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        return Response.status(st.getHttpStatus()).entity(st).build();
     }
 
     @GET
     @LZF
+    @CompressionGroup("find")
     @Path("/search/{entity}")
-    public Response getSearchesForEntity(@PathParam("entity") String entity,
-                                         @QueryParam("P") String projection,
-                                         @QueryParam("S") String sort) {
+    public void getSearchesForEntity(@PathParam("entity") String entity,
+                                     @QueryParam("P") String projection,
+                                     @QueryParam("S") String sort,
+                                     @Context Request request,
+                                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         FindRequest freq=new FindRequest();
         freq.setEntityVersion(new EntityVersion(RestConfiguration.getSavedSearchCache().savedSearchEntity,
                                                 RestConfiguration.getSavedSearchCache().savedSearchVersion));
@@ -142,76 +219,88 @@ public abstract class AbstractCrudResource {
             freq.setProjection(projection==null?FieldProjection.ALL:Projection.fromJson(JsonUtils.json(QueryTemplateUtils.buildProjectionsTemplate(projection))));
             freq.setSort(sort==null?new SortKey(new com.redhat.lightblue.util.Path("name"),false):Sort.fromJson(JsonUtils.json(QueryTemplateUtils.buildSortsTemplate(sort))));
         } catch (Exception e) {
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.toString()).build();
+            response.setResponse(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.toString()).build());
+            return;
         }
-        CallStatus st=new FindCommand(freq.getEntityVersion().getEntity(),
-                                      freq.getEntityVersion().getVersion(),
-                                      freq.toJson().toString(), METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respondWithETag(response, new FindCommand(null, freq.getEntityVersion().getEntity(),
+                                                  freq.getEntityVersion().getVersion(),
+                                                  freq.toJson(), METRICS), request);
     }
 
     @GET
     @LZF
+    @CompressionGroup("find")
     @Path("/search/{entity}/{searchName}")
-    public Response runSavedSearch(@PathParam("entity") String entity,
-                                   @PathParam("searchName") String searchName,
-                                   @QueryParam("P") String projection,
-                                   @QueryParam("S") String sort,
-                                   @QueryParam("from") Integer from,
-                                   @QueryParam("to") Integer to,
-                                   @QueryParam("maxResults") Integer maxResults,
-                                   @Context UriInfo uriInfo) {
-        return runSavedSearch(entity,null,searchName,projection,sort,from,to,maxResults,uriInfo);
+    public void runSavedSearch(@PathParam("entity") String entity,
+                               @PathParam("searchName") String searchName,
+                               @QueryParam("P") String projection,
+                               @QueryParam("S") String sort,
+                               @QueryParam("from") Integer from,
+                               @QueryParam("to") Integer to,
+                               @QueryParam("maxResults") Integer maxResults,
+                               @Context UriInfo uriInfo,
+                               @Context Request request,
+                               @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        runSavedSearch(entity,null,searchName,projection,sort,from,to,maxResults,uriInfo,request,response);
     }
 
     @GET
     @LZF
+    @CompressionGroup("find")
     @Path("/search/{entity}/{version}/{searchName}")
-    public Response runSavedSearch(@PathParam("entity") String entity,
-                                   @PathParam("version") String version,
-                                   @PathParam("searchName") String searchName,
-                                   @QueryParam("P") String projection,
-                                   @QueryParam("S") String sort,
-                                   @QueryParam("from") Integer from,
-                                   @QueryParam("to") Integer to,
-                                   @QueryParam("maxResults") Integer maxResults,
-                                   @Context UriInfo uriInfo) {
+    public void runSavedSearch(@PathParam("entity") String entity,
+                               @PathParam("version") String version,
+                               @PathParam("searchName") String searchName,
+                               @QueryParam("P") String projection,
+                               @QueryParam("S") String sort,
+                               @QueryParam("from") Integer from,
+                               @QueryParam("to") Integer to,
+                               @QueryParam("maxResults") Integer maxResults,
+                               @Context UriInfo uriInfo,
+                               @Context Request request,
+                               @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Map<String,List<String>> qmap=uriInfo.getQueryParameters();
         Map<String,String> map=new HashMap<>();
         for(Map.Entry<String,List<String>> entry:qmap.entrySet()) {
-            if(entry.getValue().size()!=1)
-                return Response.status(Response.Status.BAD_REQUEST).build();
+            if(entry.getValue().size()!=1) {
+                response.setResponse(Response.status(Response.Status.BAD_REQUEST).build());
+                return;
+            }
             map.put(entry.getKey(),entry.getValue().get(0));
         }
-        return runSavedSearch(entity,version,searchName,projection,sort,from,to,maxResults,map);
+        runSavedSearch(entity,version,searchName,projection,sort,from,to,maxResults,map,request,response);
     }
 
     @POST
     @LZF
+    @CompressionGroup("find")
     @Path("/search/{entity}/{searchName}")
-    public Response runSavedSearch(@PathParam("entity") String entity,
-                                   @PathParam("searchName") String searchName,
-                                   @QueryParam("P") String projection,
-                                   @QueryParam("S") String sort,
-                                   @QueryParam("from") Integer from,
-                                   @QueryParam("to") Integer to,
-                                   @QueryParam("maxResults") Integer maxResults,
-                                   String body) {
-        return runSavedSearch(entity,null,searchName,projection,sort,from,to,maxResults,body);
+    public void runSavedSearch(@PathParam("entity") String entity,
+                               @PathParam("searchName") String searchName,
+                               @QueryParam("P") String projection,
+                               @QueryParam("S") String sort,
+                               @QueryParam("from") Integer from,
+                               @QueryParam("to") Integer to,
+                               @QueryParam("maxResults") Integer maxResults,
+                               String body,
+                               @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        runSavedSearch(entity,null,searchName,projection,sort,from,to,maxResults,body,response);
     }
 
     @POST
     @LZF
+    @CompressionGroup("find")
     @Path("/search/{entity}/{version}/{searchName}")
-    public Response runSavedSearch(@PathParam("entity") String entity,
-                                   @PathParam("version") String version,
-                                   @PathParam("searchName") String searchName,
-                                   @QueryParam("P") String projection,
-                                   @QueryParam("S") String sort,
-                                   @QueryParam("from") Integer from,
-                                   @QueryParam("to") Integer to,
-                                   @QueryParam("maxResults") Integer maxResults,
-                                   String body) {
+    public void runSavedSearch(@PathParam("entity") String entity,
+                               @PathParam("version") String version,
+                               @PathParam("searchName") String searchName,
+                               @QueryParam("P") String projection,
+                               @QueryParam("S") String sort,
+                               @QueryParam("from") Integer from,
+                               @QueryParam("to") Integer to,
+                               @QueryParam("maxResults") Integer maxResults,
+                               String body,
+                               @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Map<String,String> map=new HashMap<>();
         try {
             JsonNode node=JsonUtils.json(body);
@@ -222,22 +311,25 @@ public abstract class AbstractCrudResource {
                 }
             }
         } catch (Exception e) {
-            return Response.status(Response.Status.BAD_REQUEST).build();
+            response.setResponse(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
         }
         
-        return runSavedSearch(entity,version,searchName,projection,sort,from,to,maxResults,map);
+        runSavedSearch(entity,version,searchName,projection,sort,from,to,maxResults,map,null,response);
     }
 
 
-    private Response runSavedSearch(String entity,
-                                    String version,
-                                    String searchName,
-                                    String projection,
-                                    String sort,
-                                    Integer from,
-                                    Integer to,
-                                    Integer maxResults,
-                                    Map<String,String> parameters) {
+    private void runSavedSearch(String entity,
+                                String version,
+                                String searchName,
+                                String projection,
+                                String sort,
+                                Integer from,
+                                Integer to,
+                                Integer maxResults,
+                                Map<String,String> parameters,
+                                Request request,
+                                AsynchronousResponse response) {
         Projection p=null;
         Sort s=null;
         Integer f=null;
@@ -260,164 +352,194 @@ public abstract class AbstractCrudResource {
             if(maxResults!=null)
                 t=new Integer(f==null?0:f+maxResults-1);
         } catch(Exception e) {
-            return Response.status(Response.Status.BAD_REQUEST).build();
+            response.setResponse(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
         }
         Error.reset();
-        CallStatus st=new RunSavedSearchCommand(searchName,entity,version,p,s,f,t,parameters, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respondWithETag(response, new RunSavedSearchCommand(searchName,entity,version,p,s,f,t,parameters, METRICS), request);
     }        
     
 
     @POST
     @Path("/lock/")
-    public Response lock(String request) {
+    public void lock(String request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = getLockCommand(request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, getLockCommand(request, METRICS));
     }
 
     @PUT
     @Path("/lock/{domain}/{callerId}/{resourceId}")
-    public Response acquire(@PathParam("domain") String domain,
-                            @PathParam("callerId") String callerId,
-                            @PathParam("resourceId") String resourceId,
-                            @QueryParam("ttl") Long ttl) {
+    public void acquire(@PathParam("domain") String domain,
+                        @PathParam("callerId") String callerId,
+                        @PathParam("resourceId") String resourceId,
+                        @QueryParam("ttl") Long ttl,
+                        @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new AcquireCommand(domain, callerId, resourceId, ttl, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, new AcquireCommand(domain, callerId, resourceId, ttl, METRICS));
     }
 
     @DELETE
     @Path("/lock/{domain}/{callerId}/{resourceId}")
-    public Response release(@PathParam("domain") String domain,
-                            @PathParam("callerId") String callerId,
-                            @PathParam("resourceId") String resourceId) {
+    public void release(@PathParam("domain") String domain,
+                        @PathParam("callerId") String callerId,
+                        @PathParam("resourceId") String resourceId,
+                        @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new ReleaseCommand(domain, callerId, resourceId, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, new ReleaseCommand(domain, callerId, resourceId, METRICS));
     }
 
     @GET
     @Path("/lock/{domain}/{callerId}/{resourceId}")
-    public Response getLockCount(@PathParam("domain") String domain,
-                                 @PathParam("callerId") String callerId,
-                                 @PathParam("resourceId") String resourceId) {
+    public void getLockCount(@PathParam("domain") String domain,
+                             @PathParam("callerId") String callerId,
+                             @PathParam("resourceId") String resourceId,
+                             @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new GetLockCountCommand(domain, callerId, resourceId, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, new GetLockCountCommand(domain, callerId, resourceId, METRICS));
     }
 
     @PUT
     @Path("/lock/{domain}/{callerId}/{resourceId}/ping")
-    public Response ping(@PathParam("domain") String domain,
-                         @PathParam("callerId") String callerId,
-                         @PathParam("resourceId") String resourceId) {
+    public void ping(@PathParam("domain") String domain,
+                     @PathParam("callerId") String callerId,
+                     @PathParam("resourceId") String resourceId,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new LockPingCommand(domain, callerId, resourceId, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, new LockPingCommand(domain, callerId, resourceId, METRICS));
     }
 
     /**
      * @deprecated Deprecated due to inconsistent path. Use
-     * {@link #insert(String, String)} instead.
+     * {@link #insert(String, InputStream, AsynchronousResponse)} instead.
      */
     @PUT
     @Path("/{entity}")
     @LZF
     @Deprecated
-    public Response insertAlt(@PathParam(PARAM_ENTITY) String entity,
-                              String request) {
-        return insert(entity, null, request);
+    public void insertAlt(@PathParam(PARAM_ENTITY) String entity,
+                          InputStream request,
+                          @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        insert(entity, null, request, response);
     }
 
     /**
      * @deprecated Deprecated due to inconsistent path. Use
-     * {@link #insert(String, String, String)} instead.
+     * {@link #insert(String, String, InputStream, AsynchronousResponse)} instead.
      */
     @PUT
     @Path("/{entity}/{version}")
     @LZF
     @Deprecated
-    public Response insertAlt(@PathParam(PARAM_ENTITY) String entity,
-                              @PathParam(PARAM_VERSION) String version,
-                              String request) {
-        return insert(entity, version, request);
+    public void insertAlt(@PathParam(PARAM_ENTITY) String entity,
+                          @PathParam(PARAM_VERSION) String version,
+                          InputStream request,
+                          @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        insert(entity, version, request, response);
     }
 
     @PUT
     @LZF
     @Path("/insert/{entity}")
-    public Response insert(@PathParam(PARAM_ENTITY) String entity,
-                           String request) {
-        return insert(entity, null, request);
+    public void insert(@PathParam(PARAM_ENTITY) String entity,
+                       InputStream request,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        insert(entity, null, request, response);
     }
 
     @PUT
     @LZF
     @Path("/insert/{entity}/{version}")
-    public Response insert(@PathParam(PARAM_ENTITY) String entity,
-                           @PathParam(PARAM_VERSION) String version,
-                           String request) {
+    public void insert(@PathParam(PARAM_ENTITY) String entity,
+                       @PathParam(PARAM_VERSION) String version,
+                       InputStream request,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        Error.reset();
+        withBody(request, response, body -> respond(response, new InsertCommand(entity, version, body, METRICS)));
+    }
+
+    /**
+     * Inserts newline delimited documents in batches of batchSize
+     * documents. The response of each batch is streamed back as soon as
+     * the batch is inserted.
+     */
+    @PUT
+    @LZF
+    @Path("/insert/{entity}/{version}/stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response insertStream(@PathParam(PARAM_ENTITY) String entity,
+                                 @PathParam(PARAM_VERSION) String version,
+                                 @QueryParam("batchSize") Integer batchSize,
+                                 InputStream request) {
         Error.reset();
-        CallStatus st = new InsertCommand(entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        StreamingInsertCommand c=new StreamingInsertCommand(entity, version, request, batchSize, METRICS);
+        CallStatus st = CommandLimiter.run(c);
+        if(!st.hasErrors()) {
+            return Response.ok().entity(c.getResponseStream()).build();
+        } else {
+            return Response.status(st.getHttpStatus()).entity(st).build();
+        }
     }
 
     @POST
     @LZF
     @Path("/save/{entity}")
-    public Response save(@PathParam(PARAM_ENTITY) String entity,
-                         String request) {
-        return save(entity, null, request);
+    public void save(@PathParam(PARAM_ENTITY) String entity,
+                     InputStream request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        save(entity, null, request, response);
     }
 
     @POST
     @LZF
     @Path("/save/{entity}/{version}")
-    public Response save(@PathParam(PARAM_ENTITY) String entity,
-                         @PathParam(PARAM_VERSION) String version,
-                         String request) {
+    public void save(@PathParam(PARAM_ENTITY) String entity,
+                     @PathParam(PARAM_VERSION) String version,
+                     InputStream request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new SaveCommand(entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        withBody(request, response, body -> respond(response, new SaveCommand(entity, version, body, METRICS)));
     }
 
     @POST
     @LZF
     @Path("/update/{entity}")
-    public Response update(@PathParam(PARAM_ENTITY) String entity,
-                           String request) {
-        return update(entity, null, request);
+    public void update(@PathParam(PARAM_ENTITY) String entity,
+                       InputStream request,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        update(entity, null, request, response);
     }
 
     @POST
     @LZF
     @Path("/update/{entity}/{version}")
-    public Response update(@PathParam(PARAM_ENTITY) String entity,
-                           @PathParam(PARAM_VERSION) String version,
-                           String request) {
+    public void update(@PathParam(PARAM_ENTITY) String entity,
+                       @PathParam(PARAM_VERSION) String version,
+                       InputStream request,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new UpdateCommand(entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        withBody(request, response, body -> respond(response, new UpdateCommand(entity, version, body, METRICS)));
     }
 
     @POST
     @LZF
     @Path("/delete/{entity}")
-    public Response delete(@PathParam(PARAM_ENTITY) String entity,
-                           String request) {
-        return delete(entity, null, request);
+    public void delete(@PathParam(PARAM_ENTITY) String entity,
+                       InputStream request,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        delete(entity, null, request, response);
     }
 
     @POST
     @LZF
     @Path("/delete/{entity}/{version}")
-    public Response delete(@PathParam(PARAM_ENTITY) String entity,
-                           @PathParam(PARAM_VERSION) String version,
-                           String req) {
+    public void delete(@PathParam(PARAM_ENTITY) String entity,
+                       @PathParam(PARAM_VERSION) String version,
+                       InputStream req,
+                       @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new DeleteCommand(entity, version, req, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        withBody(req, response, body -> respond(response, new DeleteCommand(entity, version, body, METRICS)));
     }
 
     /**
@@ -426,63 +548,124 @@ public abstract class AbstractCrudResource {
      */
     @POST
     @LZF
+    @CompressionGroup("find")
     @Path("/find/{entity}")
-    public Response find(@PathParam(PARAM_ENTITY) String entity,
-                         @QueryParam("stream") Boolean stream,
-                         String request) {
-        return find(entity, null, stream,request);
+    public void find(@PathParam(PARAM_ENTITY) String entity,
+                     @QueryParam("stream") Boolean stream,
+                     @QueryParam("pageSize") Integer pageSize,
+                     @QueryParam("continuation") String continuation,
+                     InputStream request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        find(entity, null, stream, pageSize, continuation, request, response);
     }
 
     /**
      * This endpoint streams the results with chunked encoding if
-     * stream query parameter is true
+     * stream query parameter is true.
+     *
+     * If pageSize is given, the results are returned in pages of
+     * pageSize documents using keyset pagination. The response contains
+     * a continuation token if there are more documents, and the next
+     * page is retrieved by passing that token as the continuation query
+     * parameter with the same request.
      */
     @POST
     @LZF
+    @CompressionGroup("find")
     @Path("/find/{entity}/{version}")
-    public Response find(@PathParam(PARAM_ENTITY) String entity,
-                         @PathParam(PARAM_VERSION) String version,
-                         @QueryParam("stream") Boolean stream,
-                         String request) {
+    public void find(@PathParam(PARAM_ENTITY) String entity,
+                     @PathParam(PARAM_VERSION) String version,
+                     @QueryParam("stream") Boolean stream,
+                     @QueryParam("pageSize") Integer pageSize,
+                     @QueryParam("continuation") String continuation,
+                     InputStream request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        boolean bstream=stream!=null&&stream;
-        FindCommand f=new FindCommand(entity, version, request, bstream, METRICS);
-        CallStatus st=f.run();
-        if(!st.hasErrors()&&bstream) {
-            // This is how you stream. You put a response stream into
-            // the response, and data is streamed to the client
-            return Response.ok().entity(f.getResponseStream()).build();
-        } else {
-            return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        final boolean bstream=stream!=null&&stream;
+        final FindCommand f=new FindCommand(entity, version, request, bstream, METRICS);
+        if(pageSize!=null) {
+            f.setCursor(pageSize, continuation);
         }
+        final HttpServletRequest httpRequest = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+        final HttpServletResponse httpResponse = ResteasyProviderFactory.getContextData(HttpServletResponse.class);
+        respond(response, f, st -> {
+            if(!st.hasErrors()&&bstream) {
+                if (isNonBlockingStream(httpRequest)) {
+                    return streamNonBlocking(httpRequest, httpResponse, f);
+                }
+                // This is how you stream. You put a response stream into
+                // the response, and data is streamed to the client
+                return Response.ok().entity(f.getResponseStream()).type(f.getResponseFormat().getMediaType()).build();
+            } else {
+                return Response.status(st.getHttpStatus()).entity(st).build();
+            }
+        });
     }
 
     @POST
     @LZF
     @Path("/explain/{entity}")
-    public Response explain(@PathParam(PARAM_ENTITY) String entity,
-                            String request) {
-        return explain(entity, null, request);
+    public void explain(@PathParam(PARAM_ENTITY) String entity,
+                        InputStream request,
+                        @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        explain(entity, null, request, response);
     }
 
     @POST
     @LZF
     @Path("/explain/{entity}/{version}")
-    public Response explain(@PathParam(PARAM_ENTITY) String entity,
-                            @PathParam(PARAM_VERSION) String version,
-                            String request) {
+    public void explain(@PathParam(PARAM_ENTITY) String entity,
+                        @PathParam(PARAM_VERSION) String version,
+                        InputStream request,
+                        @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new ExplainCommand(entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        respond(response, new ExplainCommand(entity, version, request, METRICS));
     }
 
+    /**
+     * Runs the entries of the bulk request in order. If ordered query
+     * parameter is false, the entries are independent of each other, and
+     * they are run in parallel. The responses are returned in request
+     * order in both cases.
+     */
     @POST
     @LZF
     @Path("/bulk")
-    public Response bulk(String request) {
+    public void bulk(@QueryParam("ordered") Boolean ordered,
+                     InputStream request,
+                     @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
         Error.reset();
-        CallStatus st = new BulkRequestCommand(request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        boolean bordered=ordered==null||ordered;
+        withBody(request, response, body -> respond(response, new BulkRequestCommand(body, bordered, METRICS)));
+    }
+
+    /**
+     * Runs a bulk request received as newline delimited entries. The
+     * entries are run as they are read, and the response of each entry
+     * is streamed back as soon as it is available. If ordered query
+     * parameter is false, the entries run in parallel, and their
+     * responses are written in the order they complete.
+     *
+     * The entries are read and run while the response is written, so
+     * this endpoint, like the streaming insert, runs on the request
+     * thread and is not suspended.
+     */
+    @POST
+    @LZF
+    @Path("/bulk/stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response bulkStream(@QueryParam("ordered") Boolean ordered,
+                               InputStream request) {
+        Error.reset();
+        boolean bordered=ordered==null||ordered;
+        StreamingBulkRequestCommand c=new StreamingBulkRequestCommand(request, bordered, METRICS);
+        CallStatus st = CommandLimiter.run(c);
+        if(!st.hasErrors()) {
+            return Response.ok().entity(c.getResponseStream()).build();
+        } else {
+            return Response.status(st.getHttpStatus()).entity(st).build();
+        }
     }
 
     /**
@@ -499,85 +682,232 @@ public abstract class AbstractCrudResource {
     @GET
     @LZF
     @Path("/generate/{entity}/{version}/{path}")
-    public Response generate(@PathParam("entity") String entity,
-                             @PathParam("version") String version,
-                             @PathParam("path") String path,
-                             @QueryParam("n") Integer n) {
-        CallStatus st = new GenerateCommand(entity, version, path, n == null ? 1 : n, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+    public void generate(@PathParam("entity") String entity,
+                         @PathParam("version") String version,
+                         @PathParam("path") String path,
+                         @QueryParam("n") Integer n,
+                         @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        Error.reset();
+        respond(response, new GenerateCommand(entity, version, path, n == null ? 1 : n, METRICS));
     }
 
     @GET
     @LZF
     @Path("/generate/{entity}/{path}")
-    public Response generate(@PathParam("entity") String entity,
-                             @PathParam("path") String path,
-                             @QueryParam("n") Integer n) {
-        return generate(entity, null, path, n);
+    public void generate(@PathParam("entity") String entity,
+                         @PathParam("path") String path,
+                         @QueryParam("n") Integer n,
+                         @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) {
+        generate(entity, null, path, n, response);
     }
 
     @GET
     @LZF
+    @CompressionGroup("find")
     @Path("/find/{entity}")
-    //?Q&P&S&from&to
-    public Response simpleFind(@PathParam(PARAM_ENTITY) String entity,
-                               @QueryParam("Q") String q,
-                               @QueryParam("P") String p,
-                               @QueryParam("S") String s,
-                               @QueryParam("from") Long from,
-                               @QueryParam("to") Long to,
-                               @QueryParam("maxResults") Long maxResults) throws IOException {
-        return simpleFind(entity, null, q, p, s, from, to, maxResults);
+    //?Q&P&S&from&to&pageSize&continuation
+    public void simpleFind(@PathParam(PARAM_ENTITY) String entity,
+                           @QueryParam("Q") String q,
+                           @QueryParam("P") String p,
+                           @QueryParam("S") String s,
+                           @QueryParam("from") Long from,
+                           @QueryParam("to") Long to,
+                           @QueryParam("maxResults") Long maxResults,
+                           @QueryParam("pageSize") Integer pageSize,
+                           @QueryParam("continuation") String continuation,
+                           @Context Request request,
+                           @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) throws IOException {
+        simpleFind(entity, null, q, p, s, from, to, maxResults, pageSize, continuation, request, response);
     }
 
     @GET
     @LZF
+    @CompressionGroup("find")
     @Path("/find/{entity}/{version}")
-    //?Q&P&S&from&to
-    public Response simpleFind(@PathParam(PARAM_ENTITY) String entity,
-                               @PathParam(PARAM_VERSION) String version,
-                               @QueryParam("Q") String q,
-                               @QueryParam("P") String p,
-                               @QueryParam("S") String s,
-                               @QueryParam("from") Long from,
-                               @QueryParam("to") Long to,
-                               @QueryParam("maxResults") Long maxResults) throws IOException {
+    //?Q&P&S&from&to&pageSize&continuation
+    public void simpleFind(@PathParam(PARAM_ENTITY) String entity,
+                           @PathParam(PARAM_VERSION) String version,
+                           @QueryParam("Q") String q,
+                           @QueryParam("P") String p,
+                           @QueryParam("S") String s,
+                           @QueryParam("from") Long from,
+                           @QueryParam("to") Long to,
+                           @QueryParam("maxResults") Long maxResults,
+                           @QueryParam("pageSize") Integer pageSize,
+                           @QueryParam("continuation") String continuation,
+                           @Context Request request,
+                           @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) throws IOException {
         Error.reset();
-        String request=buildSimpleRequest(entity,version,q,p,s,from,to,maxResults).toString();
-        CallStatus st = new FindCommand(null, entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        JsonNode findRequest=buildSimpleRequest(entity,version,q,p,s,from,to,maxResults).toJson();
+        FindCommand f=new FindCommand(null, entity, version, findRequest, METRICS);
+        if(pageSize!=null) {
+            f.setCursor(pageSize, continuation);
+        }
+        respondWithETag(response, f, request);
     }
 
     @GET
     @LZF
     @Path("/explain/{entity}")
     //?Q&P&S&from&to
-    public Response simpleExplain(@PathParam(PARAM_ENTITY) String entity,
-                                  @QueryParam("Q") String q,
-                                  @QueryParam("P") String p,
-                                  @QueryParam("S") String s,
-                                  @QueryParam("from") Long from,
-                                  @QueryParam("to") Long to,
-                                  @QueryParam("maxResults") Long maxResults) throws IOException {
-        return simpleExplain(entity, null, q, p, s, from, to,maxResults);
+    public void simpleExplain(@PathParam(PARAM_ENTITY) String entity,
+                              @QueryParam("Q") String q,
+                              @QueryParam("P") String p,
+                              @QueryParam("S") String s,
+                              @QueryParam("from") Long from,
+                              @QueryParam("to") Long to,
+                              @QueryParam("maxResults") Long maxResults,
+                              @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) throws IOException {
+        simpleExplain(entity, null, q, p, s, from, to,maxResults, response);
     }
     
     @GET
     @LZF
     @Path("/explain/{entity}/{version}")
     //?Q&P&S&from&to
-    public Response simpleExplain(@PathParam(PARAM_ENTITY) String entity,
-                                  @PathParam(PARAM_VERSION) String version,
-                                  @QueryParam("Q") String q,
-                                  @QueryParam("P") String p,
-                                  @QueryParam("S") String s,
-                                  @QueryParam("from") Long from,
-                                  @QueryParam("to") Long to,
-                                  @QueryParam("maxResults") Long maxResults) throws IOException {
+    public void simpleExplain(@PathParam(PARAM_ENTITY) String entity,
+                              @PathParam(PARAM_VERSION) String version,
+                              @QueryParam("Q") String q,
+                              @QueryParam("P") String p,
+                              @QueryParam("S") String s,
+                              @QueryParam("from") Long from,
+                              @QueryParam("to") Long to,
+                              @QueryParam("maxResults") Long maxResults,
+                              @Suspend(ASYNC_TIMEOUT) AsynchronousResponse response) throws IOException {
         Error.reset();
-        String request=buildSimpleRequest(entity,version,q,p,s,from,to,maxResults).toString();
-        CallStatus st = new ExplainCommand(null, entity, version, request, METRICS).run();
-        return Response.status(st.getHttpStatus()).entity(st.toString()).build();
+        JsonNode request=buildSimpleRequest(entity,version,q,p,s,from,to,maxResults).toJson();
+        respond(response, new ExplainCommand(null, entity, version, request, METRICS));
+    }
+
+    /**
+     * Sets the response of the command. If lightblue.rest.async is set,
+     * the command runs on the executor of its pool, and the container
+     * thread is released until the command completes. Otherwise, the
+     * command runs in the calling thread. See {@link CommandResponses}.
+     */
+    private static void respond(AsynchronousResponse response, AbstractRestCommand command) {
+        respond(response, command, st -> Response.status(st.getHttpStatus()).entity(st).build());
+    }
+
+    private static void respond(AsynchronousResponse response,
+                                AbstractRestCommand command,
+                                Function<CallStatus, Response> toResponse) {
+        CommandResponses.respond(response, command, toResponse, ASYNC);
+    }
+
+    private static void setResponse(AsynchronousResponse response, Response r) {
+        CommandResponses.setResponse(response, r);
+    }
+
+    /**
+     * Passes the request body to the command, limited to MAX_BODY_BYTES.
+     * If the body can be read with non-blocking input, the body is read
+     * first, and the command is called from the container thread that
+     * receives the end of the body. Otherwise the command is called
+     * immediately with the request stream.
+     */
+    private static void withBody(InputStream request,
+                                 final AsynchronousResponse response,
+                                 final Consumer<InputStream> command) {
+        HttpServletRequest httpRequest = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+        if (BodyLimit.exceeds(httpRequest, MAX_BODY_BYTES)) {
+            setResponse(response, errorResponse(BodyLimit.tooLarge(MAX_BODY_BYTES)));
+        } else if (isNonBlockingBody(httpRequest)) {
+            // Commands read the caller from the context data, so make it
+            // available on the thread that runs the command
+            final Map<Class<?>, Object> contextData = new HashMap<>(ResteasyProviderFactory.getContextDataMap());
+            try {
+                NonBlockingInput.read(httpRequest, MAX_BODY_BYTES, new NonBlockingInput.BodyHandler() {
+                    @Override
+                    public void onBody(InputStream body) {
+                        ResteasyProviderFactory.pushContextDataMap(contextData);
+                        try {
+                            Error.reset();
+                            command.accept(body);
+                        } finally {
+                            ResteasyProviderFactory.removeContextDataLevel();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        LOGGER.error("Cannot read request body: {}", error.toString());
+                        setResponse(response, errorResponse(error instanceof Error
+                                ? (Error) error
+                                : Error.get(RestCrudConstants.ERR_REST_ERROR, error.toString())));
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Cannot start non-blocking read, falling back to blocking input: {}", e.toString());
+                command.accept(BodyLimit.limit(request, MAX_BODY_BYTES));
+            }
+        } else {
+            command.accept(BodyLimit.limit(request, MAX_BODY_BYTES));
+        }
+    }
+
+    private static Response errorResponse(Error error) {
+        return CommandResponses.errorResponse(error);
+    }
+
+    /**
+     * Returns if the request body can be read with non-blocking input.
+     * The body is buffered in memory, so its size must be limited.
+     * LZF encoded bodies are decoded by a JAX-RS interceptor, so they are
+     * always read through JAX-RS.
+     */
+    private static boolean isNonBlockingBody(HttpServletRequest request) {
+        return NON_BLOCKING_BODY
+                && MAX_BODY_BYTES > 0
+                && NonBlockingInput.isAvailable(request)
+                && request.getHeader(HttpHeaders.CONTENT_ENCODING) == null;
+    }
+
+    /**
+     * Returns if the streaming find response of the request can be
+     * written with non-blocking output
+     */
+    private static boolean isNonBlockingStream(HttpServletRequest request) {
+        return NON_BLOCKING_STREAM && NonBlockingOutput.isAvailable(request);
+    }
+
+    /**
+     * Starts writing the streaming find response with non-blocking
+     * output, and returns null. The JAX-RS compression interceptor is
+     * bypassed, so the chunks are compressed here with the negotiated
+     * encoding. If non-blocking output cannot be started, returns the
+     * blocking streaming response instead, and marks
+     * api.find.stream.blockingFallback.
+     */
+    private static Response streamNonBlocking(HttpServletRequest request, HttpServletResponse response, FindCommand f) {
+        try {
+            NonBlockingOutput.ChunkSource chunks = f.getResponseChunks();
+            String encoding = ContentEncodings.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            if (encoding != null) {
+                // The headers are set when the first chunk is written, so
+                // they are not left behind if this falls back to JAX-RS
+                chunks = new CompressingChunkSource(chunks, encoding, CompressionSettings.forGroup("find").getLevel(),
+                        e -> {
+                            response.setHeader(HttpHeaders.CONTENT_ENCODING, e);
+                            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                        });
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(f.getResponseFormat().getMediaType().toString());
+            NonBlockingOutput.write(request, response, chunks);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Cannot start non-blocking stream, falling back to blocking output: {}", e.toString());
+            STREAM_FALLBACK.mark();
+            return Response.ok().entity(f.getResponseStream()).type(f.getResponseFormat().getMediaType()).build();
+        }
+    }
+
+    /**
+     * Sets the response of the command with an ETag
+     */
+    private static void respondWithETag(AsynchronousResponse response, AbstractRestCommand command, final Request request) {
+        respond(response, command, st -> CommandResponses.withETag(st, request));
     }
 
     private FindRequest buildSimpleRequest(String entity,String version, String q,String p, String s, Long from, Long to,Long maxResults)
@@ -0,0 +1,178 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.spi.AsynchronousResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.crud.cmd.AbstractRestCommand;
+import com.redhat.lightblue.rest.crud.cmd.CommandLimiter;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.util.Error;
+
+/**
+ * Sets the responses of suspended requests from the commands that serve
+ * them.
+ *
+ * The request thread is only released if the application runs with the
+ * Servlet 3.0 RESTEasy dispatcher (HttpServlet30Dispatcher), and all
+ * filters of the request support async. Otherwise RESTEasy waits for the
+ * response on the request thread.
+ *
+ * A command that runs asynchronously is given
+ * lightblue.rest.async.timeout milliseconds (default 30 minutes) to
+ * complete. After that, the request fails with a deadline exceeded
+ * error, and the response of the command is discarded. The timeout of
+ * the @Suspend annotations is a constant, so it is only the upper bound.
+ */
+final class CommandResponses {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandResponses.class);
+
+    static final long TIMEOUT_MILLIS = Long.getLong("lightblue.rest.async.timeout", 30 * 60 * 1000L);
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private CommandResponses() {
+    }
+
+    /**
+     * Runs the command, and sets the response built from its call status.
+     * If async is true, the command runs on the executor of its pool, and
+     * this returns before the command completes. Otherwise, the command
+     * runs in the calling thread.
+     */
+    static void respond(final AsynchronousResponse response,
+                        AbstractRestCommand command,
+                        final Function<CallStatus, Response> toResponse,
+                        boolean async) {
+        respond(response, command, toResponse, async, TIMEOUT_MILLIS);
+    }
+
+    static void respond(final AsynchronousResponse response,
+                        AbstractRestCommand command,
+                        final Function<CallStatus, Response> toResponse,
+                        boolean async,
+                        long timeoutMillis) {
+        if (async) {
+            final AtomicBoolean done = new AtomicBoolean();
+            final ScheduledFuture<?> timeout = timeoutMillis > 0 ? TIMER.schedule(() -> {
+                if (done.compareAndSet(false, true)) {
+                    LOGGER.warn("{}: no response after {}ms", command.getCommandName(), timeoutMillis);
+                    setResponse(response, errorResponse(Error.get(Deadline.ERR_DEADLINE_EXCEEDED, timeoutMillis + "ms")));
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+            CommandLimiter.runAsync(command).whenComplete((st, x) -> {
+                if (!done.compareAndSet(false, true)) {
+                    return;
+                }
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                CallStatus status = st;
+                if (x != null) {
+                    LOGGER.error("async command failure: {}", x);
+                    status = new CallStatus(Error.get(RestCrudConstants.ERR_REST_ERROR, x.toString()));
+                }
+                try {
+                    setResponse(response, toResponse.apply(status));
+                } catch (RuntimeException e) {
+                    // Otherwise the failure is lost in the completion
+                    // stage, and the client waits until the timeout
+                    LOGGER.error("Cannot set the response: {}", e);
+                    setResponse(response, errorResponse(Error.get(RestCrudConstants.ERR_REST_ERROR, e.toString())));
+                }
+            });
+        } else {
+            setResponse(response, toResponse.apply(CommandLimiter.run(command)));
+        }
+    }
+
+    /**
+     * Sets the response. A null response means the response is already
+     * being written directly to the servlet response.
+     */
+    static void setResponse(AsynchronousResponse response, Response r) {
+        if (r != null) {
+            response.setResponse(r);
+        }
+    }
+
+    static Response errorResponse(Error error) {
+        CallStatus st = new CallStatus(error);
+        return Response.status(st.getHttpStatus()).entity(st).build();
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("lightblue-async-timeout-%d").setDaemon(true).build());
+        // Most commands complete long before their timeout
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Returns the response with a weak ETag computed from the response
+     * document. If the ETag matches the If-None-Match header of the
+     * request, returns 304 Not Modified without the body. Only successful
+     * responses are tagged.
+     *
+     * The document is hashed as it is serialized, without buffering it,
+     * and the response is still written by CallStatusMessageBodyWriter.
+     * The tag is weak, because the same document is sent in different
+     * formats and content encodings.
+     */
+    static Response withETag(CallStatus st, Request request) {
+        if (request == null || st.getHttpStatus() != Response.Status.OK) {
+            return Response.status(st.getHttpStatus()).entity(st).build();
+        }
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        try (OutputStream out = Funnels.asOutputStream(hasher)) {
+            WireFormat.JSON.writeTree(st.toJson(), out);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot hash response: {}", e.toString());
+            return Response.status(st.getHttpStatus()).entity(st).build();
+        }
+        EntityTag tag = new EntityTag(hasher.hash().toString(), true);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.tag(tag).build();
+        }
+        return Response.ok(st).tag(tag).build();
+    }
+}
@@ -24,6 +24,9 @@ import java.util.Set;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
+import com.redhat.lightblue.rest.BinaryJsonStringProvider;
+import com.redhat.lightblue.rest.CallStatusMessageBodyWriter;
+
 @ApplicationPath("/")
 public class RestApplication extends Application {
 
@@ -31,6 +34,8 @@ public class RestApplication extends Application {
     public Set<Class<?>> getClasses() {
         HashSet<Class<?>> set = new HashSet<>();
         set.add(CrudResource.class);
+        set.add(CallStatusMessageBodyWriter.class);
+        set.add(BinaryJsonStringProvider.class);
         return set;
     }
 }
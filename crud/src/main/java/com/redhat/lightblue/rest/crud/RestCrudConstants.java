@@ -27,6 +27,7 @@ public final class RestCrudConstants {
     public static final String ERR_REST_DELETE = "rest-crud:RestDeleteError";
     public static final String ERR_REST_GENERATE = "rest-crud:RestGenerateError";
     public static final String ERR_REST_SAVED_SEARCH = "rest-crud:SavedSearchError";
+    public static final String ERR_INVALID_CONTINUATION = "rest-crud:InvalidContinuation";
 
     public static final String ERR_REST_CHECK_HEALTH = "rest-crud:RestCheckHealthError";
     public static final String ERR_REST_CHECK_DIAGNOSTICS = "rest-crud:RestCheckDiagnosticsError";
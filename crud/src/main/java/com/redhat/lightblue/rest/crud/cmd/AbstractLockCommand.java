@@ -52,6 +52,11 @@ public abstract class AbstractLockCommand extends AbstractRestCommand {
         this.metrics = metrics;
     }
 
+    @Override
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.LOCK;
+    }
+
     public static AbstractLockCommand getLockCommand(String request, RequestMetrics metrics) {
         AbstractLockCommand command = null;
         try {
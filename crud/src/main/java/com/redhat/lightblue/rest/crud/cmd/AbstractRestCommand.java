@@ -18,12 +18,21 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.redhat.lightblue.ClientIdentification;
 import com.redhat.lightblue.EntityVersion;
@@ -32,8 +41,13 @@ import com.redhat.lightblue.config.JsonTranslator;
 import com.redhat.lightblue.mediator.Mediator;
 import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.RestConfiguration;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.bulkhead.AdaptiveLimiter;
+import com.redhat.lightblue.rest.logging.LoggingFilter;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.Deadline;
 import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
 
 /**
  * Note that passing a Mediator in the constructor is optional. If not provided,
@@ -46,12 +60,30 @@ public abstract class AbstractRestCommand {
 
     protected static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.withExactBigDecimals(true);
 
+    /**
+     * Requests that expired before they were run. These are not counted
+     * as errors.
+     */
+    private static final Meter EXPIRED = MetricRegistryFactory.getJmxMetricRegistry()
+            .meter(MetricRegistry.name("api", "deadline", "expired"));
+
     private final Mediator mediator;
     private final HttpServletRequest httpServletRequest;
+    private Deadline deadline;
+    private WireFormat requestFormat;
+    private WireFormat responseFormat;
+    private String requestId;
+    private volatile boolean latencySample = true;
 
     public AbstractRestCommand(Mediator mediator) {
         this.mediator = mediator;
         this.httpServletRequest = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+        this.deadline = Deadline.of(httpServletRequest);
+        this.requestFormat = WireFormat.ofRequest(httpServletRequest);
+        this.responseFormat = WireFormat.acceptedBy(httpServletRequest);
+        if (httpServletRequest != null && httpServletRequest.getAttribute(LoggingFilter.HEADER_REQUEST_ID) instanceof String) {
+            this.requestId = (String) httpServletRequest.getAttribute(LoggingFilter.HEADER_REQUEST_ID);
+        }
     }
 
     public AbstractRestCommand() {
@@ -131,8 +163,185 @@ public abstract class AbstractRestCommand {
         req.setClientId(getCallerId());
     }
 
+    /**
+     * Returns the deadline of the request, read from the request headers
+     * when the command is created
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline == null ? Deadline.NONE : deadline;
+    }
+
+    /**
+     * Returns the format of the request body, read from the Content-Type
+     * header when the command is created
+     */
+    public WireFormat getRequestFormat() {
+        return requestFormat;
+    }
+
+    public void setRequestFormat(WireFormat requestFormat) {
+        this.requestFormat = requestFormat == null ? WireFormat.JSON : requestFormat;
+    }
+
+    /**
+     * Returns the format the response is written in by commands that
+     * write their response directly, negotiated from the Accept header
+     * when the command is created
+     */
+    public WireFormat getResponseFormat() {
+        return responseFormat;
+    }
+
+    public void setResponseFormat(WireFormat responseFormat) {
+        this.responseFormat = responseFormat == null ? WireFormat.JSON : responseFormat;
+    }
+
+    /**
+     * Returns the ID of the request, assigned by LoggingFilter, or null if
+     * the request has no ID. It should be passed on to calls made for the
+     * request, so they can be traced back to it.
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    /**
+     * Returns if the deadline of the request passed. If so, the command
+     * should not call the mediator, and return expired() instead.
+     */
+    protected boolean isExpired() {
+        return deadline.isExpired();
+    }
+
+    /**
+     * Counts the request as expired, and returns the call status to
+     * return for it
+     */
+    protected CallStatus expired() {
+        skipLatencySample();
+        markExpired(getCommandName());
+        LOGGER.debug("{}: deadline {} passed", getCommandName(), deadline);
+        return expiredStatus();
+    }
+
+    /**
+     * Returns the call status of an expired request without counting it
+     */
+    protected CallStatus expiredStatus() {
+        return new CallStatus(Error.get(Deadline.ERR_DEADLINE_EXCEEDED, deadline.toString()));
+    }
+
+    /**
+     * Returns if the time run() took is a sample of the backend latency.
+     * CommandLimiter only adapts the limits to these samples.
+     */
+    public boolean isLatencySample() {
+        return latencySample;
+    }
+
+    /**
+     * Called by run() when it returns without waiting for the backend,
+     * for instance on a cache hit or when the deadline passed, or when
+     * the backend is only called while the response is written
+     */
+    protected void skipLatencySample() {
+        latencySample = false;
+    }
+
+    /**
+     * Counts a request that is abandoned because its deadline passed
+     */
+    protected static void markExpired(String commandName) {
+        EXPIRED.mark();
+        MetricRegistryFactory.getJmxMetricRegistry().meter(MetricRegistry.name("api", "deadline", commandName, "expired")).mark();
+    }
+
     public abstract CallStatus run();
+
+    /**
+     * Returns the pool the command runs on when it is run asynchronously.
+     * Commands that modify data return WRITE, lock commands return LOCK.
+     */
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.READ;
+    }
+
+    /**
+     * Runs the command on the executor of its pool. The returned stage
+     * completes with the call status of the command. If the executor
+     * cannot accept the command, the stage completes with an overloaded
+     * error without running it.
+     */
+    public CompletionStage<CallStatus> runAsync() {
+        return runAsync(CommandExecutors.get(getPool()));
+    }
+
+    public CompletionStage<CallStatus> runAsync(Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(this::runWithRequestId, executor);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("{}: {} pool is full", getCommandName(), getPool().getName());
+            skipLatencySample();
+            return CompletableFuture.completedFuture(new CallStatus(Error.get(AdaptiveLimiter.ERR_OVERLOADED, getPool().getName())));
+        }
+    }
     
+    /**
+     * Runs the command with the request ID in the MDC, so the logs of the
+     * mediator and the backends on the executor thread carry it
+     */
+    private CallStatus runWithRequestId() {
+        String previous = putRequestId(requestId);
+        try {
+            return run();
+        } finally {
+            restoreRequestId(previous);
+        }
+    }
+
+    /**
+     * Wraps a task the command runs on another thread, so the task runs
+     * with the request ID in the MDC
+     */
+    protected <T> Callable<T> withRequestId(final Callable<T> task) {
+        final String id = requestId;
+        if (id == null) {
+            return task;
+        }
+        return () -> {
+            String previous = putRequestId(id);
+            try {
+                return task.call();
+            } finally {
+                restoreRequestId(previous);
+            }
+        };
+    }
+
+    private static String putRequestId(String id) {
+        String previous = MDC.get(LoggingFilter.HEADER_REQUEST_ID);
+        if (id != null) {
+            MDC.put(LoggingFilter.HEADER_REQUEST_ID, id);
+        }
+        return previous;
+    }
+
+    private static void restoreRequestId(String previous) {
+        if (previous == null) {
+            MDC.remove(LoggingFilter.HEADER_REQUEST_ID);
+        } else {
+            MDC.put(LoggingFilter.HEADER_REQUEST_ID, previous);
+        }
+    }
+
     public String getCommandName() {
         return this.getClass().getSimpleName().toLowerCase();
     }
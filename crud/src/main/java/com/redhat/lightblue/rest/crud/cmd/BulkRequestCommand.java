@@ -18,29 +18,119 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.redhat.lightblue.OperationStatus;
 import com.redhat.lightblue.Request;
+import com.redhat.lightblue.Response;
 import com.redhat.lightblue.crud.BulkRequest;
 import com.redhat.lightblue.crud.BulkResponse;
+import com.redhat.lightblue.crud.DeleteRequest;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.crud.SaveRequest;
+import com.redhat.lightblue.crud.UpdateRequest;
+import com.redhat.lightblue.mediator.Mediator;
 import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.BodyLimit;
+import com.redhat.lightblue.rest.util.Deadline;
 import com.redhat.lightblue.util.metrics.RequestMetrics;
 import com.redhat.lightblue.util.Error;
-import com.redhat.lightblue.util.JsonUtils;
 
+/**
+ * Runs a bulk request. By default the bulk request is passed to the
+ * mediator, which runs the entries one after the other. If the bulk is
+ * not ordered, the entries are independent of each other, and they are
+ * run in parallel on a shared bounded executor. The responses are
+ * returned in request order in both cases.
+ */
 public class BulkRequestCommand extends AbstractRestCommand {
     private static final Logger LOGGER = LoggerFactory.getLogger(BulkRequestCommand.class);
 
-    private final String request;
+    /**
+     * Maximum number of entries of a single unordered bulk request that
+     * run at the same time
+     */
+    public static final int MAX_PARALLELISM_PER_REQUEST = Integer.getInteger("lightblue.rest.bulk.maxParallelism", 8);
+
+    /**
+     * Number of threads shared by all unordered bulk requests
+     */
+    public static final int EXECUTOR_THREADS = Integer.getInteger("lightblue.rest.bulk.threads", 32);
+
+    /**
+     * Number of tasks that can wait for an executor thread. When the
+     * queue is full, the task runs in the request thread.
+     */
+    public static final int EXECUTOR_QUEUE_SIZE = Integer.getInteger("lightblue.rest.bulk.queueSize", 256);
+
+    /**
+     * The executor shared by all requests running bulk entries in parallel
+     */
+    static final ExecutorService EXECUTOR = createExecutor();
+
+    private final RequestBody request;
+    private final boolean ordered;
     private final RequestMetrics metrics;
 
     public BulkRequestCommand(String request, RequestMetrics metrics) {
+        this(RequestBody.of(request), true, metrics);
+    }
+
+    public BulkRequestCommand(InputStream request, RequestMetrics metrics) {
+        this(RequestBody.of(request), true, metrics);
+    }
+
+    public BulkRequestCommand(InputStream request, boolean ordered, RequestMetrics metrics) {
+        this(RequestBody.of(request), ordered, metrics);
+    }
+
+    public BulkRequestCommand(JsonNode request, RequestMetrics metrics) {
+        this(RequestBody.of(request), true, metrics);
+    }
+
+    public BulkRequestCommand(JsonNode request, boolean ordered, RequestMetrics metrics) {
+        this(RequestBody.of(request), ordered, metrics);
+    }
+
+    private BulkRequestCommand(RequestBody request, boolean ordered, RequestMetrics metrics) {
         this.request = request;
+        this.ordered = ordered;
         this.metrics = metrics;
     }
 
+    private static ExecutorService createExecutor() {
+        int threads = Math.max(1, EXECUTOR_THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, EXECUTOR_QUEUE_SIZE)),
+                new ThreadFactoryBuilder().setNameFormat("lightblue-bulk-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.WRITE;
+    }
+
     @Override
     public CallStatus run() {
         RequestMetrics.Context metricCtx = metrics.startBulkRequest();
@@ -51,9 +141,11 @@ public class BulkRequestCommand extends AbstractRestCommand {
         try {
             BulkRequest req;
             try {
-                req = getJsonTranslator().parse(BulkRequest.class, JsonUtils.json(request));
+                req = getJsonTranslator().parse(BulkRequest.class, request.toJson(getRequestFormat()));
             } catch (Exception e) {
-                Error error = Error.get(RestCrudConstants.ERR_REST_ERROR, "Error parsing request");
+                Error error = e instanceof Error && BodyLimit.ERR_REQUEST_TOO_LARGE.equals(((Error) e).getErrorCode())
+                        ? (Error) e
+                        : Error.get(RestCrudConstants.ERR_REST_ERROR, "Error parsing request");
                 metricCtx.markRequestException(error);
                 LOGGER.error("bulk:parse failure: {}", e);
                 return new CallStatus(error);
@@ -69,7 +161,20 @@ public class BulkRequestCommand extends AbstractRestCommand {
                 LOGGER.error("bulk:validate failure: {}", e);
                 return new CallStatus(error);
             }
-            BulkResponse r = getMediator().bulkRequest(req, metrics);
+            if (isExpired()) {
+                return expired();
+            }
+            BulkResponse r;
+            if (ordered) {
+                r = getMediator().bulkRequest(req, metrics);
+                for (Request entry : req.getEntries()) {
+                    if (!(entry instanceof FindRequest)) {
+                        SavedSearchResultCache.getInstance().invalidate(entry.getEntityVersion().getEntity());
+                    }
+                }
+            } else {
+                r = runUnordered(req.getEntries());
+            }
             return new CallStatus(r);
         } catch (Error e) {
             metricCtx.markRequestException(e);
@@ -84,4 +189,115 @@ public class BulkRequestCommand extends AbstractRestCommand {
             metricCtx.endRequestMonitoring();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the entries in parallel. At most MAX_PARALLELISM_PER_REQUEST
+     * tasks are submitted for this request, and each task runs the next
+     * entry that is not yet claimed until all entries are done. The
+     * response of each entry is stored at the index of the entry, so the
+     * responses are in request order.
+     */
+    private BulkResponse runUnordered(final List<Request> entries) throws InterruptedException, ExecutionException {
+        final Mediator mediator = getMediator();
+        final Deadline deadline = getDeadline();
+        final String commandName = getCommandName();
+        final Response[] responses = new Response[entries.size()];
+        final AtomicInteger next = new AtomicInteger();
+        int nTasks = Math.min(Math.max(1, MAX_PARALLELISM_PER_REQUEST), entries.size());
+        LOGGER.debug("bulk: running {} entries with {} tasks", entries.size(), nTasks);
+        List<Future<?>> tasks = new ArrayList<>(nTasks);
+        try {
+            for (int i = 0; i < nTasks; i++) {
+                tasks.add(EXECUTOR.submit(withRequestId(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < responses.length) {
+                        if (deadline.isExpired()) {
+                            markExpired(commandName);
+                            responses[index] = errorResponse(Error.get(Deadline.ERR_DEADLINE_EXCEEDED, deadline.toString()));
+                        } else {
+                            responses[index] = runEntry(mediator, entries.get(index), metrics);
+                        }
+                    }
+                    return null;
+                })));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            // Stop claiming entries if the request thread is interrupted
+            next.set(responses.length);
+        }
+        BulkResponse response = new BulkResponse();
+        response.setEntries(Arrays.asList(responses));
+        return response;
+    }
+
+    /**
+     * Runs a single entry of a bulk request in its own metrics context.
+     * Errors are returned in the response of the entry, so a failing
+     * entry does not fail the other entries.
+     */
+    static Response runEntry(Mediator mediator, Request req, RequestMetrics metrics) {
+        String entity = req.getEntityVersion().getEntity();
+        String version = req.getEntityVersion().getVersion();
+        String operation = getOperationName(req);
+        RequestMetrics.Context metricCtx = metrics.startCrudRequest(operation, entity, version);
+        Error.reset();
+        Error.push("rest");
+        Error.push(BulkRequestCommand.class.getSimpleName());
+        Error.push(operation);
+        Error.push(entity);
+        Response response;
+        try {
+            if (req instanceof InsertionRequest) {
+                response = mediator.insert((InsertionRequest) req);
+            } else if (req instanceof SaveRequest) {
+                response = mediator.save((SaveRequest) req);
+            } else if (req instanceof UpdateRequest) {
+                response = mediator.update((UpdateRequest) req);
+            } else if (req instanceof DeleteRequest) {
+                response = mediator.delete((DeleteRequest) req);
+            } else if (req instanceof FindRequest) {
+                response = mediator.find((FindRequest) req);
+            } else {
+                throw Error.get(RestCrudConstants.ERR_REST_ERROR, "Unsupported request:" + req.getClass().getName());
+            }
+            if (!(req instanceof FindRequest)) {
+                SavedSearchResultCache.getInstance().invalidate(entity);
+            }
+        } catch (Error e) {
+            LOGGER.error("bulk:{} failure: {}", operation, e);
+            response = errorResponse(e);
+        } catch (Exception e) {
+            LOGGER.error("bulk:{} failure: {}", operation, e);
+            response = errorResponse(Error.get(RestCrudConstants.ERR_REST_ERROR, e.toString()));
+        } finally {
+            Error.reset();
+        }
+        metricCtx.markAllErrorsAndEndRequestMonitoring(response.getErrors());
+        return response;
+    }
+
+    private static String getOperationName(Request req) {
+        if (req instanceof InsertionRequest) {
+            return "insert";
+        } else if (req instanceof SaveRequest) {
+            return "save";
+        } else if (req instanceof UpdateRequest) {
+            return "update";
+        } else if (req instanceof DeleteRequest) {
+            return "delete";
+        } else if (req instanceof FindRequest) {
+            return "find";
+        } else {
+            return req.getClass().getSimpleName();
+        }
+    }
+
+    static Response errorResponse(Error error) {
+        Response response = new Response(NODE_FACTORY, OperationStatus.ERROR);
+        response.getErrors().add(error);
+        return response;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.redhat.lightblue.rest.util.ExecutorFactory;
+
+/**
+ * The executors commands run on when they are run asynchronously. Reads,
+ * writes and lock operations run on separate executors, so a slow
+ * backend for one kind of operation does not take the threads of the
+ * others.
+ *
+ * The executors are sized with the following system properties, where
+ * pool is read, write or lock:
+ * <ul>
+ * <li>lightblue.rest.executor.&lt;pool&gt;.threads: number of threads,
+ * default 32 for read, 16 for write and 8 for lock</li>
+ * <li>lightblue.rest.executor.&lt;pool&gt;.queueSize: number of commands
+ * that can wait for a thread, default 256. When the queue is full,
+ * commands are rejected.</li>
+ * </ul>
+ *
+ * If lightblue.rest.executor.virtual is true and the JVM supports
+ * virtual threads, each command runs on its own virtual thread instead,
+ * and at most threads + queueSize commands of a pool run at a time. See
+ * {@link ExecutorFactory}.
+ *
+ * The executors are only used when lightblue.rest.async is true.
+ * Otherwise, and for the metadata service, commands run on the container
+ * threads, and are only bounded by the container thread pool and, for
+ * crud, the bulkhead filter.
+ *
+ * The number of active threads and queued commands of each executor are
+ * published as api.executor.&lt;pool&gt;.active and queued.
+ */
+public final class CommandExecutors {
+
+    public enum Pool {
+        READ(32), WRITE(16), LOCK(8);
+
+        private final int defaultThreads;
+
+        Pool(int defaultThreads) {
+            this.defaultThreads = defaultThreads;
+        }
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final Map<Pool, ExecutorService> EXECUTORS = createExecutors();
+
+    private CommandExecutors() {
+    }
+
+    /**
+     * Returns the executor of the pool
+     */
+    public static ExecutorService get(Pool pool) {
+        return EXECUTORS.get(pool);
+    }
+
+    private static Map<Pool, ExecutorService> createExecutors() {
+        Map<Pool, ExecutorService> executors = new EnumMap<>(Pool.class);
+        for (Pool pool : Pool.values()) {
+            String prefix = "lightblue.rest.executor." + pool.getName() + ".";
+            int threads = Math.max(1, Integer.getInteger(prefix + "threads", pool.defaultThreads));
+            int queueSize = Math.max(1, Integer.getInteger(prefix + "queueSize", 256));
+            executors.put(pool, ExecutorFactory.newExecutor(pool.getName(), threads, queueSize));
+        }
+        return executors;
+    }
+}
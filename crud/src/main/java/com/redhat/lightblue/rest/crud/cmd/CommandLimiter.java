@@ -0,0 +1,163 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.bulkhead.AdaptiveLimiter;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Runs commands behind an adaptive concurrency limit, one limit for each
+ * command type. Commands rejected by the limiter are not run, and return
+ * an overloaded error that maps to 503.
+ *
+ * The limiter is disabled by default, and is enabled by setting the
+ * lightblue.rest.limiter.enabled system property to true. The limits
+ * are configured with the following system properties:
+ * <ul>
+ * <li>lightblue.rest.limiter.initialLimit: default 20</li>
+ * <li>lightblue.rest.limiter.minLimit: default 1</li>
+ * <li>lightblue.rest.limiter.maxLimit: default 200</li>
+ * <li>lightblue.rest.limiter.tolerance: the ratio of the current latency
+ * to the baseline latency above which the limit is decreased, default
+ * 2.0</li>
+ * <li>lightblue.rest.limiter.backoffRatio: the factor the limit is
+ * multiplied with when it is decreased, default 0.9</li>
+ * </ul>
+ *
+ * Only commands that wait for the backend in run() adapt the limits.
+ * Streaming commands, cache hits and requests past their deadline still
+ * take a slot while they run, but their near zero latency is not
+ * sampled. See {@link AbstractRestCommand#isLatencySample()}.
+ */
+public final class CommandLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandLimiter.class);
+
+    private static final String PREFIX = "lightblue.rest.limiter.";
+
+    private static final CommandLimiter INSTANCE = new CommandLimiter(Boolean.getBoolean(PREFIX + "enabled"),
+            MetricRegistryFactory.getJmxMetricRegistry());
+
+    private final boolean enabled;
+    private final MetricRegistry registry;
+    private final ConcurrentMap<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    CommandLimiter(boolean enabled, MetricRegistry registry) {
+        this.enabled = enabled;
+        this.registry = registry;
+    }
+
+    public static CommandLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs the command using the shared limiter
+     */
+    public static CallStatus run(AbstractRestCommand command) {
+        return INSTANCE.execute(command);
+    }
+
+    public CallStatus execute(AbstractRestCommand command) {
+        if (!enabled) {
+            return command.run();
+        }
+        AdaptiveLimiter limiter = getLimiter(command.getCommandName());
+        if (!limiter.tryAcquire()) {
+            LOGGER.debug("Rejected {}, limit={}", limiter.getName(), limiter.getLimit());
+            return new CallStatus(Error.get(AdaptiveLimiter.ERR_OVERLOADED, limiter.getName()));
+        }
+        long start = System.nanoTime();
+        try {
+            return command.run();
+        } finally {
+            complete(limiter, command, start);
+        }
+    }
+
+    /**
+     * Runs the command asynchronously on the executor of its pool using
+     * the shared limiter
+     */
+    public static CompletionStage<CallStatus> runAsync(AbstractRestCommand command) {
+        return INSTANCE.executeAsync(command);
+    }
+
+    public CompletionStage<CallStatus> executeAsync(AbstractRestCommand command) {
+        if (!enabled) {
+            return command.runAsync();
+        }
+        final AdaptiveLimiter limiter = getLimiter(command.getCommandName());
+        if (!limiter.tryAcquire()) {
+            LOGGER.debug("Rejected {}, limit={}", limiter.getName(), limiter.getLimit());
+            return CompletableFuture.completedFuture(new CallStatus(Error.get(AdaptiveLimiter.ERR_OVERLOADED, limiter.getName())));
+        }
+        final long start = System.nanoTime();
+        return command.runAsync().whenComplete((status, x) -> complete(limiter, command, start));
+    }
+
+    private static void complete(AdaptiveLimiter limiter, AbstractRestCommand command, long start) {
+        if (command.isLatencySample()) {
+            limiter.onComplete(System.nanoTime() - start);
+        } else {
+            limiter.release();
+        }
+    }
+
+    AdaptiveLimiter getLimiter(String commandName) {
+        AdaptiveLimiter limiter = limiters.get(commandName);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(commandName, this::createLimiter);
+        }
+        return limiter;
+    }
+
+    private AdaptiveLimiter createLimiter(String name) {
+        return new AdaptiveLimiter(name,
+                Integer.getInteger(PREFIX + "initialLimit", 20),
+                Integer.getInteger(PREFIX + "minLimit", 1),
+                Integer.getInteger(PREFIX + "maxLimit", 200),
+                getDouble(PREFIX + "tolerance", 2.0),
+                getDouble(PREFIX + "backoffRatio", 0.9),
+                registry);
+    }
+
+    private static double getDouble(String property, double defaultValue) {
+        String value = System.getProperty(property);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid value for {}: {}", property, value);
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -18,9 +18,12 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.InputStream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.redhat.lightblue.Response;
 import com.redhat.lightblue.crud.FindRequest;
 import com.redhat.lightblue.mediator.Mediator;
@@ -28,21 +31,36 @@ import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
 import com.redhat.lightblue.util.metrics.RequestMetrics;
 import com.redhat.lightblue.util.Error;
-import com.redhat.lightblue.util.JsonUtils;
 
 public class ExplainCommand extends AbstractRestCommand {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExplainCommand.class);
 
     private final String entity;
     private final String version;
-    private final String request;
+    private final RequestBody request;
     private final RequestMetrics metrics;
 
     public ExplainCommand(String entity, String version, String request, RequestMetrics metrics) {
         this(null, entity, version, request, metrics);
     }
 
+    public ExplainCommand(String entity, String version, InputStream request, RequestMetrics metrics) {
+        this(null, entity, version, request, metrics);
+    }
+
     public ExplainCommand(Mediator mediator, String entity, String version, String request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    public ExplainCommand(Mediator mediator, String entity, String version, InputStream request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    public ExplainCommand(Mediator mediator, String entity, String version, JsonNode request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    private ExplainCommand(Mediator mediator, String entity, String version, RequestBody request, RequestMetrics metrics) {
         super(mediator);
         this.entity = entity;
         this.version = version;
@@ -62,7 +80,7 @@ public class ExplainCommand extends AbstractRestCommand {
         try {
             FindRequest ireq;
             try {
-                ireq = getJsonTranslator().parse(FindRequest.class, JsonUtils.json(request));
+                ireq = getJsonTranslator().parse(FindRequest.class, request.toJson(getRequestFormat()));
             } catch (Exception e) {
                 Error error = Error.get(RestCrudConstants.ERR_REST_FIND, "Error during the parse of the request"); 	
                 metricCtx.markRequestException(error);
@@ -79,6 +97,9 @@ public class ExplainCommand extends AbstractRestCommand {
                 return new CallStatus(error);
             }
             addCallerId(ireq);
+            if (isExpired()) {
+                return expired();
+            }
             r = getMediator().explain(ireq);
             return new CallStatus(r);
         } catch (Error e) {
@@ -0,0 +1,161 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Coalesces identical concurrent find requests. The first request with a
+ * given fingerprint calls the mediator, and the identical requests that
+ * arrive while that call is in flight wait for it and share its
+ * response. Nothing is cached: once the call completes, the next request
+ * calls the mediator again.
+ *
+ * The fingerprint contains the entity, version, the caller, and the find
+ * request, which contains the query, projection, sort and range. The
+ * caller roles cannot be listed, so the caller principal is used
+ * instead: requests of the same principal have the same roles.
+ *
+ * Coalescing is enabled by default. It can be disabled using the system
+ * property lightblue.rest.find.coalesce=false, or for an entity using
+ * lightblue.rest.find.coalesce.&lt;entity&gt;=false. The number of
+ * requests that shared the response of another request is counted in
+ * the request metrics registry as api.find.coalesced.
+ *
+ * A request waits for the in-flight call at most until its own
+ * deadline, and fails with a deadline exceeded error after that. The
+ * in-flight call is not affected.
+ */
+public class FindCoalescer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FindCoalescer.class);
+
+    public static final String ENABLED_PROPERTY = "lightblue.rest.find.coalesce";
+
+    private static final FindCoalescer INSTANCE = new FindCoalescer(MetricRegistryFactory.getJmxMetricRegistry());
+
+    private final ConcurrentMap<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public FindCoalescer(MetricRegistry registry) {
+        coalesced = registry.counter(MetricRegistry.name("api", "find", "coalesced"));
+    }
+
+    public static FindCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns if find requests for the entity are coalesced
+     */
+    public boolean isEnabled(String entity) {
+        String value = System.getProperty(ENABLED_PROPERTY + "." + entity);
+        if (value == null) {
+            value = System.getProperty(ENABLED_PROPERTY, "true");
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Builds the fingerprint of the find request
+     */
+    public static String fingerprint(String entity, String version, String principal, FindRequest req) {
+        return entity + '\u0000' + version + '\u0000' + principal + '\u0000' + req.toJson().toString();
+    }
+
+    /**
+     * Returns the response of the in-flight call with the same
+     * fingerprint if there is one, otherwise calls find and shares its
+     * response with the identical requests that arrive while it runs.
+     */
+    public Response find(String fingerprint, Supplier<Response> find) {
+        return find(fingerprint, Deadline.NONE, find);
+    }
+
+    /**
+     * Same as {@link #find(String, Supplier)}, but waits for an in-flight
+     * call only until the deadline.
+     *
+     * @throws Error with code Deadline.ERR_DEADLINE_EXCEEDED if the
+     * deadline passes while waiting for the in-flight call
+     */
+    public Response find(String fingerprint, Deadline deadline, Supplier<Response> find) {
+        CompletableFuture<Response> call = new CompletableFuture<>();
+        CompletableFuture<Response> existing = inFlight.putIfAbsent(fingerprint, call);
+        if (existing != null) {
+            coalesced.inc();
+            LOGGER.debug("Waiting for in-flight find");
+            return await(existing, deadline);
+        }
+        try {
+            Response response = find.get();
+            call.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(fingerprint, call);
+        }
+    }
+
+    private static Response await(CompletableFuture<Response> call, Deadline deadline) {
+        if (deadline.isNone()) {
+            try {
+                return call.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            return call.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.debug("Deadline {} passed while waiting for in-flight find", deadline);
+            throw Error.get(Deadline.ERR_DEADLINE_EXCEEDED, deadline.toString());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Error.get(Deadline.ERR_DEADLINE_EXCEEDED, "interrupted");
+        }
+    }
+}
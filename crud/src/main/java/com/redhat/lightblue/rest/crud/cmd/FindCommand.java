@@ -18,15 +18,18 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 
 import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.redhat.lightblue.OperationStatus;
@@ -37,9 +40,10 @@ import com.redhat.lightblue.mediator.Mediator;
 import com.redhat.lightblue.mediator.StreamingResponse;
 import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.rest.util.NonBlockingOutput;
 import com.redhat.lightblue.util.metrics.RequestMetrics;
 import com.redhat.lightblue.util.Error;
-import com.redhat.lightblue.util.JsonUtils;
 
 /**
  *
@@ -48,15 +52,23 @@ import com.redhat.lightblue.util.JsonUtils;
 public class FindCommand extends AbstractRestCommand {
     private static final Logger LOGGER = LoggerFactory.getLogger(FindCommand.class);
 
+    /**
+     * Number of streamed documents after which the generator is
+     * flushed to the client. Between flushes, output is buffered in
+     * the generator's fixed size buffer.
+     */
+    public static final int STREAM_FLUSH_INTERVAL = Integer.getInteger("lightblue.rest.find.stream.flushInterval", 64);
+
     private final String entity;
     private final String version;
-    private final String request;
+    private final RequestBody request;
     private final boolean stream;
 
     private final RequestMetrics metrics;
 
     private StreamingResponse streamResponse;
     private RequestMetrics.Context metricCtx;
+    private FindCursor cursor;
 
     public FindCommand(String entity, String version, String request, RequestMetrics metrics) {
         this(null, entity, version, request, metrics);
@@ -66,11 +78,27 @@ public class FindCommand extends AbstractRestCommand {
         this(null, entity, version, request, stream, metrics);
     }
 
+    public FindCommand(String entity, String version, InputStream request, boolean stream, RequestMetrics metrics) {
+        this(null, entity, version, request, stream, metrics);
+    }
+
     public FindCommand(Mediator mediator, String entity, String version, String request, RequestMetrics metrics) {
         this(mediator, entity, version, request, false, metrics);
     }
+
+    public FindCommand(Mediator mediator, String entity, String version, JsonNode request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), false, metrics);
+    }
     
     public FindCommand(Mediator mediator, String entity, String version, String request, boolean stream, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), stream, metrics);
+    }
+
+    public FindCommand(Mediator mediator, String entity, String version, InputStream request, boolean stream, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), stream, metrics);
+    }
+
+    private FindCommand(Mediator mediator, String entity, String version, RequestBody request, boolean stream, RequestMetrics metrics) {
         super(mediator);
         this.entity = entity;
         this.version = version;
@@ -79,6 +107,17 @@ public class FindCommand extends AbstractRestCommand {
         this.metrics = metrics;
     }
 
+    /**
+     * Runs the find in cursor mode. At most pageSize documents are
+     * returned, starting after the document the continuation token was
+     * built for. If there are more documents, the response contains the
+     * continuation token for the next page. A null continuation returns
+     * the first page. Cursor mode cannot be used with streaming.
+     */
+    public void setCursor(int pageSize, String continuation) {
+        this.cursor = new FindCursor(pageSize, continuation);
+    }
+
     /**
      * The streaming protocol:
      * <pre>
@@ -96,43 +135,214 @@ public class FindCommand extends AbstractRestCommand {
      *      resultMetadata: { metadata }
      *   }
      * </pre>
+     *
+     * The objects are written in the response format of the command. In
+     * Smile and CBOR, they are a sequence of binary root values.
      */
     public StreamingOutput getResponseStream() {
-        return new StreamingOutput() {            
+        return getResponseStream(STREAM_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Returns the response stream, flushing the output every
+     * <code>flushInterval</code> documents. The documents are written
+     * using a single generator bound to the output stream, without
+     * building an intermediate tree for each chunk.
+     */
+    public StreamingOutput getResponseStream(int flushInterval) {
+        final int interval = Math.max(1, flushInterval);
+        return new StreamingOutput() {
             @Override
             public void write(OutputStream os) {
                 try {
+                    StreamWriter writer = new StreamWriter(os);
+
                     // Send the header
-                    Writer writer=new OutputStreamWriter(os);
-                    writer.write(streamResponse.toJson().toString());
+                    writer.writeNext();
                     writer.flush();
-                    
+
                     // Send the docs
-                    while(streamResponse.documentStream.hasNext()) {
-                        DocCtx doc=streamResponse.documentStream.next();
-                        ObjectNode chunkNode=JsonNodeFactory.instance.objectNode();
-                        if(!streamResponse.documentStream.hasNext()) {
-                            chunkNode.set("last",JsonNodeFactory.instance.booleanNode(true));
+                    int n = 0;
+                    while (writer.writeNext()) {
+                        if (++n % interval == 0) {
+                            writer.flush();
                         }
-                        chunkNode.set("processed",doc.getOutputDocument().getRoot());
-                        if(doc.getResultMetadata()!=null)
-                            chunkNode.set("resultMetadata",doc.getResultMetadata().toJson());
-                        writer.write(chunkNode.toString());
                     }
-                    writer.flush();
+                    writer.finish();
                 } catch(Exception e) {
                     metricCtx.markRequestException(e);
                 }
                 finally {
-                    if (streamResponse.documentStream != null) {
-                        streamResponse.documentStream.close();
-                    }
-                    metricCtx.endRequestMonitoring();
+                    closeStream();
+                }
+            }
+        };
+    }
+
+    public NonBlockingOutput.ChunkSource getResponseChunks() {
+        return getResponseChunks(STREAM_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Returns the streaming response as a source of chunks for
+     * non-blocking output. Each chunk contains at most
+     * <code>flushInterval</code> documents, and documents are read from
+     * the document stream only when the next chunk is requested. The
+     * chunks follow the same protocol as {@link #getResponseStream()}.
+     */
+    public NonBlockingOutput.ChunkSource getResponseChunks(int flushInterval) {
+        final int interval = Math.max(1, flushInterval);
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return new NonBlockingOutput.ChunkSource() {
+            private StreamWriter writer;
+            private boolean finished;
+
+            @Override
+            public byte[] next() throws IOException {
+                if (finished) {
+                    return null;
+                }
+                if (writer == null) {
+                    // The first chunk starts with the header
+                    writer = new StreamWriter(buffer);
+                    writer.writeNext();
+                }
+                boolean more = true;
+                for (int n = 0; n < interval && (more = writer.writeNext()); n++) {
+                }
+                if (more) {
+                    writer.flush();
+                } else {
+                    writer.finish();
+                    finished = true;
+                }
+                if (buffer.size() == 0) {
+                    return null;
+                }
+                byte[] chunk = buffer.toByteArray();
+                buffer.reset();
+                return chunk;
+            }
+
+            @Override
+            public void close(Throwable error) {
+                if (error != null) {
+                    metricCtx.markRequestException(error instanceof Exception ? (Exception) error : new RuntimeException(error));
                 }
+                closeStream();
             }
         };
     }
 
+    private void closeStream() {
+        try {
+            if (streamResponse.documentStream != null) {
+                streamResponse.documentStream.close();
+            }
+        } finally {
+            metricCtx.endRequestMonitoring();
+        }
+    }
+
+    /**
+     * Writes the streaming response one element at a time: first the
+     * header, then the documents
+     */
+    private final class StreamWriter {
+        private final JsonGenerator generator;
+        private boolean headerWritten;
+        private boolean done;
+
+        StreamWriter(OutputStream os) throws IOException {
+            generator = getResponseFormat().getFactory().createGenerator(os);
+            if (!getResponseFormat().isBinary()) {
+                // Binary formats have no separators between root values
+                generator.setRootValueSeparator(null);
+            }
+        }
+
+        /**
+         * Writes the header if it is not written yet, otherwise the next
+         * document. Returns false if there is nothing left to write.
+         */
+        boolean writeNext() throws IOException {
+            if (!headerWritten) {
+                generator.writeTree(streamResponse.toJson());
+                headerWritten = true;
+                return true;
+            }
+            if (done || !streamResponse.documentStream.hasNext()) {
+                done = true;
+                return false;
+            }
+            if (isExpired()) {
+                // The client stopped waiting, so stop reading
+                // the cursor. It is closed by the caller.
+                markExpired(getCommandName());
+                ObjectNode expired = (ObjectNode) expiredStatus().toJson();
+                expired.put("last", true);
+                generator.writeTree(expired);
+                done = true;
+                return true;
+            }
+            DocCtx doc = streamResponse.documentStream.next();
+            generator.writeStartObject();
+            if (!streamResponse.documentStream.hasNext()) {
+                generator.writeBooleanField("last", true);
+            }
+            generator.writeFieldName("processed");
+            generator.writeTree(doc.getOutputDocument().getRoot());
+            if (doc.getResultMetadata() != null) {
+                generator.writeFieldName("resultMetadata");
+                generator.writeTree(doc.getResultMetadata().toJson());
+            }
+            generator.writeEndObject();
+            return true;
+        }
+
+        void flush() throws IOException {
+            generator.flush();
+        }
+
+        void finish() throws IOException {
+            generator.close();
+        }
+    }
+
+    /**
+     * Runs the find, sharing the response of an identical in-flight
+     * find if coalescing is enabled for the entity. Returns null if the
+     * deadline of this request passed while it waited for the in-flight
+     * find.
+     *
+     * The latency of a request that shares the response of another one
+     * is not sampled, it only waited for the other request.
+     */
+    private Response find(final FindRequest req) {
+        FindCoalescer coalescer = FindCoalescer.getInstance();
+        if (coalescer.isEnabled(entity)) {
+            String fingerprint = FindCoalescer.fingerprint(entity, version, getCallerId().getPrincipal(), req);
+            final boolean[] called = new boolean[1];
+            try {
+                return coalescer.find(fingerprint, getDeadline(), () -> {
+                    called[0] = true;
+                    return getMediator().find(req);
+                });
+            } catch (Error e) {
+                if (!called[0] && Deadline.ERR_DEADLINE_EXCEEDED.equals(e.getErrorCode())) {
+                    return null;
+                }
+                throw e;
+            } finally {
+                if (!called[0]) {
+                    skipLatencySample();
+                }
+            }
+        } else {
+            return getMediator().find(req);
+        }
+    }
+
     @Override
     public CallStatus run() {
         if (stream) {
@@ -149,7 +359,7 @@ public class FindCommand extends AbstractRestCommand {
         try {
             FindRequest ireq;
             try {
-                ireq = getJsonTranslator().parse(FindRequest.class, JsonUtils.json(request));
+                ireq = getJsonTranslator().parse(FindRequest.class, request.toJson(getRequestFormat()));
             } catch (Exception e) {
                 Error error = Error.get(RestCrudConstants.ERR_REST_FIND, "Error during the parse of the request"); 	
                 metricCtx.markRequestException(error);
@@ -166,13 +376,30 @@ public class FindCommand extends AbstractRestCommand {
                 return new CallStatus(error);
             }
             addCallerId(ireq);
+            if (cursor != null) {
+                if (stream) {
+                    throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, "cursor cannot be used with stream");
+                }
+                cursor.apply(ireq);
+            }
+            if (isExpired()) {
+                return expired();
+            }
             // Until streaming is supported in mediator, we'll get the
             // results and stream them
             if(stream) {
+                // The documents are read while the response is written
+                skipLatencySample();
                 streamResponse = getMediator().findAndStream(ireq);
                 return new CallStatus(new Response(JsonNodeFactory.withExactBigDecimals(true), OperationStatus.COMPLETE));
             } else {
-                r = getMediator().find(ireq);
+                r = find(ireq);
+                if (r == null) {
+                    return expired();
+                }
+                if (cursor != null && (r.getErrors() == null || r.getErrors().isEmpty())) {
+                    return new CallStatus(cursor.result(r));
+                }
                 return new CallStatus(r);
             }
         } catch (Error e) {
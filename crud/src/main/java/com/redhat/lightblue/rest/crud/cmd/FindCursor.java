@@ -0,0 +1,301 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.query.Projection;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonDoc;
+import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.Path;
+import com.redhat.lightblue.util.SimpleJsonObject;
+
+/**
+ * Keyset pagination for find requests. Instead of skipping the
+ * documents of the earlier pages using from/to, the request is rewritten
+ * to only return the documents that come after the last document of the
+ * previous page in sort order. So, a deep page costs the same as the
+ * first page.
+ *
+ * The sort key values of the last document of a page are returned to
+ * the caller as an opaque continuation token. When the caller sends the
+ * token back, the query of the request is combined with a range query on
+ * the sort keys:
+ * <pre>
+ *   k1 > v1 or (k1 = v1 and k2 > v2) or ...
+ * </pre>
+ * using &lt; for descending keys. The request must have a sort, and the
+ * sort keys should identify a document uniquely, for instance by ending
+ * the sort with _id. Otherwise documents with the same sort key values
+ * as the last document of a page are skipped. A missing sort value is
+ * kept as null in the token. Nulls sort first, so k &gt; null is
+ * written as k != null, and k &lt; v also matches null.
+ *
+ * The sort fields are added to the projection, because the token is
+ * built from the returned documents. The ones the caller did not ask
+ * for are removed from the page before it is returned.
+ */
+final class FindCursor {
+
+    /**
+     * Name of the response field containing the continuation token
+     */
+    static final String CONTINUATION = "continuation";
+
+    private static final JsonNodeFactory NODE_FACTORY = JsonNodeFactory.withExactBigDecimals(true);
+
+    private final int pageSize;
+    private final String continuation;
+    private final List<SortField> sortFields = new ArrayList<>();
+    private final List<Path> addedFields = new ArrayList<>();
+    private JsonNode sort;
+
+    private static final class SortField {
+        private final String field;
+        private final boolean desc;
+
+        SortField(String field, boolean desc) {
+            this.field = field;
+            this.desc = desc;
+        }
+    }
+
+    FindCursor(int pageSize, String continuation) {
+        this.pageSize = pageSize;
+        this.continuation = continuation == null || continuation.isEmpty() ? null : continuation;
+    }
+
+    /**
+     * Rewrites the find request to return the page after the
+     * continuation token. One more document than the page size is
+     * requested, to find out if there is a next page.
+     */
+    void apply(FindRequest req) {
+        if (pageSize <= 0) {
+            throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, "pageSize:" + pageSize);
+        }
+        if (req.getSort() == null) {
+            throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, "sort is required");
+        }
+        sort = req.getSort().toJson();
+        parseSort(sort);
+
+        if (continuation != null) {
+            ObjectNode and = NODE_FACTORY.objectNode();
+            ArrayNode terms = and.putArray("$and");
+            if (req.getQuery() != null) {
+                terms.add(req.getQuery().toJson());
+            }
+            terms.add(keysetQuery(decode(continuation)));
+            req.setQuery(QueryExpression.fromJson(and));
+        }
+
+        if (req.getProjection() != null) {
+            ArrayNode projection = NODE_FACTORY.arrayNode();
+            projection.add(req.getProjection().toJson());
+            for (SortField f : sortFields) {
+                Path field = new Path(f.field);
+                if (!isIncluded(req.getProjection().getFieldInclusion(field))) {
+                    addedFields.add(field);
+                }
+                projection.add(NODE_FACTORY.objectNode().put("field", f.field).put("include", true));
+            }
+            req.setProjection(Projection.fromJson(projection));
+        }
+
+        req.setFrom(0L);
+        req.setTo((long) pageSize);
+    }
+
+    /**
+     * Trims the response to the page size, and if there is a next page,
+     * adds the continuation token for it to the response. The response
+     * itself is not modified, it may be shared with other requests.
+     */
+    SimpleJsonObject result(Response r) {
+        ObjectNode node = (ObjectNode) r.toJson();
+        JsonNode data = r.getEntityData();
+        if (data instanceof ArrayNode) {
+            ArrayNode page = NODE_FACTORY.arrayNode();
+            for (int i = 0; i < data.size() && i < pageSize; i++) {
+                page.add(strip(data.get(i)));
+            }
+            node.set("processed", page);
+            if (data.size() > pageSize) {
+                node.put(CONTINUATION, encode(data.get(pageSize - 1)));
+            }
+        }
+        return new SimpleJsonObject(node);
+    }
+
+    private static boolean isIncluded(Projection.Inclusion inclusion) {
+        return inclusion == Projection.Inclusion.explicit_inclusion
+                || inclusion == Projection.Inclusion.implicit_inclusion;
+    }
+
+    /**
+     * Returns a copy of the document without the sort fields that were
+     * added to the projection
+     */
+    private JsonNode strip(JsonNode doc) {
+        if (addedFields.isEmpty() || !(doc instanceof ObjectNode)) {
+            return doc;
+        }
+        ObjectNode copy = ((ObjectNode) doc).deepCopy();
+        for (Path field : addedFields) {
+            remove(copy, field.toString().split("\\."), 0);
+        }
+        return copy;
+    }
+
+    /**
+     * Removes the field, and the parents that are left empty, because
+     * they were only returned for the field
+     */
+    private static void remove(ObjectNode node, String[] segments, int i) {
+        if (i == segments.length - 1) {
+            node.remove(segments[i]);
+        } else {
+            JsonNode child = node.get(segments[i]);
+            if (child instanceof ObjectNode) {
+                remove((ObjectNode) child, segments, i + 1);
+                if (child.size() == 0) {
+                    node.remove(segments[i]);
+                }
+            }
+        }
+    }
+
+    private void parseSort(JsonNode node) {
+        if (node instanceof ArrayNode) {
+            for (JsonNode key : node) {
+                parseSort(key);
+            }
+        } else if (node instanceof ObjectNode && node.size() == 1) {
+            Map.Entry<String, JsonNode> key = node.fields().next();
+            sortFields.add(new SortField(key.getKey(), "$desc".equals(key.getValue().asText())));
+        } else {
+            throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, "sort:" + node);
+        }
+    }
+
+    /**
+     * Builds k1 > v1 or (k1 = v1 and k2 > v2) or ...
+     */
+    private JsonNode keysetQuery(ArrayNode values) {
+        ObjectNode or = NODE_FACTORY.objectNode();
+        ArrayNode alternatives = or.putArray("$or");
+        for (int i = 0; i < sortFields.size(); i++) {
+            SortField f = sortFields.get(i);
+            JsonNode value = values.get(i);
+            if (f.desc && value.isNull()) {
+                // Nothing comes after null in descending order
+                continue;
+            }
+            ObjectNode and = NODE_FACTORY.objectNode();
+            ArrayNode terms = and.putArray("$and");
+            for (int j = 0; j < i; j++) {
+                terms.add(comparison(sortFields.get(j).field, "=", values.get(j)));
+            }
+            if (value.isNull()) {
+                terms.add(comparison(f.field, "!=", value));
+            } else if (f.desc) {
+                ObjectNode lessOrNull = NODE_FACTORY.objectNode();
+                lessOrNull.putArray("$or")
+                        .add(comparison(f.field, "<", value))
+                        .add(comparison(f.field, "=", NODE_FACTORY.nullNode()));
+                terms.add(lessOrNull);
+            } else {
+                terms.add(comparison(f.field, ">", value));
+            }
+            alternatives.add(and);
+        }
+        if (alternatives.size() == 0) {
+            // The last page ended with the last possible key, nothing matches
+            ObjectNode none = NODE_FACTORY.objectNode();
+            none.putArray("$and")
+                    .add(comparison(sortFields.get(0).field, "=", NODE_FACTORY.nullNode()))
+                    .add(comparison(sortFields.get(0).field, "!=", NODE_FACTORY.nullNode()));
+            return none;
+        }
+        return or;
+    }
+
+    private static JsonNode comparison(String field, String op, JsonNode value) {
+        ObjectNode node = NODE_FACTORY.objectNode();
+        node.put("field", field);
+        node.put("op", op);
+        node.set("rvalue", value);
+        return node;
+    }
+
+    private String encode(JsonNode lastDoc) {
+        JsonDoc doc = new JsonDoc(lastDoc);
+        ArrayNode values = NODE_FACTORY.arrayNode();
+        for (SortField f : sortFields) {
+            JsonNode value = doc.get(new Path(f.field));
+            if (value == null) {
+                values.addNull();
+            } else if (value.isValueNode()) {
+                values.add(value);
+            } else {
+                throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, "sort key " + f.field + " is not a value");
+            }
+        }
+        ObjectNode token = NODE_FACTORY.objectNode();
+        token.set("s", sort);
+        token.set("v", values);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ArrayNode decode(String token) {
+        JsonNode node;
+        try {
+            node = JsonUtils.json(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, token);
+        }
+        JsonNode values = node.get("v");
+        // The token is only valid for the sort it was built for
+        if (!sort.equals(node.get("s")) || !(values instanceof ArrayNode) || values.size() != sortFields.size()) {
+            throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, token);
+        }
+        for (Iterator<JsonNode> itr = values.elements(); itr.hasNext();) {
+            if (!itr.next().isValueNode()) {
+                throw Error.get(RestCrudConstants.ERR_INVALID_CONTINUATION, token);
+            }
+        }
+        return (ArrayNode) values;
+    }
+}
@@ -21,15 +21,13 @@ package com.redhat.lightblue.rest.crud.cmd;
 import java.util.HashSet;
 import java.util.Set;
 
-import javax.servlet.http.HttpServletRequest;
-
-import org.jboss.resteasy.spi.ResteasyProviderFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.ClientIdentification;
 import com.redhat.lightblue.OperationStatus;
 import com.redhat.lightblue.config.LightblueFactory;
 import com.redhat.lightblue.crud.CrudConstants;
@@ -81,13 +79,13 @@ public class GenerateCommand extends AbstractRestCommand {
             DefaultMetadataResolver mdResolver = new DefaultMetadataResolver(md);
             Path fieldPath = new Path(field);
             mdResolver.initialize(entity, version, null, new FieldProjection(fieldPath, true, false));
-            HttpServletRequest sreq = ResteasyProviderFactory.getContextData(HttpServletRequest.class);
+            // The caller is captured when the command is created, so
+            // this works on the executor threads too
+            ClientIdentification caller = getCallerId();
             Set<String> userRoles = new HashSet<>();
-            if (sreq != null) {
-                for (String role : mdResolver.getMetadataRoles()) {
-                    if (sreq.isUserInRole(role)) {
-                        userRoles.add(role);
-                    }
+            for (String role : mdResolver.getMetadataRoles()) {
+                if (caller.isUserInRole(role)) {
+                    userRoles.add(role);
                 }
             }
             LOGGER.debug("user roles:{}", userRoles);
@@ -18,9 +18,12 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.InputStream;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.redhat.lightblue.Response;
 import com.redhat.lightblue.crud.InsertionRequest;
 import com.redhat.lightblue.mediator.Mediator;
@@ -28,7 +31,6 @@ import com.redhat.lightblue.rest.CallStatus;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
 import com.redhat.lightblue.util.metrics.RequestMetrics;
 import com.redhat.lightblue.util.Error;
-import com.redhat.lightblue.util.JsonUtils;
 
 /**
  *
@@ -39,14 +41,30 @@ public class InsertCommand extends AbstractRestCommand {
 
     private final String entity;
     private final String version;
-    private final String request;
+    private final RequestBody request;
     private final RequestMetrics metrics;
 
     public InsertCommand(String entity, String version, String request, RequestMetrics metrics) {
         this(null, entity, version, request, metrics);
     }
 
+    public InsertCommand(String entity, String version, InputStream request, RequestMetrics metrics) {
+        this(null, entity, version, request, metrics);
+    }
+
     public InsertCommand(Mediator mediator, String entity, String version, String request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    public InsertCommand(Mediator mediator, String entity, String version, InputStream request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    public InsertCommand(Mediator mediator, String entity, String version, JsonNode request, RequestMetrics metrics) {
+        this(mediator, entity, version, RequestBody.of(request), metrics);
+    }
+
+    private InsertCommand(Mediator mediator, String entity, String version, RequestBody request, RequestMetrics metrics) {
         super(mediator);
         this.entity = entity;
         this.version = version;
@@ -54,6 +72,11 @@ public class InsertCommand extends AbstractRestCommand {
         this.metrics = metrics;
     }
 
+    @Override
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.WRITE;
+    }
+
     @Override
     public CallStatus run() {
         RequestMetrics.Context metricCtx = metrics.startCrudRequest("insert", entity, version);
@@ -64,10 +87,14 @@ public class InsertCommand extends AbstractRestCommand {
         Error.push(entity);
         Response r = null;
         try {
-            InsertionRequest ireq = getJsonTranslator().parse(InsertionRequest.class, JsonUtils.json(request));
+            InsertionRequest ireq = getJsonTranslator().parse(InsertionRequest.class, request.toJson(getRequestFormat()));
             validateReq(ireq, entity, version);
             addCallerId(ireq);
+            if (isExpired()) {
+                return expired();
+            }
             r = getMediator().insert(ireq);
+            SavedSearchResultCache.getInstance().invalidate(entity);
             return new CallStatus(r);
         } catch (Error e) {
             metricCtx.markRequestException(e);
@@ -0,0 +1,69 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.util.JsonUtils;
+
+/**
+ * The body of a request passed to a command. The body is kept in the
+ * form it was received in, and parsed only when the command runs, so
+ * parse errors are still reported by the command. A body received as an
+ * InputStream is parsed directly from the stream, without building a
+ * String copy of it, in the format given by the command. String bodies
+ * are always json text.
+ */
+final class RequestBody {
+
+    private final String string;
+    private final InputStream stream;
+    private final JsonNode json;
+
+    private RequestBody(String string, InputStream stream, JsonNode json) {
+        this.string = string;
+        this.stream = stream;
+        this.json = json;
+    }
+
+    static RequestBody of(String request) {
+        return new RequestBody(request, null, null);
+    }
+
+    static RequestBody of(InputStream request) {
+        return new RequestBody(null, request, null);
+    }
+
+    static RequestBody of(JsonNode request) {
+        return new RequestBody(null, null, request);
+    }
+
+    JsonNode toJson(WireFormat format) throws IOException {
+        if (json != null) {
+            return json;
+        } else if (stream != null) {
+            return format.readTree(stream);
+        } else {
+            return JsonUtils.json(string);
+        }
+    }
+}
@@ -99,7 +99,27 @@ public class RunSavedSearchCommand extends AbstractRestCommand {
                 req.setTo(to.longValue());
             }
             LOGGER.debug("Request:{}",req);
+            SavedSearchResultCache cache=SavedSearchResultCache.getInstance();
+            long ttl=cache.getTTL(searchName);
+            String key=null;
+            long generation=0;
+            if(ttl>0) {
+                key=SavedSearchResultCache.key(searchName,entity,version,callerId.getPrincipal(),req);
+                Response cached=cache.get(key);
+                if(cached!=null) {
+                    skipLatencySample();
+                    r=cached;
+                    return new CallStatus(r);
+                }
+                generation=cache.getGeneration(entity);
+            }
+            if(isExpired()) {
+                return expired();
+            }
             r = getMediator().find(req);
+            if(key!=null&&(r.getErrors()==null||r.getErrors().isEmpty())) {
+                cache.put(key,entity,generation,ttl,r);
+            }
             return new CallStatus(r);
         } catch (Error e) {
             metricCtx.markRequestException(e);
@@ -0,0 +1,159 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.util.metrics.MetricRegistryFactory;
+
+/**
+ * Caches the results of saved searches. The cache is opt-in: a saved
+ * search is cached only if it has a positive TTL, set using the system
+ * property lightblue.rest.savedSearch.cache.ttl.&lt;searchName&gt;, or
+ * for all saved searches using lightblue.rest.savedSearch.cache.ttl. TTLs
+ * are in milliseconds.
+ *
+ * A cached result is keyed by the saved search name, entity, version,
+ * the caller, and the find request built from the saved search, which
+ * contains the bound parameters, projection, sort and range. The cache
+ * holds at most lightblue.rest.savedSearch.cache.maxSize results, and the
+ * least recently used results are evicted first.
+ *
+ * Writes to an entity through this node invalidate all cached results
+ * for that entity. Every entity has a generation number that is
+ * incremented on each write, and a result is only used if it was
+ * computed in the current generation of its entity. Writes done through
+ * other nodes are not seen, so the TTL should be chosen accordingly.
+ *
+ * Hits and misses are counted in the request metrics registry as
+ * api.savedSearch.cache.hit and api.savedSearch.cache.miss.
+ */
+public class SavedSearchResultCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SavedSearchResultCache.class);
+
+    public static final String TTL_PROPERTY = "lightblue.rest.savedSearch.cache.ttl";
+
+    public static final long DEFAULT_TTL = Long.getLong(TTL_PROPERTY, 0);
+
+    public static final int MAX_SIZE = Integer.getInteger("lightblue.rest.savedSearch.cache.maxSize", 1000);
+
+    private static final SavedSearchResultCache INSTANCE =
+            new SavedSearchResultCache(MAX_SIZE, MetricRegistryFactory.getJmxMetricRegistry());
+
+    private static final class Entry {
+        private final Response response;
+        private final String entity;
+        private final long generation;
+        private final long expiresAt;
+
+        Entry(Response response, String entity, long generation, long expiresAt) {
+            this.response = response;
+            this.entity = entity;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Cache<String, Entry> cache;
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    public SavedSearchResultCache(int maxSize, MetricRegistry registry) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+        hits = registry.counter(MetricRegistry.name("api", "savedSearch", "cache", "hit"));
+        misses = registry.counter(MetricRegistry.name("api", "savedSearch", "cache", "miss"));
+    }
+
+    public static SavedSearchResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the TTL of the given saved search in milliseconds. A
+     * non-positive TTL means the results of the search are not cached.
+     */
+    public long getTTL(String searchName) {
+        return Long.getLong(TTL_PROPERTY + "." + searchName, DEFAULT_TTL);
+    }
+
+    /**
+     * Builds the cache key for the given saved search request
+     */
+    public static String key(String searchName, String entity, String version, String principal, FindRequest req) {
+        return searchName + '\u0000' + entity + '\u0000' + version + '\u0000' + principal + '\u0000' + req.toJson().toString();
+    }
+
+    /**
+     * Returns the current generation of the entity. The generation must
+     * be read before running the search whose result will be cached.
+     */
+    public long getGeneration(String entity) {
+        AtomicLong generation = generations.get(entity);
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * Returns the cached response, or null if there is no valid cached
+     * response for the key
+     */
+    public Response get(String key) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis() && entry.generation == getGeneration(entry.entity)) {
+                hits.inc();
+                return entry.response;
+            }
+            cache.invalidate(key);
+        }
+        misses.inc();
+        return null;
+    }
+
+    /**
+     * Caches the response of a saved search computed in the given
+     * generation of the entity
+     */
+    public void put(String key, String entity, long generation, long ttl, Response response) {
+        cache.put(key, new Entry(response, entity, generation, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Invalidates all cached results for the entity
+     */
+    public void invalidate(String entity) {
+        if (entity != null) {
+            generations.computeIfAbsent(entity, e -> new AtomicLong()).incrementAndGet();
+            LOGGER.debug("Invalidated saved search results for {}", entity);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Request;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.config.JsonTranslator;
+import com.redhat.lightblue.crud.BulkRequest;
+import com.redhat.lightblue.mediator.Mediator;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * Runs a bulk request received as a stream of newline delimited
+ * entries. Each entry has the same format as an entry of a bulk
+ * request:
+ * <pre>
+ *   { "op": "find", "request": { ... } }
+ *   { "op": "insert", "request": { ... } }
+ * </pre>
+ * The entries are run as they are read from the request, and the
+ * response of each entry is written as soon as it is available, so
+ * neither the request nor the response is kept in memory. The response
+ * contains one line for each entry:
+ * <pre>
+ *   { "seq": 0, "response": { ... } }
+ *   { "seq": 1, "response": { ... } }
+ * </pre>
+ * where seq is the index of the entry in the request. If the bulk is
+ * ordered, the entries are run one after the other, and the responses
+ * are in request order. Otherwise, up to
+ * {@link BulkRequestCommand#MAX_PARALLELISM_PER_REQUEST} entries run in
+ * parallel on the bulk executor, and the responses are written in the
+ * order they complete.
+ *
+ * If an entry cannot be read, for instance because it is not valid
+ * json, the stream ends. The responses of the entries already running
+ * are written, followed by a last line with the seq of the unreadable
+ * entry and the error.
+ */
+public class StreamingBulkRequestCommand extends AbstractRestCommand {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingBulkRequestCommand.class);
+
+    private static final ObjectMapper MAPPER = WireFormat.JSON.getMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory().copy()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private final InputStream request;
+    private final boolean ordered;
+    private final RequestMetrics metrics;
+
+    private RequestMetrics.Context metricCtx;
+    private Mediator mediator;
+    private JsonTranslator translator;
+    private int nRead;
+    private Exception readError;
+
+    public StreamingBulkRequestCommand(InputStream request, boolean ordered, RequestMetrics metrics) {
+        this(null, request, ordered, metrics);
+    }
+
+    public StreamingBulkRequestCommand(Mediator mediator, InputStream request, boolean ordered, RequestMetrics metrics) {
+        super(mediator);
+        this.request = request;
+        this.ordered = ordered;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.WRITE;
+    }
+
+    /**
+     * Prepares the command. The entries are not read here, they are
+     * read and run while writing the response stream.
+     */
+    @Override
+    public CallStatus run() {
+        metricCtx = metrics.startBulkRequest();
+        LOGGER.debug("streaming bulk request");
+        // The work is done while the response is written
+        skipLatencySample();
+        Error.reset();
+        Error.push("rest");
+        Error.push(getClass().getSimpleName());
+        try {
+            if (isExpired()) {
+                metricCtx.endRequestMonitoring();
+                return expired();
+            }
+            mediator = getMediator();
+            translator = getJsonTranslator();
+            return new CallStatus(new Response(NODE_FACTORY, OperationStatus.COMPLETE));
+        } catch (Error e) {
+            metricCtx.markRequestException(e);
+            metricCtx.endRequestMonitoring();
+            LOGGER.error("bulk:generic_error failure: {}", e);
+            return new CallStatus(e);
+        } catch (Exception e) {
+            Error error = Error.get(RestCrudConstants.ERR_REST_ERROR, e.toString());
+            metricCtx.markRequestException(error);
+            metricCtx.endRequestMonitoring();
+            LOGGER.error("bulk:generic_exception failure: {}", e);
+            return new CallStatus(error);
+        } finally {
+            Error.reset();
+        }
+    }
+
+    public StreamingOutput getResponseStream() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) {
+                try (JsonParser parser = JSON_FACTORY.createParser(request)) {
+                    JsonGenerator generator = JSON_FACTORY.createGenerator(os);
+                    generator.setRootValueSeparator(null);
+                    MappingIterator<JsonNode> entries = MAPPER.readValues(parser, JsonNode.class);
+                    if (ordered) {
+                        writeOrdered(entries, generator);
+                    } else {
+                        writeUnordered(entries, generator);
+                    }
+                    if (readError != null) {
+                        metricCtx.markRequestException(readError);
+                        LOGGER.error("bulk:stream read failure at entry {}: {}", nRead, readError);
+                        StreamingBulkRequestCommand.write(generator, new Entry(nRead, BulkRequestCommand.errorResponse(
+                                Error.get(RestCrudConstants.ERR_REST_ERROR, readError.toString()))));
+                    }
+                    generator.close();
+                } catch (Exception e) {
+                    metricCtx.markRequestException(e);
+                    LOGGER.error("bulk:stream failure: {}", e);
+                } finally {
+                    metricCtx.endRequestMonitoring();
+                }
+            }
+        };
+    }
+
+    private void writeOrdered(MappingIterator<JsonNode> entries, JsonGenerator generator) throws IOException {
+        int seq = 0;
+        JsonNode entry;
+        while ((entry = nextEntry(entries)) != null) {
+            write(generator, new Entry(seq, runEntry(seq, entry)));
+            seq++;
+        }
+    }
+
+    /**
+     * Keeps at most MAX_PARALLELISM_PER_REQUEST entries running, and
+     * writes the response of an entry when it completes. No more
+     * entries are read from the request while the window is full.
+     */
+    private void writeUnordered(MappingIterator<JsonNode> entries, JsonGenerator generator) throws Exception {
+        CompletionService<Entry> running = new ExecutorCompletionService<>(BulkRequestCommand.EXECUTOR);
+        int window = Math.max(1, BulkRequestCommand.MAX_PARALLELISM_PER_REQUEST);
+        int nRunning = 0;
+        int seq = 0;
+        JsonNode next;
+        while ((next = nextEntry(entries)) != null) {
+            final JsonNode entry = next;
+            final int entrySeq = seq++;
+            running.submit(withRequestId(() -> new Entry(entrySeq, runEntry(entrySeq, entry))));
+            if (++nRunning >= window) {
+                write(generator, running.take().get());
+                nRunning--;
+            }
+        }
+        while (nRunning > 0) {
+            write(generator, running.take().get());
+            nRunning--;
+        }
+    }
+
+    /**
+     * Returns the next entry of the request, or null at the end of the
+     * request. If the next entry cannot be read, returns null, and keeps
+     * the error in readError.
+     */
+    private JsonNode nextEntry(MappingIterator<JsonNode> entries) {
+        try {
+            if (!entries.hasNextValue()) {
+                return null;
+            }
+            JsonNode entry = entries.nextValue();
+            nRead++;
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            readError = e;
+            return null;
+        }
+    }
+
+    private Response runEntry(int seq, JsonNode entry) {
+        Request req;
+        try {
+            req = parseEntry(seq, entry);
+        } catch (Exception e) {
+            LOGGER.error("bulk:parse failure: {}", e);
+            return BulkRequestCommand.errorResponse(Error.get(RestCrudConstants.ERR_REST_ERROR, "Error parsing request"));
+        }
+        try {
+            validateReq(req, req.getEntityVersion().getEntity(), req.getEntityVersion().getVersion());
+            addCallerId(req);
+        } catch (Exception e) {
+            LOGGER.error("bulk:validate failure: {}", e);
+            return BulkRequestCommand.errorResponse(Error.get(RestCrudConstants.ERR_REST_ERROR, "Request is not valid"));
+        }
+        if (isExpired()) {
+            markExpired(getCommandName());
+            return BulkRequestCommand.errorResponse(Error.get(Deadline.ERR_DEADLINE_EXCEEDED, getDeadline().toString()));
+        }
+        return BulkRequestCommand.runEntry(mediator, req, metrics);
+    }
+
+    /**
+     * Parses a single entry using the bulk request parser, so the
+     * entries of a streaming bulk request are interpreted the same way
+     * as the entries of a bulk request
+     */
+    private Request parseEntry(int seq, JsonNode entry) {
+        if (entry instanceof ObjectNode && !entry.has("seq")) {
+            ((ObjectNode) entry).put("seq", seq);
+        }
+        ObjectNode bulk = NODE_FACTORY.objectNode();
+        bulk.putArray("requests").add(entry);
+        BulkRequest req = translator.parse(BulkRequest.class, bulk);
+        if (req.getEntries().size() != 1) {
+            throw Error.get(RestCrudConstants.ERR_REST_ERROR, "Request is not valid");
+        }
+        return req.getEntries().get(0);
+    }
+
+    private static void write(JsonGenerator generator, Entry entry) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("seq", entry.seq);
+        generator.writeFieldName("response");
+        generator.writeTree(entry.response.toJson());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private static final class Entry {
+        private final int seq;
+        private final Response response;
+
+        Entry(int seq, Response response) {
+            this.seq = seq;
+            this.response = response;
+        }
+    }
+}
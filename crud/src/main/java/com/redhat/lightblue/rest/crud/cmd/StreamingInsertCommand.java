@@ -0,0 +1,260 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.config.JsonTranslator;
+import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.mediator.Mediator;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.metrics.RequestMetrics;
+
+/**
+ * Inserts documents received as a stream of newline delimited json
+ * documents. The documents are read in batches, and each batch is
+ * inserted with a single insertion request. The response of each batch
+ * is written as soon as the batch is inserted:
+ * <pre>
+ *   { "batch": 0, "size": 100, "response": { ... } }
+ *   { "batch": 1, "size": 100, "response": { ... } }
+ *   ...
+ * </pre>
+ * Only one batch of documents is kept in memory at any time. A failing
+ * batch does not stop the insertion of the following batches.
+ *
+ * If a document cannot be read, for instance because it is not valid
+ * json, the stream ends. The batch being read is not inserted, and its
+ * line has the documents read so far in the batch as size, and the
+ * error as response.
+ */
+public class StreamingInsertCommand extends AbstractRestCommand {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingInsertCommand.class);
+
+    /**
+     * Default number of documents inserted with a single insertion
+     * request
+     */
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("lightblue.rest.insert.stream.batchSize", 100);
+
+    /**
+     * Upper limit for the batch size requested by the caller
+     */
+    public static final int MAX_BATCH_SIZE = Integer.getInteger("lightblue.rest.insert.stream.maxBatchSize", 1000);
+
+    private static final ObjectMapper MAPPER = WireFormat.JSON.getMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory().copy()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private final String entity;
+    private final String version;
+    private final InputStream request;
+    private final int batchSize;
+    private final RequestMetrics metrics;
+
+    private RequestMetrics.Context metricCtx;
+    private Mediator mediator;
+    private JsonTranslator translator;
+    private Exception readError;
+
+    public StreamingInsertCommand(String entity, String version, InputStream request, Integer batchSize, RequestMetrics metrics) {
+        this(null, entity, version, request, batchSize, metrics);
+    }
+
+    public StreamingInsertCommand(Mediator mediator, String entity, String version, InputStream request, Integer batchSize, RequestMetrics metrics) {
+        super(mediator);
+        this.entity = entity;
+        this.version = version;
+        this.request = request;
+        this.batchSize = Math.max(1, Math.min(batchSize == null ? DEFAULT_BATCH_SIZE : batchSize, MAX_BATCH_SIZE));
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CommandExecutors.Pool getPool() {
+        return CommandExecutors.Pool.WRITE;
+    }
+
+    /**
+     * Prepares the command. The documents are not read here, they are
+     * read and inserted while writing the response stream.
+     */
+    @Override
+    public CallStatus run() {
+        metricCtx = metrics.startStreamingCrudRequest("insert", entity, version);
+        LOGGER.debug("run: entity={}, version={}, batchSize={}", entity, version, batchSize);
+        // The work is done while the response is written
+        skipLatencySample();
+        Error.reset();
+        Error.push("rest");
+        Error.push(getClass().getSimpleName());
+        Error.push(entity);
+        try {
+            if (isExpired()) {
+                metricCtx.endRequestMonitoring();
+                return expired();
+            }
+            mediator = getMediator();
+            translator = getJsonTranslator();
+            return new CallStatus(new Response(NODE_FACTORY, OperationStatus.COMPLETE));
+        } catch (Error e) {
+            metricCtx.markRequestException(e);
+            metricCtx.endRequestMonitoring();
+            LOGGER.error("insert failure: {}", e);
+            return new CallStatus(e);
+        } catch (Exception e) {
+            Error error = Error.get(RestCrudConstants.ERR_REST_INSERT, e.toString());
+            metricCtx.markRequestException(error);
+            metricCtx.endRequestMonitoring();
+            LOGGER.error("insert failure: {}", e);
+            return new CallStatus(error);
+        } finally {
+            Error.reset();
+        }
+    }
+
+    public StreamingOutput getResponseStream() {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) {
+                try (JsonParser parser = JSON_FACTORY.createParser(request)) {
+                    JsonGenerator generator = JSON_FACTORY.createGenerator(os);
+                    generator.setRootValueSeparator(null);
+                    MappingIterator<JsonNode> docs = MAPPER.readValues(parser, JsonNode.class);
+                    int batch = 0;
+                    ArrayNode data = NODE_FACTORY.arrayNode();
+                    boolean expired = false;
+                    JsonNode doc;
+                    while (!expired && (doc = nextDocument(docs)) != null) {
+                        data.add(doc);
+                        if (data.size() >= batchSize) {
+                            expired = isExpired();
+                            if (!expired) {
+                                writeBatch(generator, batch++, data.size(), insert(data));
+                                data = NODE_FACTORY.arrayNode();
+                            }
+                        }
+                    }
+                    if (readError != null) {
+                        metricCtx.markRequestException(readError);
+                        LOGGER.error("insert:stream read failure in batch {}: {}", batch, readError);
+                        writeBatch(generator, batch, data.size(),
+                                BulkRequestCommand.errorResponse(Error.get(RestCrudConstants.ERR_REST_INSERT, readError.toString())));
+                    } else if (data.size() > 0 && (expired || isExpired())) {
+                        // Stop at the deadline, the remaining documents are not read
+                        markExpired(getCommandName());
+                        writeBatch(generator, batch, data.size(),
+                                BulkRequestCommand.errorResponse(Error.get(Deadline.ERR_DEADLINE_EXCEEDED, getDeadline().toString())));
+                    } else if (data.size() > 0) {
+                        writeBatch(generator, batch, data.size(), insert(data));
+                    }
+                    generator.close();
+                } catch (Exception e) {
+                    metricCtx.markRequestException(e);
+                    LOGGER.error("insert:stream failure: {}", e);
+                } finally {
+                    metricCtx.endRequestMonitoring();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the next document of the request, or null at the end of
+     * the request. If the next document cannot be read, returns null,
+     * and keeps the error in readError.
+     */
+    private JsonNode nextDocument(MappingIterator<JsonNode> docs) {
+        try {
+            return docs.hasNextValue() ? docs.nextValue() : null;
+        } catch (IOException | RuntimeException e) {
+            readError = e;
+            return null;
+        }
+    }
+
+    /**
+     * Inserts a batch of documents. The insertion request is built as
+     * json and parsed by the translator, so it is interpreted the same
+     * way as the request of an insert call.
+     */
+    private Response insert(ArrayNode data) {
+        Error.reset();
+        Error.push("rest");
+        Error.push(getClass().getSimpleName());
+        Error.push(entity);
+        Response r;
+        try {
+            ObjectNode node = NODE_FACTORY.objectNode();
+            node.put("entity", entity);
+            node.put("entityVersion", version);
+            node.set("data", data);
+            InsertionRequest ireq = translator.parse(InsertionRequest.class, node);
+            validateReq(ireq, entity, version);
+            addCallerId(ireq);
+            r = mediator.insert(ireq);
+            SavedSearchResultCache.getInstance().invalidate(entity);
+        } catch (Error e) {
+            LOGGER.error("insert failure: {}", e);
+            r = BulkRequestCommand.errorResponse(e);
+        } catch (Exception e) {
+            LOGGER.error("insert failure: {}", e);
+            r = BulkRequestCommand.errorResponse(Error.get(RestCrudConstants.ERR_REST_INSERT, e.toString()));
+        } finally {
+            Error.reset();
+        }
+        for (Error error : r.getErrors()) {
+            metricCtx.markRequestException(error);
+        }
+        return r;
+    }
+
+    private static void writeBatch(JsonGenerator generator, int batch, int size, Response response) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("batch", batch);
+        generator.writeNumberField("size", size);
+        generator.writeFieldName("response");
+        generator.writeTree(response.toJson());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import org.jboss.resteasy.spi.AsynchronousResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.crud.cmd.AbstractRestCommand;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.SimpleJsonObject;
+
+public class CommandResponsesTest {
+
+    private static class BlockingCommand extends AbstractRestCommand {
+        private final CountDownLatch release;
+        private volatile Thread thread;
+
+        BlockingCommand(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public CallStatus run() {
+            thread = Thread.currentThread();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new CallStatus(new SimpleJsonObject(JsonNodeFactory.instance.objectNode()));
+        }
+    }
+
+    private static class CapturingResponse implements AsynchronousResponse {
+        private final CountDownLatch set = new CountDownLatch(1);
+        private final AtomicReference<Response> response = new AtomicReference<>();
+        private volatile Thread thread;
+
+        @Override
+        public void setResponse(Response r) {
+            thread = Thread.currentThread();
+            response.set(r);
+            set.countDown();
+        }
+    }
+
+    @Test
+    public void suspendedRequestReleasesThread() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingCommand command = new BlockingCommand(release);
+        CapturingResponse response = new CapturingResponse();
+
+        CommandResponses.respond(response, command,
+                st -> Response.status(st.getHttpStatus()).entity(st).build(), true);
+
+        // The request thread is back while the command is still running
+        Assert.assertNull(response.response.get());
+        Assert.assertNotSame(Thread.currentThread(), command.thread);
+
+        release.countDown();
+        Assert.assertTrue(response.set.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(200, response.response.get().getStatus());
+        Assert.assertNotSame(Thread.currentThread(), response.thread);
+    }
+
+    @Test
+    public void failingToResponseSetsError() throws Exception {
+        BlockingCommand command = new BlockingCommand(new CountDownLatch(0));
+        CapturingResponse response = new CapturingResponse();
+
+        CommandResponses.respond(response, command, st -> {
+            throw new IllegalStateException("cannot build response");
+        }, true);
+
+        Assert.assertTrue(response.set.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(500, response.response.get().getStatus());
+    }
+
+    @Test
+    public void timeoutSetsDeadlineExceeded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingCommand command = new BlockingCommand(release);
+        CapturingResponse response = new CapturingResponse();
+        try {
+            CommandResponses.respond(response, command,
+                    st -> Response.status(st.getHttpStatus()).entity(st).build(), true, 50);
+
+            Assert.assertTrue(response.set.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(503, response.response.get().getStatus());
+        } finally {
+            release.countDown();
+        }
+        // The late response of the command is discarded
+        Thread.sleep(50);
+        Assert.assertEquals(503, response.response.get().getStatus());
+    }
+
+    @Test
+    public void syncRequestRunsOnCallingThread() {
+        BlockingCommand command = new BlockingCommand(new CountDownLatch(0));
+        CapturingResponse response = new CapturingResponse();
+
+        CommandResponses.respond(response, command,
+                st -> Response.status(st.getHttpStatus()).entity(st).build(), false);
+
+        Assert.assertSame(Thread.currentThread(), command.thread);
+        Assert.assertSame(Thread.currentThread(), response.thread);
+        Assert.assertEquals(200, response.response.get().getStatus());
+    }
+
+    @Test
+    public void nullResponseIsNotSet() {
+        CapturingResponse response = new CapturingResponse();
+        CommandResponses.setResponse(response, null);
+        Assert.assertEquals(1, response.set.getCount());
+    }
+
+    private static CallStatus status(String value) {
+        return new CallStatus(new SimpleJsonObject(JsonNodeFactory.instance.objectNode().put("value", value)));
+    }
+
+    @Test
+    public void etagNotMatching() {
+        Request request = Mockito.mock(Request.class);
+
+        Response r = CommandResponses.withETag(status("a"), request);
+
+        Assert.assertEquals(200, r.getStatus());
+        Assert.assertTrue(r.getEntity() instanceof CallStatus);
+        EntityTag tag = (EntityTag) r.getMetadata().getFirst("ETag");
+        Assert.assertTrue(tag.isWeak());
+        Mockito.verify(request).evaluatePreconditions(tag);
+        // A different document has a different tag
+        Assert.assertNotEquals(tag, CommandResponses.withETag(status("b"), request).getMetadata().getFirst("ETag"));
+    }
+
+    @Test
+    public void etagMatching() {
+        EntityTag tag = (EntityTag) CommandResponses.withETag(status("a"), Mockito.mock(Request.class))
+                .getMetadata().getFirst("ETag");
+        Request request = Mockito.mock(Request.class);
+        Mockito.when(request.evaluatePreconditions(tag)).thenReturn(Response.notModified());
+
+        Response r = CommandResponses.withETag(status("a"), request);
+
+        Assert.assertEquals(304, r.getStatus());
+        Assert.assertNull(r.getEntity());
+        Assert.assertEquals(tag, r.getMetadata().getFirst("ETag"));
+    }
+
+    @Test
+    public void errorsAreNotTagged() {
+        Request request = Mockito.mock(Request.class);
+        CallStatus error = new CallStatus(Error.get("some:error", "x"));
+
+        Response r = CommandResponses.withETag(error, request);
+
+        Assert.assertNull(r.getMetadata().getFirst("ETag"));
+        Mockito.verifyZeroInteractions(request);
+    }
+}
@@ -54,18 +54,22 @@ import de.flapdoodle.embed.process.io.directories.PlatformTempDir;
 import de.flapdoodle.embed.process.runtime.Network;
 import de.flapdoodle.embed.process.store.Downloader;
 import de.flapdoodle.embed.process.store.ExtractedArtifactStore;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import javax.inject.Inject;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.container.test.api.RunAsClient;
@@ -73,6 +77,7 @@ import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.test.api.ArquillianResource;
 import org.jboss.resteasy.client.ClientRequest;
 import org.jboss.resteasy.client.ClientResponse;
+import org.jboss.resteasy.spi.AsynchronousResponse;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.EmptyAsset;
 import org.jboss.shrinkwrap.api.spec.WebArchive;
@@ -263,6 +268,29 @@ public class ITCaseCrudResourceTest {
     return FileUtil.readFile(this.getClass().getSimpleName() + "/" + filename);
   }
 
+  private InputStream asStream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private interface ResourceCall {
+    void call(AsynchronousResponse response) throws Exception;
+  }
+
+  /**
+   * Invokes a resource method with an AsynchronousResponse that captures the
+   * response the method sets.
+   */
+  private static Response call(ResourceCall method) {
+    final Response[] response = new Response[1];
+    try {
+      method.call(r -> response[0] = r);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    Assert.assertNotNull("No response was set", response[0]);
+    return response[0];
+  }
+
   @Inject
   private CrudResource cutCrudResource; //class under test
 
@@ -293,13 +321,13 @@ public class ITCaseCrudResourceTest {
     JSONAssert.assertEquals(expectedCreated, resultCreated, false);
 
     String expectedInserted = readFile("expectedInserted.json");
-    String resultInserted = cutCrudResource.insert("country", "1.0.0",
-        readFile("resultInserted.json")).getEntity().toString();
+    String resultInserted = call(r -> cutCrudResource.insert("country", "1.0.0",
+        asStream(readFile("resultInserted.json")), r)).getEntity().toString();
     JSONAssert.assertEquals(expectedInserted, resultInserted, false);
 
     String auditExpectedFound = readFile("auditExpectedFound.json");
-    String auditResultFound = cutCrudResource.find("audit", "1.0.1", false,
-        readFile("auditResultFound.json")).getEntity().toString();
+    String auditResultFound = call(r -> cutCrudResource.find("audit", "1.0.1", false, null, null,
+        asStream(readFile("auditResultFound.json")), r)).getEntity().toString();
     LOGGER.debug("resultFound:" + auditResultFound);
     auditResultFound = auditResultFound.replaceAll("\"_id\":\".*?\"", "\"_id\":\"\"");
     auditResultFound = auditResultFound.replaceAll(
@@ -307,16 +335,23 @@ public class ITCaseCrudResourceTest {
         "\"lastUpdateDate\":\"\"");
     JSONAssert.assertEquals(auditExpectedFound, auditResultFound, false);
 
-    String bulkResult = cutCrudResource.bulk(readFile("bulkReq.json")).getEntity().toString();
+    String bulkResult = call(r -> cutCrudResource.bulk(null, asStream(readFile("bulkReq.json")), r)).getEntity().toString();
     bulkResult = bulkResult.replaceAll("\"_id\":\".*?\"", "\"_id\":\"\"");
     bulkResult = bulkResult.replaceAll(
         "\"lastUpdateDate\":\"\\d{8}T\\d\\d:\\d\\d:\\d\\d\\.\\d{3}[+-]\\d{4}\"",
         "\"lastUpdateDate\":\"\"");
     JSONAssert.assertEquals(readFile("bulkResult.json"), bulkResult, false);
 
+    String unorderedBulkResult = call(r -> cutCrudResource.bulk(false, asStream(readFile("bulkReq.json")), r)).getEntity().toString();
+    unorderedBulkResult = unorderedBulkResult.replaceAll("\"_id\":\".*?\"", "\"_id\":\"\"");
+    unorderedBulkResult = unorderedBulkResult.replaceAll(
+        "\"lastUpdateDate\":\"\\d{8}T\\d\\d:\\d\\d:\\d\\d\\.\\d{3}[+-]\\d{4}\"",
+        "\"lastUpdateDate\":\"\"");
+    JSONAssert.assertEquals(readFile("bulkResult.json"), unorderedBulkResult, false);
+
     String expectedUpdated = readFile("expectedUpdated.json");
-    String resultUpdated = cutCrudResource.update("country", "1.0.0",
-        readFile("resultUpdated.json")).getEntity().toString();
+    String resultUpdated = call(r -> cutCrudResource.update("country", "1.0.0",
+        asStream(readFile("resultUpdated.json")), r)).getEntity().toString();
     JSONAssert.assertEquals(expectedUpdated, resultUpdated, false);
 
     // TODO: once https://github.com/lightblue-platform/lightblue-core/issues/476 is fixed, restore
@@ -327,61 +362,72 @@ public class ITCaseCrudResourceTest {
     // audit2ResultFound = audit2ResultFound.replaceAll("\"lastUpdateDate\":\"\\d{8}T\\d\\d:\\d\\d:\\d\\d\\.\\d{3}[+-]\\d{4}\"", "\"lastUpdateDate\":\"\"");
     // JSONAssert.assertEquals(audit2ExpectedFound, audit2ResultFound, false);
     String expectedFound = readFile("expectedFound.json");
-    String resultFound = cutCrudResource.find("country", "1.0.0", false,
-        readFile("resultFound.json")).getEntity().toString();
+    String resultFound = call(r -> cutCrudResource.find("country", "1.0.0", false, null, null,
+        asStream(readFile("resultFound.json")), r)).getEntity().toString();
     JSONAssert.assertEquals(expectedFound, resultFound,
         false); // #TODO #FIX Not finding the right version
 
-    String expectedAll = cutCrudResource.find("country", "1.0.0", false,
-        readFile("country-noq.json")).getEntity().toString();
+    String expectedAll = call(r -> cutCrudResource.find("country", "1.0.0", false, null, null,
+        asStream(readFile("country-noq.json")), r)).getEntity().toString();
     LOGGER.debug("returnVAlue:" + expectedAll);
     JSONAssert.assertEquals(expectedFound, expectedAll, false);
 
-    String resultSimpleFound = cutCrudResource.simpleFind( //?Q&P&S&from&to
+    String resultSimpleFound = call(r -> cutCrudResource.simpleFind( //?Q&P&S&from&to
         "country",
         "1.0.0",
         "iso2code:CA,QE;iso2code:CA;iso2code:CA,EN",
         "name:1r,iso3code:1,iso2code:0r",
         "name:a,iso3code:d,iso2code:d",
         0L,
-        100L, null).getEntity().toString();
+        100L, null, null, null, null, r)).getEntity().toString();
     JSONAssert.assertEquals(expectedFound, resultSimpleFound, false);
 
-    resultSimpleFound = cutCrudResource.simpleFind( //?Q&P&S&from&to
+    resultSimpleFound = call(r -> cutCrudResource.simpleFind( //?Q&P&S&from&to
         "country",
         "1.0.0",
         "iso2code:CA,QE;iso2code:CA;iso2code:CA,EN",
         "name:1r,iso3code:1,iso2code:0r",
         "name:a,iso3code:d,iso2code:d",
         0L,
-        null, 1L).getEntity().toString();
+        null, 1L, null, null, null, r)).getEntity().toString();
     JSONAssert.assertEquals(expectedFound, resultSimpleFound, false);
 
-    String resultSimpleFromToNotSetFound = cutCrudResource.simpleFind( //?Q&P&S&from&to
+    String resultSimpleFromToNotSetFound = call(r -> cutCrudResource.simpleFind( //?Q&P&S&from&to
         "country",
         "1.0.0",
         "iso2code:CA,QE;iso2code:CA;iso2code:CA,EN",
         "name:1r,iso3code:1,iso2code:0r",
         "name:a,iso3code:d,iso2code:d",
         null,
-        null, null).getEntity().toString();
+        null, null, null, null, null, r)).getEntity().toString();
     JSONAssert.assertEquals(expectedFound, resultSimpleFromToNotSetFound, false);
 
+    String resultSimplePageFound = call(r -> cutCrudResource.simpleFind( //?Q&P&S&pageSize
+        "country",
+        "1.0.0",
+        "iso2code:CA,QE;iso2code:CA;iso2code:CA,EN",
+        "name:1r,iso3code:1,iso2code:0r",
+        "name:a,iso3code:d,iso2code:d",
+        null,
+        null, null, 1, null, null, r)).getEntity().toString();
+    JSONAssert.assertEquals(expectedFound, resultSimplePageFound, false);
+    Assert.assertFalse(JsonUtils.json(resultSimplePageFound).has("continuation"));
+
     String expectedDeleted = readFile("expectedDeleted.json");
-    String resultDeleted = cutCrudResource.delete("country", "1.0.0",
-        readFile("resultDeleted.json")).getEntity().toString();
+    String resultDeleted = call(r -> cutCrudResource.delete("country", "1.0.0",
+        asStream(readFile("resultDeleted.json")), r)).getEntity().toString();
     JSONAssert.assertEquals(expectedDeleted, resultDeleted, false);
 
     String expectedFound2 = readFile("expectedFound2.json");
-    String resultFound2 = cutCrudResource.find("country", "1.0.0", false,
-        readFile("resultFound2.json")).getEntity().toString();
+    String resultFound2 = call(r -> cutCrudResource.find("country", "1.0.0", false, null, null,
+        asStream(readFile("resultFound2.json")), r)).getEntity().toString();
     JSONAssert.assertEquals(expectedFound2, resultFound2, false);
   }
 
   @Test
   public void testLock() {
     Assert.assertNotNull("CrudResource was not injected by the container", cutCrudResource);
-    String result = cutCrudResource.acquire("test", "caller", "resource", null).getEntity()
+    String result = call(r -> cutCrudResource.acquire("test", "caller", "resource", null, r)).getEntity()
         .toString();
     Assert.assertEquals("{\"result\":true}", result);
   }
@@ -398,7 +444,7 @@ public class ITCaseCrudResourceTest {
             "\"resourceId\" : \"resource/slash\"" +
             "}";
 
-    String result = cutCrudResource.lock(request).getEntity().toString();
+    String result = call(r -> cutCrudResource.lock(request, r)).getEntity().toString();
     Assert.assertEquals("{\"result\":true}", result);
   }
 
@@ -411,12 +457,12 @@ public class ITCaseCrudResourceTest {
         .parseEntityMetadata(JsonUtils.json(metadata));
     RestConfiguration.getFactory().getMetadata().createNewMetadata(em);
 
-    String result = cutCrudResource.generate("generate", "1.0.0", "number", 1).getEntity()
+    String result = call(r -> cutCrudResource.generate("generate", "1.0.0", "number", 1, r)).getEntity()
         .toString();
     LOGGER.debug("Generated:" + result);
     JSONAssert.assertEquals("{\"processed\":[\"50000000\"]}", result, false);
 
-    result = cutCrudResource.generate("generate", "number", 3).getEntity().toString();
+    result = call(r -> cutCrudResource.generate("generate", "number", 3, r)).getEntity().toString();
     LOGGER.debug("Generated:" + result);
     JSONAssert.assertEquals("{\"processed\":[\"50000001\",\"50000002\",\"50000003\"]}", result,
         false);
@@ -449,19 +495,19 @@ public class ITCaseCrudResourceTest {
 
     // insert country data
     LOGGER.debug("Insert country");
-    cutCrudResource.insert("country", "1.0.0", readFile("resultInserted.json")).getEntity();
+    call(r -> cutCrudResource.insert("country", "1.0.0", asStream(readFile("resultInserted.json")), r)).getEntity();
     LOGGER.debug("country inserted");
 
     // insert saved search
     LOGGER.debug("Insert savedSearch");
-    cutCrudResource.insert("savedSearch", "1.0.0",
-        "{'data':{'name':'test','entity':'country','parameters':[{'name':'iso'}],'query':{'field':'iso2code','op':'=','rvalue':'${iso}'}}}".
-            replaceAll("'", "\""));
+    call(r -> cutCrudResource.insert("savedSearch", "1.0.0",
+        asStream("{'data':{'name':'test','entity':'country','parameters':[{'name':'iso'}],'query':{'field':'iso2code','op':'=','rvalue':'${iso}'}}}".
+            replaceAll("'", "\"")), r));
     LOGGER.debug("savedSearch inserted");
 
     // Run saved search
-    String result = cutCrudResource.runSavedSearch("country", "1.0.0", "test", null, null, null,
-        null, null, "{'iso':'CA'}".replaceAll("'", "\"")).getEntity().toString();
+    String result = call(r -> cutCrudResource.runSavedSearch("country", "1.0.0", "test", null, null, null,
+        null, null, "{'iso':'CA'}".replaceAll("'", "\""), r)).getEntity().toString();
     assertNotEquals(-1, result.indexOf("\"matchCount\":1"));
     LOGGER.debug("result:" + result);
 
@@ -482,13 +528,13 @@ public class ITCaseCrudResourceTest {
 
     // insert saved search
     LOGGER.debug("Insert savedSearch");
-    cutCrudResource.insert("savedSearch", "1.0.0",
-        "{'data':{'name':'test','entity':'country','parameters':[{'name':'iso'}],'query':{'field':'iso2code','op':'=','rvalue':'${iso}'}}}".
-            replaceAll("'", "\""));
+    call(r -> cutCrudResource.insert("savedSearch", "1.0.0",
+        asStream("{'data':{'name':'test','entity':'country','parameters':[{'name':'iso'}],'query':{'field':'iso2code','op':'=','rvalue':'${iso}'}}}".
+            replaceAll("'", "\"")), r));
     LOGGER.debug("savedSearch inserted");
 
     // get saved search
-    String result = cutCrudResource.getSearchesForEntity("country", null, null).getEntity()
+    String result = call(r -> cutCrudResource.getSearchesForEntity("country", null, null, null, r)).getEntity()
         .toString();
     assertNotEquals(-1, result.indexOf("\"matchCount\":1"));
     LOGGER.debug("result:" + result);
@@ -0,0 +1,84 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.bulkhead.AdaptiveLimiter;
+import com.redhat.lightblue.util.SimpleJsonObject;
+
+public class CommandExecutorsTest {
+
+    private static class ThreadNameCommand extends AbstractRestCommand {
+        private final CountDownLatch release;
+        private volatile String threadName;
+
+        ThreadNameCommand(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public CallStatus run() {
+            threadName = Thread.currentThread().getName();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new CallStatus(new SimpleJsonObject(JsonNodeFactory.instance.objectNode().put("thread", threadName)));
+        }
+    }
+
+    @Test
+    public void runsOnPoolThread() throws Exception {
+        ThreadNameCommand command = new ThreadNameCommand(new CountDownLatch(0));
+        Assert.assertEquals(CommandExecutors.Pool.READ, command.getPool());
+
+        CallStatus<?> status = command.runAsync().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(status.hasErrors());
+        Assert.assertTrue(command.threadName, command.threadName.startsWith("lightblue-read-"));
+    }
+
+    @Test
+    public void rejectedWhenPoolIsFull() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            new ThreadNameCommand(release).runAsync(executor);
+            new ThreadNameCommand(release).runAsync(executor);
+
+            CallStatus<?> status = new ThreadNameCommand(release).runAsync(executor)
+                    .toCompletableFuture().get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(status.hasErrors());
+            Assert.assertEquals(AdaptiveLimiter.ERR_OVERLOADED, status.getErrors().get(0).getErrorCode());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
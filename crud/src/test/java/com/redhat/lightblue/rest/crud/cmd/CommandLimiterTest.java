@@ -0,0 +1,93 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.bulkhead.AdaptiveLimiter;
+import com.redhat.lightblue.util.SimpleJsonObject;
+
+public class CommandLimiterTest {
+
+    private static class TestCommand extends AbstractRestCommand {
+        private final boolean sample;
+
+        TestCommand(boolean sample) {
+            this.sample = sample;
+        }
+
+        @Override
+        public CallStatus run() {
+            if (!sample) {
+                skipLatencySample();
+            }
+            return new CallStatus(new SimpleJsonObject(JsonNodeFactory.instance.objectNode()));
+        }
+
+        @Override
+        public String getCommandName() {
+            return sample ? "sampled" : "skipped";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        System.setProperty("lightblue.rest.limiter.initialLimit", "1");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("lightblue.rest.limiter.initialLimit");
+    }
+
+    @Test
+    public void onlySampledCommandsAdaptTheLimit() throws Exception {
+        CommandLimiter commandLimiter = new CommandLimiter(true, new MetricRegistry());
+        for (int i = 0; i < 10; i++) {
+            commandLimiter.execute(new TestCommand(true));
+            commandLimiter.execute(new TestCommand(false));
+            commandLimiter.executeAsync(new TestCommand(false)).toCompletableFuture().get();
+        }
+        AdaptiveLimiter sampled = commandLimiter.getLimiter("sampled");
+        AdaptiveLimiter skipped = commandLimiter.getLimiter("skipped");
+        // A sample at the limit increases it, a skipped command does not
+        Assert.assertTrue(sampled.getLimit() > 1);
+        Assert.assertEquals(1, skipped.getLimit());
+        Assert.assertEquals(0, skipped.getInFlight());
+    }
+
+    @Test
+    public void rejectedCommandsAreNotSampled() throws Exception {
+        TestCommand command = new TestCommand(true);
+        CallStatus status = command.runAsync(task -> {
+            throw new RejectedExecutionException();
+        }).toCompletableFuture().get();
+
+        Assert.assertTrue(status.hasErrors());
+        Assert.assertFalse(command.isLatencySample());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.rest.util.Deadline;
+import com.redhat.lightblue.util.Error;
+
+public class FindCoalescerTest {
+
+    private MetricRegistry registry;
+    private FindCoalescer coalescer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        coalescer = new FindCoalescer(registry);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRequestsShareResponse() throws Exception {
+        final Response response = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        Future<Response> first = executor.submit(() -> coalescer.find("f", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return response;
+        }));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        Future<Response> second = executor.submit(() -> coalescer.find("f", () -> {
+            calls.incrementAndGet();
+            return new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        }));
+        while (registry.counter("api.find.coalesced").getCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        Assert.assertSame(response, first.get(10, TimeUnit.SECONDS));
+        Assert.assertSame(response, second.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void followerStopsWaitingAtItsDeadline() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Response response = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+
+        Future<Response> first = executor.submit(() -> coalescer.find("f", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return response;
+        }));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        try {
+            coalescer.find("f", Deadline.at(System.currentTimeMillis() + 50), () -> {
+                throw new IllegalStateException("the in-flight call should be shared");
+            });
+            Assert.fail("expected deadline exceeded");
+        } catch (Error e) {
+            Assert.assertEquals(Deadline.ERR_DEADLINE_EXCEEDED, e.getErrorCode());
+        }
+
+        // The leader is not affected
+        release.countDown();
+        Assert.assertSame(response, first.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sequentialRequestsAreNotCoalesced() {
+        AtomicInteger calls = new AtomicInteger();
+        coalescer.find("f", () -> {
+            calls.incrementAndGet();
+            return new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        });
+        coalescer.find("f", () -> {
+            calls.incrementAndGet();
+            return new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        });
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(0, registry.counter("api.find.coalesced").getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failurePropagates() {
+        coalescer.find("f", () -> {
+            throw new IllegalStateException();
+        });
+    }
+
+    @Test
+    public void enabledPerEntity() {
+        Assert.assertTrue(coalescer.isEnabled("country"));
+        System.setProperty(FindCoalescer.ENABLED_PROPERTY + ".country", "false");
+        try {
+            Assert.assertFalse(coalescer.isEnabled("country"));
+            Assert.assertTrue(coalescer.isEnabled("audit"));
+        } finally {
+            System.clearProperty(FindCoalescer.ENABLED_PROPERTY + ".country");
+        }
+    }
+}
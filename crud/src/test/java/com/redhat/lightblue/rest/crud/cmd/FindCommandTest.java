@@ -18,8 +18,10 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import javax.ws.rs.WebApplicationException;
@@ -32,14 +34,19 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.redhat.lightblue.OperationStatus;
 import com.redhat.lightblue.crud.DocCtx;
 import com.redhat.lightblue.crud.ListDocumentStream;
 import com.redhat.lightblue.mediator.StreamingResponse;
+import com.redhat.lightblue.rest.WireFormat;
 import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.rest.util.NonBlockingOutput;
 import com.redhat.lightblue.util.JsonDoc;
 import com.redhat.lightblue.util.metrics.DefaultMetricNamer;
 import com.redhat.lightblue.util.metrics.DropwizardRequestMetrics;
@@ -121,6 +128,89 @@ public class FindCommandTest extends AbstractRestCommandTest {
         Assert.assertTrue("Should return projected doc: {}, but the response is "+sw.toString(), sw.toString().endsWith("\"processed\":{}}"));
     }
 
+    @Test
+    public void runFindWithStreamMultipleDocs() throws WebApplicationException, IOException {
+        ObjectMapper mapper = new ObjectMapper();
+
+        DocCtx doc1 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        doc1.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        DocCtx doc2 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+        doc2.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+
+        StreamingResponse sr = new StreamingResponse(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        sr.documentStream = new ListDocumentStream<>(Arrays.asList(new DocCtx[] { doc1, doc2 }));
+        mediator.streamingResponse = sr;
+
+        FindCommand command = new FindCommand(mediator, "name", "version", "{\"request\":\"data\"}", true, new NoopRequestMetrics());
+
+        command.run();
+
+        StringWriter sw = new StringWriter();
+        command.getResponseStream(1).write(new WriterOutputStream(sw));
+
+        String output = sw.toString();
+        Assert.assertTrue(output, output.contains("{\"processed\":{\"foo\":\"bar\"}}"));
+        Assert.assertTrue(output, output.endsWith("{\"last\":true,\"processed\":{\"foo\":\"baz\"}}"));
+    }
+
+    @Test
+    public void runFindWithStreamChunks() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+
+        DocCtx doc1 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        doc1.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        DocCtx doc2 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+        doc2.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+
+        StreamingResponse sr = new StreamingResponse(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        sr.documentStream = new ListDocumentStream<>(Arrays.asList(new DocCtx[] { doc1, doc2 }));
+        mediator.streamingResponse = sr;
+
+        FindCommand command = new FindCommand(mediator, "name", "version", "{\"request\":\"data\"}", true, new NoopRequestMetrics());
+
+        command.run();
+
+        NonBlockingOutput.ChunkSource chunks = command.getResponseChunks(1);
+        // The header with the first document, then the second document
+        String first = new String(chunks.next(), StandardCharsets.UTF_8);
+        String second = new String(chunks.next(), StandardCharsets.UTF_8);
+        Assert.assertNull(chunks.next());
+        chunks.close(null);
+
+        Assert.assertTrue(first, first.endsWith("{\"processed\":{\"foo\":\"bar\"}}"));
+        Assert.assertEquals("{\"last\":true,\"processed\":{\"foo\":\"baz\"}}", second);
+    }
+
+    @Test
+    public void runFindWithStreamSmile() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+
+        DocCtx doc1 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        doc1.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "bar")));
+        DocCtx doc2 = new DocCtx(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+        doc2.setOutputDocument(new JsonDoc(mapper.createObjectNode().put("foo", "baz")));
+
+        StreamingResponse sr = new StreamingResponse(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        sr.documentStream = new ListDocumentStream<>(Arrays.asList(new DocCtx[] { doc1, doc2 }));
+        mediator.streamingResponse = sr;
+
+        FindCommand command = new FindCommand(mediator, "name", "version", "{\"request\":\"data\"}", true, new NoopRequestMetrics());
+        command.setResponseFormat(WireFormat.SMILE);
+
+        command.run();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream(1).write(out);
+
+        MappingIterator<JsonNode> objects = new ObjectMapper(new SmileFactory()).readerFor(JsonNode.class)
+                .readValues(out.toByteArray());
+        JsonNode header = objects.next();
+        Assert.assertTrue(header.toString(), header.has("status"));
+        Assert.assertEquals("{\"processed\":{\"foo\":\"bar\"}}", objects.next().toString());
+        Assert.assertEquals("{\"last\":true,\"processed\":{\"foo\":\"baz\"}}", objects.next().toString());
+        Assert.assertFalse(objects.hasNext());
+    }
+
     @Test
     public void runFindWithReturnAndMetrics() {
         FindCommand command = new FindCommand(mediator, "name", "version", "{\"request\":\"data\"}", requestMetrics);
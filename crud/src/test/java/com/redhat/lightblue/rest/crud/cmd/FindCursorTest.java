@@ -0,0 +1,153 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+import com.redhat.lightblue.crud.FindRequest;
+import com.redhat.lightblue.query.Projection;
+import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.query.Sort;
+import com.redhat.lightblue.util.Error;
+import com.redhat.lightblue.util.JsonUtils;
+
+public class FindCursorTest {
+
+    private static FindRequest request() throws Exception {
+        FindRequest req = new FindRequest();
+        req.setQuery(QueryExpression.fromJson(JsonUtils.json("{\"field\":\"x\",\"op\":\"=\",\"rvalue\":1}")));
+        req.setProjection(Projection.fromJson(JsonUtils.json("{\"field\":\"name\",\"include\":true}")));
+        req.setSort(Sort.fromJson(JsonUtils.json("[{\"name\":\"$asc\"},{\"_id\":\"$desc\"}]")));
+        return req;
+    }
+
+    private static Response response(int n) throws Exception {
+        Response r = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        ArrayNode docs = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < n; i++) {
+            docs.addObject().put("name", "n" + i).put("_id", "id" + i);
+        }
+        r.setEntityData(docs);
+        return r;
+    }
+
+    @Test
+    public void firstPage() throws Exception {
+        FindRequest req = request();
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(req);
+
+        Assert.assertEquals(0L, req.getFrom().longValue());
+        Assert.assertEquals(2L, req.getTo().longValue());
+        Assert.assertFalse(req.getQuery().toJson().toString().contains("$or"));
+
+        JsonNode result = cursor.result(response(3)).toJson();
+        Assert.assertEquals(2, result.get("processed").size());
+        Assert.assertNotNull(result.get(FindCursor.CONTINUATION));
+    }
+
+    @Test
+    public void lastPage() throws Exception {
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(request());
+
+        JsonNode result = cursor.result(response(2)).toJson();
+        Assert.assertEquals(2, result.get("processed").size());
+        Assert.assertNull(result.get(FindCursor.CONTINUATION));
+    }
+
+    @Test
+    public void nextPage() throws Exception {
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(request());
+        String token = cursor.result(response(3)).toJson().get(FindCursor.CONTINUATION).asText();
+
+        FindRequest req = request();
+        new FindCursor(2, token).apply(req);
+
+        String query = req.getQuery().toJson().toString();
+        Assert.assertTrue(query.contains("$or"));
+        Assert.assertTrue(query.contains("\"n1\""));
+        Assert.assertTrue(query.contains("\"id1\""));
+        Assert.assertTrue(query.contains("\"<\""));
+        Assert.assertEquals(0L, req.getFrom().longValue());
+    }
+
+    @Test(expected = Error.class)
+    public void tokenForDifferentSort() throws Exception {
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(request());
+        String token = cursor.result(response(3)).toJson().get(FindCursor.CONTINUATION).asText();
+
+        FindRequest req = request();
+        req.setSort(Sort.fromJson(JsonUtils.json("{\"name\":\"$desc\"}")));
+        new FindCursor(2, token).apply(req);
+    }
+
+    @Test(expected = Error.class)
+    public void sortRequired() throws Exception {
+        FindRequest req = request();
+        req.setSort(null);
+        new FindCursor(2, null).apply(req);
+    }
+
+    @Test
+    public void addedSortFieldsAreStripped() throws Exception {
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(request());
+
+        JsonNode result = cursor.result(response(3)).toJson();
+        for (JsonNode doc : result.get("processed")) {
+            Assert.assertNotNull(doc.get("name"));
+            Assert.assertNull(doc.get("_id"));
+        }
+        // The token still has the stripped value
+        FindRequest req = request();
+        new FindCursor(2, result.get(FindCursor.CONTINUATION).asText()).apply(req);
+        Assert.assertTrue(req.getQuery().toJson().toString().contains("\"id1\""));
+    }
+
+    @Test
+    public void missingSortValue() throws Exception {
+        Response r = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+        ArrayNode docs = JsonNodeFactory.instance.arrayNode();
+        docs.addObject().put("_id", "id0");
+        docs.addObject().put("_id", "id1");
+        docs.addObject().put("_id", "id2");
+        r.setEntityData(docs);
+
+        FindCursor cursor = new FindCursor(2, null);
+        cursor.apply(request());
+        String token = cursor.result(r).toJson().get(FindCursor.CONTINUATION).asText();
+
+        FindRequest req = request();
+        new FindCursor(2, token).apply(req);
+
+        // name > null is written as name != null
+        String query = req.getQuery().toJson().toString();
+        Assert.assertTrue(query.contains("\"!=\""));
+        Assert.assertTrue(query.contains("\"id1\""));
+    }
+}
@@ -18,11 +18,19 @@
  */
 package com.redhat.lightblue.rest.crud.cmd;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.Response;
+
 import org.jboss.arquillian.junit.Arquillian;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.util.Deadline;
 import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
 
 /**
@@ -43,4 +51,32 @@ public class InsertCommandTest extends AbstractRestCommandTest {
         Assert.assertEquals("insert", mediator.methodCalled);
 
     }
+
+    @Test
+    public void executeFromStream() {
+
+        InputStream request = new ByteArrayInputStream("{\"request\":\"data\"}".getBytes(StandardCharsets.UTF_8));
+        InsertCommand command = new InsertCommand(mediator, "name", "version", request, new NoopRequestMetrics());
+
+        String output = command.run().toString();
+
+        Assert.assertNotNull(output);
+
+        Assert.assertEquals("insert", mediator.methodCalled);
+
+    }
+
+    @Test
+    public void executeExpired() {
+
+        InsertCommand command = new InsertCommand(mediator, "name", "version", "{\"request\":\"data\"}", new NoopRequestMetrics());
+        command.setDeadline(Deadline.at(System.currentTimeMillis() - 1));
+
+        CallStatus status = command.run();
+
+        Assert.assertEquals(Deadline.ERR_DEADLINE_EXCEEDED, status.getErrors().get(0).getErrorCode());
+        Assert.assertEquals(Response.Status.SERVICE_UNAVAILABLE, status.getHttpStatus());
+        Assert.assertNull(mediator.methodCalled);
+
+    }
 }
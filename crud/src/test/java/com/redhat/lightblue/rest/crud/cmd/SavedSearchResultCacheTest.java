@@ -0,0 +1,94 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.redhat.lightblue.OperationStatus;
+import com.redhat.lightblue.Response;
+
+public class SavedSearchResultCacheTest {
+
+    private MetricRegistry registry;
+    private SavedSearchResultCache cache;
+    private Response response;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        cache = new SavedSearchResultCache(10, registry);
+        response = new Response(JsonNodeFactory.instance, OperationStatus.COMPLETE);
+    }
+
+    private long hits() {
+        return registry.counter("api.savedSearch.cache.hit").getCount();
+    }
+
+    private long misses() {
+        return registry.counter("api.savedSearch.cache.miss").getCount();
+    }
+
+    @Test
+    public void hitAndMiss() {
+        Assert.assertNull(cache.get("k"));
+        cache.put("k", "country", cache.getGeneration("country"), 60000, response);
+        Assert.assertSame(response, cache.get("k"));
+        Assert.assertEquals(1, hits());
+        Assert.assertEquals(1, misses());
+    }
+
+    @Test
+    public void expired() {
+        cache.put("k", "country", cache.getGeneration("country"), -1, response);
+        Assert.assertNull(cache.get("k"));
+        Assert.assertEquals(1, misses());
+    }
+
+    @Test
+    public void invalidatedByWrite() {
+        cache.put("k", "country", cache.getGeneration("country"), 60000, response);
+        cache.put("a", "audit", cache.getGeneration("audit"), 60000, response);
+        cache.invalidate("country");
+        Assert.assertNull(cache.get("k"));
+        Assert.assertSame(response, cache.get("a"));
+    }
+
+    @Test
+    public void computedBeforeWrite() {
+        long generation = cache.getGeneration("country");
+        cache.invalidate("country");
+        cache.put("k", "country", generation, 60000, response);
+        Assert.assertNull(cache.get("k"));
+    }
+
+    @Test
+    public void ttl() {
+        Assert.assertEquals(SavedSearchResultCache.DEFAULT_TTL, cache.getTTL("search"));
+        System.setProperty(SavedSearchResultCache.TTL_PROPERTY + ".search", "1000");
+        try {
+            Assert.assertEquals(1000, cache.getTTL("search"));
+        } finally {
+            System.clearProperty(SavedSearchResultCache.TTL_PROPERTY + ".search");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.rest.CallStatus;
+import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
+
+@RunWith(Arquillian.class)
+public class StreamingBulkRequestCommandTest extends AbstractRestCommandTest {
+
+    private static final String FIND_ENTRY = "{\"op\":\"find\",\"request\":{\"entity\":\"name\",\"entityVersion\":\"1.0\","
+            + "\"query\":{\"field\":\"a\",\"op\":\"=\",\"rvalue\":\"b\"}}}";
+
+    private static final String INSERT_ENTRY = "{\"op\":\"insert\",\"request\":{\"entity\":\"name\",\"entityVersion\":\"1.0\","
+            + "\"data\":{\"a\":\"b\"}}}";
+
+    @Test
+    public void runStreamingBulk() throws Exception {
+        InputStream request = new ByteArrayInputStream((FIND_ENTRY + "\n" + INSERT_ENTRY + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingBulkRequestCommand command = new StreamingBulkRequestCommand(mediator, request, true, new NoopRequestMetrics());
+
+        CallStatus status = command.run();
+        Assert.assertFalse(status.hasErrors());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream().write(out);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(2, lines.length);
+        JsonNode first = JsonUtils.json(lines[0]);
+        Assert.assertEquals(0, first.get("seq").asInt());
+        Assert.assertEquals("COMPLETE", first.get("response").get("status").asText());
+        JsonNode second = JsonUtils.json(lines[1]);
+        Assert.assertEquals(1, second.get("seq").asInt());
+        Assert.assertEquals("insert", mediator.methodCalled);
+    }
+
+    @Test
+    public void runStreamingBulkInvalidEntry() throws Exception {
+        InputStream request = new ByteArrayInputStream(("{\"op\":\"find\"}\n" + FIND_ENTRY)
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingBulkRequestCommand command = new StreamingBulkRequestCommand(mediator, request, true, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream().write(out);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("ERROR", JsonUtils.json(lines[0]).get("response").get("status").asText());
+        Assert.assertEquals("COMPLETE", JsonUtils.json(lines[1]).get("response").get("status").asText());
+        Assert.assertEquals("find", mediator.methodCalled);
+    }
+
+    @Test
+    public void runStreamingBulkMalformedEntry() throws Exception {
+        InputStream request = new ByteArrayInputStream((FIND_ENTRY + "\n{not json}\n" + FIND_ENTRY)
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingBulkRequestCommand command = new StreamingBulkRequestCommand(mediator, request, true, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream().write(out);
+
+        // The stream ends with an error line for the malformed entry
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals(0, JsonUtils.json(lines[0]).get("seq").asInt());
+        Assert.assertEquals("COMPLETE", JsonUtils.json(lines[0]).get("response").get("status").asText());
+        JsonNode last = JsonUtils.json(lines[1]);
+        Assert.assertEquals(1, last.get("seq").asInt());
+        Assert.assertEquals("ERROR", last.get("response").get("status").asText());
+        Assert.assertEquals(RestCrudConstants.ERR_REST_ERROR,
+                last.get("response").get("errors").get(0).get("errorCode").asText());
+    }
+
+    @Test
+    public void runStreamingBulkExactDecimals() throws Exception {
+        String entry = "{\"op\":\"insert\",\"request\":{\"entity\":\"name\",\"entityVersion\":\"1.0\","
+                + "\"data\":{\"a\":0.10000000000000000001}}}";
+        InputStream request = new ByteArrayInputStream(entry.getBytes(StandardCharsets.UTF_8));
+        StreamingBulkRequestCommand command = new StreamingBulkRequestCommand(mediator, request, true, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+        command.getResponseStream().write(new ByteArrayOutputStream());
+
+        InsertionRequest req = (InsertionRequest) mediator.args[0];
+        Assert.assertEquals(new BigDecimal("0.10000000000000000001"), req.getEntityData().get(0).get("a").decimalValue());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ Copyright 2013 Red Hat, Inc. and/or its affiliates.
+
+ This file is part of lightblue.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.redhat.lightblue.rest.crud.cmd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.arquillian.junit.Arquillian;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.redhat.lightblue.crud.InsertionRequest;
+import com.redhat.lightblue.rest.crud.RestCrudConstants;
+import com.redhat.lightblue.util.JsonUtils;
+import com.redhat.lightblue.util.metrics.NoopRequestMetrics;
+
+@RunWith(Arquillian.class)
+public class StreamingInsertCommandTest extends AbstractRestCommandTest {
+
+    @Test
+    public void insertInBatches() throws Exception {
+        InputStream request = new ByteArrayInputStream("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingInsertCommand command = new StreamingInsertCommand(mediator, "name", "1.0", request, 2, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream().write(out);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(2, lines.length);
+        JsonNode first = JsonUtils.json(lines[0]);
+        Assert.assertEquals(0, first.get("batch").asInt());
+        Assert.assertEquals(2, first.get("size").asInt());
+        Assert.assertEquals("COMPLETE", first.get("response").get("status").asText());
+        JsonNode second = JsonUtils.json(lines[1]);
+        Assert.assertEquals(1, second.get("batch").asInt());
+        Assert.assertEquals(1, second.get("size").asInt());
+
+        Assert.assertEquals("insert", mediator.methodCalled);
+        InsertionRequest last = (InsertionRequest) mediator.args[0];
+        Assert.assertEquals(3, last.getEntityData().get(0).get("a").asInt());
+    }
+
+    @Test
+    public void insertMalformedDocument() throws Exception {
+        InputStream request = new ByteArrayInputStream("{\"a\":1}\n{\"a\":2}\n{\"a\":3}\n{not json}\n{\"a\":5}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingInsertCommand command = new StreamingInsertCommand(mediator, "name", "1.0", request, 2, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        command.getResponseStream().write(out);
+
+        // The first batch is inserted, the batch of the malformed
+        // document is not, and the stream ends with its error
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("COMPLETE", JsonUtils.json(lines[0]).get("response").get("status").asText());
+        JsonNode last = JsonUtils.json(lines[1]);
+        Assert.assertEquals(1, last.get("batch").asInt());
+        Assert.assertEquals(1, last.get("size").asInt());
+        Assert.assertEquals("ERROR", last.get("response").get("status").asText());
+        Assert.assertEquals(RestCrudConstants.ERR_REST_INSERT,
+                last.get("response").get("errors").get(0).get("errorCode").asText());
+        InsertionRequest inserted = (InsertionRequest) mediator.args[0];
+        Assert.assertEquals(2, inserted.getEntityData().size());
+    }
+
+    @Test
+    public void insertExactDecimals() throws Exception {
+        InputStream request = new ByteArrayInputStream("{\"a\":0.10000000000000000001}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        StreamingInsertCommand command = new StreamingInsertCommand(mediator, "name", "1.0", request, 2, new NoopRequestMetrics());
+
+        Assert.assertFalse(command.run().hasErrors());
+        command.getResponseStream().write(new ByteArrayOutputStream());
+
+        InsertionRequest inserted = (InsertionRequest) mediator.args[0];
+        Assert.assertEquals(new BigDecimal("0.10000000000000000001"), inserted.getEntityData().get(0).get("a").decimalValue());
+    }
+}
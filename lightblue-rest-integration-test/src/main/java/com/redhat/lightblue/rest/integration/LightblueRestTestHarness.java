@@ -10,12 +10,14 @@ import org.jboss.resteasy.spi.ResteasyDeployment;
 import org.junit.AfterClass;
 
 import com.redhat.lightblue.mongo.test.LightblueMongoTestHarness;
+import com.redhat.lightblue.rest.BinaryJsonStringProvider;
+import com.redhat.lightblue.rest.CallStatusMessageBodyWriter;
 import com.redhat.lightblue.rest.RestConfiguration;
+import com.redhat.lightblue.rest.compress.CompressionInterceptor;
 import com.redhat.lightblue.rest.crud.CrudResource;
 import com.redhat.lightblue.rest.logging.LoggingFilter;
 import com.redhat.lightblue.rest.metadata.MetadataResource;
 import com.restcompress.provider.LZFDecodingInterceptor;
-import com.restcompress.provider.LZFEncodingInterceptor;
 
 import io.undertow.Undertow;
 import io.undertow.security.idm.IdentityManager;
@@ -154,13 +156,16 @@ public abstract class LightblueRestTestHarness extends LightblueMongoTestHarness
 
             ResteasyDeployment dataDeployment = new ResteasyDeployment();
             dataDeployment.getActualResourceClasses().add(CrudResource.class);
-            dataDeployment.getActualProviderClasses().add(LZFEncodingInterceptor.class);
+            dataDeployment.getActualProviderClasses().add(CompressionInterceptor.class);
             dataDeployment.getActualProviderClasses().add(LZFDecodingInterceptor.class);
+            dataDeployment.getActualProviderClasses().add(CallStatusMessageBodyWriter.class);
+            dataDeployment.getActualProviderClasses().add(BinaryJsonStringProvider.class);
 
             ResteasyDeployment metadataDeployment = new ResteasyDeployment();
             metadataDeployment.getActualResourceClasses().add(MetadataResource.class);
-            metadataDeployment.getActualProviderClasses().add(LZFEncodingInterceptor.class);
+            metadataDeployment.getActualProviderClasses().add(CompressionInterceptor.class);
             metadataDeployment.getActualProviderClasses().add(LZFDecodingInterceptor.class);
+            metadataDeployment.getActualProviderClasses().add(BinaryJsonStringProvider.class);
 
             Undertow.Builder builder = Undertow.builder()
                     .addHttpListener(getHttpPort(), getHttpHost());
@@ -189,7 +194,7 @@ public abstract class LightblueRestTestHarness extends LightblueMongoTestHarness
         deploymentInfo.setClassLoader(getClass().getClassLoader());
         deploymentInfo.setDeploymentName(name);
         deploymentInfo.setContextPath(contextPath);
-        deploymentInfo.addFilter(Servlets.filter(name + "LoggingFilter", LoggingFilter.class));
+        deploymentInfo.addFilter(Servlets.filter(name + "LoggingFilter", LoggingFilter.class).setAsyncSupported(true));
         deploymentInfo.addFilterUrlMapping(name + "LoggingFilter", "/*", DispatcherType.REQUEST);
     }
 
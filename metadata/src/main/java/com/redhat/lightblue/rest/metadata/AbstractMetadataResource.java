@@ -43,7 +43,10 @@ import com.redhat.lightblue.metadata.Metadata;
 import com.redhat.lightblue.metadata.MetadataConstants;
 import com.redhat.lightblue.metadata.MetadataRole;
 import com.redhat.lightblue.query.QueryExpression;
+import com.redhat.lightblue.rest.BinaryJsonStringProvider;
 import com.redhat.lightblue.rest.RestConfiguration;
+import com.redhat.lightblue.rest.WireFormat;
+import com.redhat.lightblue.rest.compress.CompressionGroup;
 import com.redhat.lightblue.rest.metadata.cmd.CreateEntityMetadataCommand;
 import com.redhat.lightblue.rest.metadata.cmd.CreateEntitySchemaCommand;
 import com.redhat.lightblue.rest.metadata.cmd.GetDependenciesCommand;
@@ -63,10 +66,15 @@ import com.redhat.lightblue.util.JsonUtils;
 import com.restcompress.provider.LZF;
 
 /**
+ * Responses and request bodies are JSON, or Smile or CBOR if the client
+ * asks for them. Binary bodies are converted to and from json text by
+ * {@link BinaryJsonStringProvider}.
+ *
  * @author nmalik
  * @author bserdar
  */
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
+@CompressionGroup("metadata")
 public abstract class AbstractMetadataResource {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractMetadataResource.class);
 
@@ -197,7 +205,7 @@ public abstract class AbstractMetadataResource {
     @PUT
     @LZF
     @Path("/{entity}/{version}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
     public String createMetadata(@Context SecurityContext sc, @PathParam(PARAM_ENTITY) String entity, @PathParam(PARAM_VERSION) String version, String data) {
         Error.reset();
 
@@ -208,7 +216,7 @@ public abstract class AbstractMetadataResource {
     @PUT
     @LZF
     @Path("/{entity}/schema={version}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
     public String createSchema(@Context SecurityContext sc, @PathParam(PARAM_ENTITY) String entity, @PathParam(PARAM_VERSION) String version, String schema) {
         Error.reset();
 
@@ -219,7 +227,7 @@ public abstract class AbstractMetadataResource {
     @PUT
     @LZF
     @Path("/{entity}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, WireFormat.APPLICATION_SMILE, WireFormat.APPLICATION_CBOR})
     public String updateEntityInfo(@Context SecurityContext sc, @PathParam(PARAM_ENTITY) String entity, String info) {
         Error.reset();
 
@@ -25,10 +25,12 @@ import java.util.Set;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.core.Application;
 
+import com.redhat.lightblue.rest.BinaryJsonStringProvider;
+
 @ApplicationPath("/")
 public class RestApplication extends Application {
     @Override
     public Set<Class<?>> getClasses() {
-        return new HashSet<Class<?>>(Arrays.asList(MetadataResource.class));
+        return new HashSet<Class<?>>(Arrays.asList(MetadataResource.class, BinaryJsonStringProvider.class));
     }
 }
@@ -2,7 +2,9 @@ package com.redhat.lightblue.rest.test.support;
 
 import org.jboss.resteasy.plugins.server.servlet.HttpServletDispatcher;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.ws.rs.core.Application;
@@ -20,6 +22,10 @@ public abstract class CrudWebXmls {
     /**
      * Uses the production web.xml, but enriches it with standalone Weld and RESTEasy so it may run
      * more portably in non full EE profile containers like Jetty or Tomcat.
+     *
+     * If the production web.xml declares the RESTEasy servlet of the application, it is switched to
+     * the blocking dispatcher, and async-supported is removed, because the embedded test container
+     * only supports Servlet 2.5.
      */
     public static Document forNonEE6Container(Class<? extends Application> restApplicationClass) throws ParserConfigurationException, IOException, SAXException {
         DocumentBuilder docBuilder = documentBuilder();
@@ -30,16 +36,30 @@ public abstract class CrudWebXmls {
                 .appendChild(webXml.createElement("listener-class"))
                 .appendChild(webXml.createTextNode("org.jboss.weld.environment.servlet.Listener"));
 
-        Node restEasy = webApp.appendChild(webXml.createElement("servlet"));
+        NodeList asyncSupported = webXml.getElementsByTagName("async-supported");
+        while (asyncSupported.getLength() > 0) {
+            Node node = asyncSupported.item(0);
+            node.getParentNode().removeChild(node);
+        }
+
+        Element restEasy = findServlet(webXml, restApplicationClass.getName());
+        if (restEasy != null) {
+            Node servletClass = restEasy.getElementsByTagName("servlet-class").item(0);
+            if (servletClass == null) {
+                servletClass = restEasy.insertBefore(webXml.createElement("servlet-class"),
+                        restEasy.getElementsByTagName("servlet-name").item(0).getNextSibling());
+            }
+            servletClass.setTextContent(HttpServletDispatcher.class.getName());
+            addApplicationParam(webXml, restEasy, restApplicationClass);
+            return webXml;
+        }
+
+        restEasy = (Element) webApp.appendChild(webXml.createElement("servlet"));
         restEasy.appendChild(webXml.createElement("servlet-name"))
                 .appendChild(webXml.createTextNode(RESTEASY_SERVLET_NAME));
         restEasy.appendChild(webXml.createElement("servlet-class"))
                 .appendChild(webXml.createTextNode(HttpServletDispatcher.class.getName()));
-        Node restEasyParams = restEasy.appendChild(webXml.createElement("init-param"));
-        restEasyParams.appendChild(webXml.createElement("param-name"))
-                .appendChild(webXml.createTextNode("javax.ws.rs.Application"));
-        restEasyParams.appendChild(webXml.createElement("param-value"))
-                .appendChild(webXml.createTextNode(restApplicationClass.getName()));
+        addApplicationParam(webXml, restEasy, restApplicationClass);
 
         Node restEasyMapping = webApp.appendChild(webXml.createElement("servlet-mapping"));
         restEasyMapping.appendChild(webXml.createElement("servlet-name"))
@@ -50,6 +70,26 @@ public abstract class CrudWebXmls {
         return webXml;
     }
 
+    private static Element findServlet(Document webXml, String name) {
+        NodeList servlets = webXml.getElementsByTagName("servlet");
+        for (int i = 0; i < servlets.getLength(); i++) {
+            Element servlet = (Element) servlets.item(i);
+            Node servletName = servlet.getElementsByTagName("servlet-name").item(0);
+            if (servletName != null && name.equals(servletName.getTextContent().trim())) {
+                return servlet;
+            }
+        }
+        return null;
+    }
+
+    private static void addApplicationParam(Document webXml, Node servlet, Class<? extends Application> restApplicationClass) {
+        Node restEasyParams = servlet.appendChild(webXml.createElement("init-param"));
+        restEasyParams.appendChild(webXml.createElement("param-name"))
+                .appendChild(webXml.createTextNode("javax.ws.rs.Application"));
+        restEasyParams.appendChild(webXml.createElement("param-value"))
+                .appendChild(webXml.createTextNode(restApplicationClass.getName()));
+    }
+
     private static DocumentBuilder documentBuilder() throws ParserConfigurationException {
         if (documentBuilder == null) {
             synchronized (CrudWebXmls.class) {
@@ -61,4 +101,4 @@ public abstract class CrudWebXmls {
 
         return documentBuilder;
     }
-}
\ No newline at end of file
+}